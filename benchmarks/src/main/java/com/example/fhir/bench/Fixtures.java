@@ -0,0 +1,70 @@
+package com.example.fhir.bench;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.ContactPoint;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Recursos de ejemplo con el contenido típico de un paciente y un signo vital
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static Patient patient(String id) {
+        Patient patient = new Patient();
+        patient.setId("Patient/" + id);
+        patient.addIdentifier(new Identifier().setSystem("urn:oid:2.16.840.1.113883.4.1").setValue("123-45-" + id));
+        patient.addName(new HumanName()
+            .setUse(HumanName.NameUse.OFFICIAL)
+            .setFamily("González")
+            .addGiven("María")
+            .addGiven("José"));
+        patient.setGender(Enumerations.AdministrativeGender.FEMALE);
+        patient.setBirthDate(new GregorianCalendar(1980, Calendar.MARCH, 15).getTime());
+        patient.addTelecom(new ContactPoint()
+            .setSystem(ContactPoint.ContactPointSystem.PHONE)
+            .setValue("+56 9 1234 5678")
+            .setUse(ContactPoint.ContactPointUse.MOBILE));
+        patient.addAddress()
+            .addLine("Av. Libertador 1234")
+            .setCity("Santiago")
+            .setCountry("CL");
+        patient.setActive(true);
+        return patient;
+    }
+
+    static Observation observation(String id, String patientId) {
+        Observation observation = new Observation();
+        observation.setId("Observation/" + id);
+        observation.setStatus(Observation.ObservationStatus.FINAL);
+        observation.addCategory(new CodeableConcept().addCoding(new Coding()
+            .setSystem("http://terminology.hl7.org/CodeSystem/observation-category")
+            .setCode("vital-signs")
+            .setDisplay("Vital Signs")));
+        observation.setCode(new CodeableConcept().addCoding(new Coding()
+            .setSystem("http://loinc.org")
+            .setCode("8867-4")
+            .setDisplay("Heart rate")));
+        observation.setSubject(new Reference("Patient/" + patientId));
+        observation.setEffective(new DateTimeType("2024-05-01T10:30:00-04:00"));
+        observation.setValue(new Quantity()
+            .setValue(72)
+            .setUnit("beats/minute")
+            .setSystem("http://unitsofmeasure.org")
+            .setCode("/min"));
+        return observation;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.fhir.bench;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parseo y codificación JSON con HAPI: un Patient, una Observation y un Bundle searchset
+ * de 50 Observations (tamaño de página por defecto)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBenchmark {
+
+    private static final int BUNDLE_ENTRIES = 50;
+
+    private FhirContext fhirContext;
+    private Patient patient;
+    private Observation observation;
+    private Bundle bundle;
+    private String patientJson;
+    private String observationJson;
+    private String bundleJson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fhirContext = FhirContext.forR4();
+        patient = Fixtures.patient("p1");
+        observation = Fixtures.observation("o1", "p1");
+        bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.SEARCHSET);
+        bundle.setTotal(BUNDLE_ENTRIES);
+        for (int i = 0; i < BUNDLE_ENTRIES; i++) {
+            Observation entry = Fixtures.observation("o" + i, "p1");
+            bundle.addEntry()
+                .setFullUrl("http://localhost:8080/fhir/Observation/o" + i)
+                .setResource(entry)
+                .getSearch().setMode(Bundle.SearchEntryMode.MATCH);
+        }
+        IParser parser = fhirContext.newJsonParser();
+        patientJson = parser.encodeResourceToString(patient);
+        observationJson = parser.encodeResourceToString(observation);
+        bundleJson = parser.encodeResourceToString(bundle);
+    }
+
+    @Benchmark
+    public String encodePatient() {
+        return fhirContext.newJsonParser().encodeResourceToString(patient);
+    }
+
+    @Benchmark
+    public Patient parsePatient() {
+        return fhirContext.newJsonParser().parseResource(Patient.class, patientJson);
+    }
+
+    @Benchmark
+    public String encodeObservation() {
+        return fhirContext.newJsonParser().encodeResourceToString(observation);
+    }
+
+    @Benchmark
+    public Observation parseObservation() {
+        return fhirContext.newJsonParser().parseResource(Observation.class, observationJson);
+    }
+
+    @Benchmark
+    public String encodeBundle() {
+        return fhirContext.newJsonParser().encodeResourceToString(bundle);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String encodeBundleConcurrent() {
+        return encodeBundle();
+    }
+
+    @Benchmark
+    public Bundle parseBundle() {
+        return fhirContext.newJsonParser().parseResource(Bundle.class, bundleJson);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Bundle parseBundleConcurrent() {
+        return parseBundle();
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.fhir.bench;
+
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringAndListParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import com.example.fhir.model.User;
+import com.example.fhir.provider.ObservationProvider;
+import com.example.fhir.provider.PatientProvider;
+import com.example.fhir.storage.InMemoryStorage;
+import com.example.fhir.util.AuthContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PatientProvider y ObservationProvider: create, read, primera página de search (también con
+ * code/subject/date, name/identifier y con _include=Observation:subject), Patient/$everything y
+ * Observation/$lastn
+ * Se invocan los métodos de los providers directamente (sin HTTP ni interceptores),
+ * con un administrador en AuthContext
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderBenchmark {
+
+    private static final int PATIENTS = 1000;
+    private static final int OBSERVATIONS_PER_PATIENT = 10;
+    private static final int PAGE_SIZE = 50;
+    private static final Set<Include> INCLUDE_SUBJECT = Set.of(new Include(ObservationProvider.INCLUDE_SUBJECT));
+
+    @State(Scope.Benchmark)
+    public static class Data {
+        PatientProvider patientProvider;
+        ObservationProvider observationProvider;
+        Patient patientTemplate;
+        Observation observationTemplate;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            InMemoryStorage storage = InMemoryStorage.getInstance();
+            storage.clear();
+            for (int i = 0; i < PATIENTS; i++) {
+                storage.savePatient(Fixtures.patient("p" + i));
+                for (int j = 0; j < OBSERVATIONS_PER_PATIENT; j++) {
+                    storage.saveObservation(Fixtures.observation("o" + i + "-" + j, "p" + i));
+                }
+            }
+            patientProvider = new PatientProvider();
+            observationProvider = new ObservationProvider();
+            patientTemplate = Fixtures.patient("template");
+            patientTemplate.setId((String) null);
+            observationTemplate = Fixtures.observation("template", "p0");
+            observationTemplate.setId((String) null);
+        }
+    }
+
+    /**
+     * Usuario autenticado del hilo del benchmark (AuthContext es por hilo)
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        final SystemRequestDetails requestDetails = new SystemRequestDetails();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            AuthContext.setUser(new User("bench-admin", "", "admin"));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            AuthContext.clear();
+        }
+    }
+
+    @Benchmark
+    public MethodOutcome createPatient(Data data, Session session) {
+        return data.patientProvider.createPatient(data.patientTemplate.copy(), session.requestDetails);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public MethodOutcome createPatientConcurrent(Data data, Session session) {
+        return createPatient(data, session);
+    }
+
+    @Benchmark
+    public Patient readPatient(Data data, Session session) {
+        IdType id = new IdType("Patient", "p" + ThreadLocalRandom.current().nextInt(PATIENTS));
+        return data.patientProvider.readPatient(id, session.requestDetails);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Patient readPatientConcurrent(Data data, Session session) {
+        return readPatient(data, session);
+    }
+
+    @Benchmark
+    public List<IBaseResource> searchPatients(Data data, Session session) {
+        IBundleProvider results = data.patientProvider.searchPatients(null, null, null, null, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<IBaseResource> everything(Data data, Session session) {
+        IdType id = new IdType("Patient", "p" + ThreadLocalRandom.current().nextInt(PATIENTS));
+        IBundleProvider results = data.patientProvider.everything(id, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<IBaseResource> everythingConcurrent(Data data, Session session) {
+        return everything(data, session);
+    }
+
+    @Benchmark
+    public List<IBaseResource> searchPatientsByIdentifier(Data data, Session session) {
+        TokenAndListParam identifier = new TokenAndListParam().addAnd(
+            new TokenParam("urn:oid:2.16.840.1.113883.4.1", "123-45-p" + ThreadLocalRandom.current().nextInt(PATIENTS)));
+        IBundleProvider results = data.patientProvider.searchPatients(null, identifier, null, null, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<IBaseResource> searchPatientsByNamePrefix(Data data, Session session) {
+        StringAndListParam name = new StringAndListParam().addAnd(new StringParam("gonz mar"));
+        IBundleProvider results = data.patientProvider.searchPatients(name, null, null, null, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public MethodOutcome createObservation(Data data, Session session) {
+        return data.observationProvider.createObservation(data.observationTemplate.copy(), session.requestDetails);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public MethodOutcome createObservationConcurrent(Data data, Session session) {
+        return createObservation(data, session);
+    }
+
+    @Benchmark
+    public Observation readObservation(Data data, Session session) {
+        int patient = ThreadLocalRandom.current().nextInt(PATIENTS);
+        int observation = ThreadLocalRandom.current().nextInt(OBSERVATIONS_PER_PATIENT);
+        IdType id = new IdType("Observation", "o" + patient + "-" + observation);
+        return data.observationProvider.readObservation(id, session.requestDetails);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Observation readObservationConcurrent(Data data, Session session) {
+        return readObservation(data, session);
+    }
+
+    @Benchmark
+    public List<IBaseResource> searchObservations(Data data, Session session) {
+        IBundleProvider results = data.observationProvider.searchObservations(null, null, null, null, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<IBaseResource> searchObservationsConcurrent(Data data, Session session) {
+        return searchObservations(data, session);
+    }
+
+    @Benchmark
+    public List<IBaseResource> searchObservationsByCodeAndSubject(Data data, Session session) {
+        TokenAndListParam code = new TokenAndListParam().addAnd(new TokenParam("http://loinc.org", "8867-4"));
+        ReferenceAndListParam subject = new ReferenceAndListParam().addAnd(
+            new ReferenceOrListParam().add(new ReferenceParam("Patient/p" + ThreadLocalRandom.current().nextInt(PATIENTS))));
+        DateRangeParam date = new DateRangeParam("ge2024-01-01", "le2024-12-31");
+        IBundleProvider results = data.observationProvider.searchObservations(date, code, subject, null, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    /**
+     * Dos condiciones amplias (code y date): el resultado sale de intersecar bitmaps completos
+     */
+    @Benchmark
+    public List<IBaseResource> searchObservationsByCodeAndDate(Data data, Session session) {
+        TokenAndListParam code = new TokenAndListParam().addAnd(new TokenParam("http://loinc.org", "8867-4"));
+        DateRangeParam date = new DateRangeParam("ge2024-01-01", "le2024-12-31");
+        IBundleProvider results = data.observationProvider.searchObservations(date, code, null, null, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<IBaseResource> searchObservationsIncludeSubject(Data data, Session session) {
+        IBundleProvider results = data.observationProvider.searchObservations(null, null, null, INCLUDE_SUBJECT, session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<IBaseResource> lastN(Data data, Session session) {
+        ReferenceParam patient = new ReferenceParam("Patient/p" + ThreadLocalRandom.current().nextInt(PATIENTS));
+        IBundleProvider results = data.observationProvider.lastN(patient, null, null, new IntegerType(3), session.requestDetails);
+        return results.getResources(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<IBaseResource> lastNConcurrent(Data data, Session session) {
+        return lastN(data, session);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.fhir.bench;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.SystemRequestDetails;
+import com.example.fhir.interceptor.SecurityInterceptor;
+import com.example.fhir.model.User;
+import com.example.fhir.storage.UserStorage;
+import com.example.fhir.util.AuthContext;
+import com.example.fhir.util.TokenService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SecurityInterceptor.authenticate con HTTP Basic (decodificación, búsqueda del usuario,
+ * verificación de la contraseña y de permisos) o con un token bearer (solo verificación de
+ * la firma HMAC y de permisos)
+ *
+ * Usa los usuarios por defecto de UserStorage (admin/admin123, user/user123) del
+ * users.json del directorio de trabajo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecurityBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Credentials {
+        @Param({"admin:admin123", "user:user123"})
+        public String credentials;
+
+        @Param({"basic", "bearer"})
+        public String scheme;
+
+        SecurityInterceptor interceptor;
+        String authorization;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            String[] parts = credentials.split(":", 2);
+            User user = UserStorage.getInstance().authenticate(parts[0], parts[1]);
+            if (user == null) {
+                throw new IllegalStateException("El usuario " + parts[0] + " no existe con la contraseña por defecto");
+            }
+            interceptor = new SecurityInterceptor();
+            authorization = "bearer".equals(scheme)
+                ? "Bearer " + TokenService.getInstance().issue(user)
+                : "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        SystemRequestDetails requestDetails;
+
+        @Setup(Level.Trial)
+        public void setUp(Credentials credentials) {
+            requestDetails = new SystemRequestDetails();
+            requestDetails.addHeader("Authorization", credentials.authorization);
+            requestDetails.setRestOperationType(RestOperationTypeEnum.READ);
+        }
+    }
+
+    @Benchmark
+    public void authenticate(Credentials credentials, Request request) {
+        credentials.interceptor.authenticate(request.requestDetails);
+        AuthContext.clear();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void authenticateConcurrent(Credentials credentials, Request request) {
+        authenticate(credentials, request);
+    }
+}
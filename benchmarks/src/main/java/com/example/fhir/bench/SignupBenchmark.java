@@ -0,0 +1,62 @@
+package com.example.fhir.bench;
+
+import com.example.fhir.storage.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserStorage.registerUser: altas de usuarios nuevos (tormenta de registros)
+ *
+ * PBKDF2 se configura con pocas iteraciones para que domine el costo de persistencia.
+ * Los archivos se escriben en target/bench-users (se reutiliza entre ejecuciones: cada alta
+ * usa un username único por fork). Cada combinación de parámetros corre en su propio fork,
+ * así fhir.users.sync se puede fijar antes de inicializar UserStorage.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dfhir.users.dir=target/bench-users", "-Dfhir.auth.pbkdf2Iterations=1000"})
+@State(Scope.Benchmark)
+public class SignupBenchmark {
+
+    @Param({"true", "false"})
+    public String sync;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private String prefix;
+    private UserStorage storage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("fhir.users.sync", sync);
+        storage = UserStorage.getInstance();
+        prefix = "bench-" + System.nanoTime() + "-";
+    }
+
+    @Benchmark
+    public boolean signup() {
+        String username = prefix + sequence.incrementAndGet();
+        return storage.registerUser(username, "secret", username + "@example.com", null);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean signupConcurrent() {
+        return signup();
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.fhir.bench;
+
+import com.example.fhir.storage.InMemoryStorage;
+import com.example.fhir.storage.ValueStats;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Quantity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Observation/$stats sobre el almacén columnar: una Observation de frecuencia cardíaca por
+ * minuto durante "days" días para un solo paciente
+ * Con days=365 se cargan ~525.000 Observations (usar -Xmx2g o más)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatsBenchmark {
+
+    private static final String SUBJECT = "Patient/p0";
+    private static final String HEART_RATE = "http://loinc.org|8867-4";
+    private static final String PER_MINUTE = "/min";
+    private static final long START = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    private static final long MINUTE = 60_000L;
+
+    @Param({"30", "365"})
+    public int days;
+
+    private InMemoryStorage storage;
+    private long end;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        storage = InMemoryStorage.getInstance();
+        storage.clear();
+        Random random = new Random(42);
+        int points = days * 24 * 60;
+        for (int i = 0; i < points; i++) {
+            Observation observation = Fixtures.observation("hr" + i, "p0");
+            observation.setEffective(new DateTimeType(new Date(START + i * MINUTE)));
+            observation.setValue(new Quantity()
+                .setValue(70 + random.nextGaussian() * 8)
+                .setUnit("beats/minute")
+                .setSystem("http://unitsofmeasure.org")
+                .setCode(PER_MINUTE));
+            storage.saveObservation(observation);
+        }
+        end = START + points * MINUTE;
+    }
+
+    /**
+     * count, min, max y media de toda la serie
+     */
+    @Benchmark
+    public List<ValueStats> aggregates() {
+        return storage.getValueStats(SUBJECT, HEART_RATE, PER_MINUTE, null, null, new double[0]);
+    }
+
+    /**
+     * Agregados y percentiles 50/90/99 de toda la serie
+     */
+    @Benchmark
+    public List<ValueStats> percentiles() {
+        return storage.getValueStats(SUBJECT, HEART_RATE, PER_MINUTE, null, null, new double[] {50, 90, 99});
+    }
+
+    /**
+     * Última semana de la serie (ventana resuelta con búsqueda binaria sobre los chunks)
+     */
+    @Benchmark
+    public List<ValueStats> lastWeek() {
+        return storage.getValueStats(SUBJECT, HEART_RATE, PER_MINUTE, end - 7 * 24 * 60 * MINUTE, end, new double[] {50, 90, 99});
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.fhir.bench;
+
+import com.example.fhir.storage.InMemoryStorage;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InMemoryStorage: guardar, leer por ID y listar todos
+ * Las variantes *Concurrent corren en todos los núcleos para medir la contención
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+
+    @Param({"1000", "10000"})
+    public int patients;
+
+    private InMemoryStorage storage;
+    private Patient template;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        storage = InMemoryStorage.getInstance();
+        storage.clear();
+        for (int i = 0; i < patients; i++) {
+            storage.savePatient(Fixtures.patient("p" + i));
+        }
+        template = Fixtures.patient("template");
+    }
+
+    @Benchmark
+    public Patient getPatient() {
+        return storage.getPatient("p" + ThreadLocalRandom.current().nextInt(patients));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Patient getPatientConcurrent() {
+        return getPatient();
+    }
+
+    /**
+     * Update de un paciente existente (genera una versión nueva en el historial)
+     */
+    @Benchmark
+    public void savePatient() {
+        Patient patient = template.copy();
+        patient.setId("Patient/p" + ThreadLocalRandom.current().nextInt(patients));
+        storage.savePatient(patient);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void savePatientConcurrent() {
+        savePatient();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<Patient> getAllPatients() {
+        return storage.getAllPatients();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(Threads.MAX)
+    public List<Patient> getAllPatientsConcurrent() {
+        return storage.getAllPatients();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.fhir.bench;
+
+import com.example.fhir.util.ValidationUtil;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ValidationUtil.validateResource sobre recursos válidos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    private Patient patient;
+    private Observation observation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        patient = Fixtures.patient("p1");
+        observation = Fixtures.observation("o1", "p1");
+    }
+
+    @Benchmark
+    public void validatePatient() {
+        ValidationUtil.validateResource(patient);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void validatePatientConcurrent() {
+        ValidationUtil.validateResource(patient);
+    }
+
+    @Benchmark
+    public void validateObservation() {
+        ValidationUtil.validateResource(observation);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void validateObservationConcurrent() {
+        ValidationUtil.validateResource(observation);
+    }
+}
@@ -3,17 +3,40 @@ package com.example.fhir;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.server.RestfulServer;
 import ca.uhn.fhir.rest.server.interceptor.ResponseHighlighterInterceptor;
+import com.example.fhir.cache.SerializedResourceCache;
+import com.example.fhir.cache.ValidationResultCache;
+import com.example.fhir.cache.VerifiedCredentialCache;
+import com.example.fhir.ingest.IngestPipeline;
+import com.example.fhir.interceptor.AuditLogWriter;
 import com.example.fhir.interceptor.LoggingInterceptor;
+import com.example.fhir.interceptor.MetricsInterceptor;
 import com.example.fhir.interceptor.SecurityInterceptor;
+import com.example.fhir.interceptor.SerializedResponseInterceptor;
+import com.example.fhir.interceptor.StreamingSearchInterceptor;
+import com.example.fhir.metrics.MetricsRegistry;
+import com.example.fhir.metrics.MetricsServlet;
+import com.example.fhir.paging.TtlPagingProvider;
+import com.example.fhir.provider.AuthProvider;
+import com.example.fhir.provider.IngestProvider;
 import com.example.fhir.provider.ObservationProvider;
 import com.example.fhir.provider.PatientProvider;
+import com.example.fhir.storage.InMemoryStorage;
+import com.example.fhir.storage.StoragePersistence;
+import com.example.fhir.storage.UserJournal;
 import com.example.fhir.storage.UserStorage;
+import com.example.fhir.util.FhirContextRegistry;
+import com.example.fhir.util.ValidationUtil;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import jakarta.servlet.ServletException;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Servidor FHIR embebido usando HAPI FHIR y Jetty
  * 
@@ -33,6 +56,7 @@ import jakarta.servlet.ServletException;
  * - POST /fhir/Observation - Crear observación
  * - PUT  /fhir/Observation/{id} - Actualizar observación
  * - DELETE /fhir/Observation/{id} - Eliminar observación
+ * - GET  /metrics - Métricas en formato Prometheus (solo administradores)
  * 
  * Autenticación:
  * - Usuario admin: admin / admin123 (permisos completos)
@@ -41,21 +65,105 @@ import jakarta.servlet.ServletException;
 public class FhirServerMain extends RestfulServer {
     
     private static final int PORT = 8080;
-    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+    private static final FhirContext FHIR_CONTEXT = FhirContextRegistry.getR4Context();
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    // Tamaño máximo de la caché de recursos serializados (-Dfhir.cache.serializedBytes)
+    private static final long SERIALIZED_CACHE_BYTES = Long.getLong("fhir.cache.serializedBytes", 64L * 1024 * 1024);
+    // Modo de ejecución de las peticiones: "platform" (pool acotado) o "virtual" (-Dfhir.server.threads)
+    private static final String THREAD_MODE = System.getProperty("fhir.server.threads", "platform");
+    // Tamaño del pool de hilos de plataforma de Jetty (-Dfhir.server.maxThreads)
+    private static final int MAX_THREADS = Integer.getInteger("fhir.server.maxThreads", 200);
+    // Ciclos sintéticos de la fase de warm-up (-Dfhir.warmup.iterations, 0 = solo escaneo del modelo)
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("fhir.warmup.iterations", 50);
     
     @Override
     protected void initialize() throws ServletException {
         // Configurar el contexto FHIR
         setFhirContext(FHIR_CONTEXT);
         
+        // Warm-up: escaneo del modelo, validador y ciclos sintéticos antes de aceptar tráfico
+        long warmUpMillis = FhirContextRegistry.warmUp(WARMUP_ITERATIONS);
+        
         // Registrar proveedores de recursos
-        registerProvider(new PatientProvider());
-        registerProvider(new ObservationProvider());
+        PatientProvider patientProvider = new PatientProvider();
+        ObservationProvider observationProvider = new ObservationProvider();
+        registerProvider(patientProvider);
+        registerProvider(observationProvider);
+        // Estado de la ingesta asíncrona y cuarentena
+        registerProvider(new IngestProvider());
+        // Login con token bearer y registro de usuarios
+        registerProvider(new AuthProvider());
+        
+        // Paginación de búsquedas: _count por página y cursores con expiración
+        TtlPagingProvider pagingProvider = new TtlPagingProvider(DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE, 10, TimeUnit.MINUTES, 1000);
+        setPagingProvider(pagingProvider);
+        
+        // Métricas de latencia (marca el inicio de la petición antes que el resto)
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        registerInterceptor(new MetricsInterceptor(metrics));
         
         // Interceptores (el orden importa: Security debe ir primero)
-        registerInterceptor(new SecurityInterceptor());
-        registerInterceptor(new LoggingInterceptor());
+        SecurityInterceptor securityInterceptor = new SecurityInterceptor();
+        registerInterceptor(securityInterceptor);
+        LoggingInterceptor loggingInterceptor = new LoggingInterceptor();
+        registerInterceptor(loggingInterceptor);
         registerInterceptor(new ResponseHighlighterInterceptor());
+        
+        // Búsquedas en streaming (header X-FHIR-Stream: true)
+        StreamingSearchInterceptor streamingInterceptor = new StreamingSearchInterceptor(FHIR_CONTEXT);
+        streamingInterceptor.registerSearch("Patient", requestDetails -> patientProvider.searchPatients(null, null, null, null, requestDetails));
+        streamingInterceptor.registerSearch("Observation", requestDetails -> observationProvider.searchObservations(null, null, null, null, requestDetails));
+        registerInterceptor(streamingInterceptor);
+        
+        // Caché de bytes serializados para lecturas; el almacenamiento la invalida en cada cambio
+        SerializedResourceCache serializedCache = new SerializedResourceCache(SERIALIZED_CACHE_BYTES);
+        InMemoryStorage.getInstance().addListener(serializedCache);
+        registerInterceptor(new SerializedResponseInterceptor(FHIR_CONTEXT, serializedCache));
+        
+        registerGauges(metrics, serializedCache, pagingProvider, loggingInterceptor.getAuditLog());
+        VerifiedCredentialCache credentialCache = securityInterceptor.getCredentialCache();
+        metrics.registerGauge("fhir_auth_cache_entries", "Headers Authorization verificados en caché", credentialCache::getEntryCount);
+        metrics.registerGauge("fhir_auth_cache_hits", "Autenticaciones resueltas sin recalcular el hash", credentialCache::getHits);
+        metrics.registerGauge("fhir_auth_cache_misses", "Autenticaciones que verificaron la contraseña", credentialCache::getMisses);
+        metrics.registerGauge("fhir_warmup_seconds", "Duración de la fase de warm-up", () -> warmUpMillis / 1000.0);
+    }
+    
+    private static void registerGauges(MetricsRegistry metrics, SerializedResourceCache serializedCache,
+                                       TtlPagingProvider pagingProvider, AuditLogWriter auditLog) {
+        InMemoryStorage storage = InMemoryStorage.getInstance();
+        metrics.registerGauge("fhir_storage_patients", "Pacientes almacenados", storage::getPatientCount);
+        metrics.registerGauge("fhir_storage_observations", "Observaciones almacenadas", storage::getObservationCount);
+        metrics.registerGauge("fhir_serialized_cache_bytes", "Bytes en la caché de serialización", serializedCache::getSizeBytes);
+        metrics.registerGauge("fhir_serialized_cache_entries", "Entradas en la caché de serialización", serializedCache::getEntryCount);
+        metrics.registerGauge("fhir_serialized_cache_hits", "Aciertos de la caché de serialización", serializedCache::getHits);
+        metrics.registerGauge("fhir_serialized_cache_misses", "Fallos de la caché de serialización", serializedCache::getMisses);
+        metrics.registerGauge("fhir_serialized_cache_evictions", "Desalojos de la caché de serialización", serializedCache::getEvictions);
+        ValidationResultCache validationCache = ValidationUtil.getCache();
+        if (validationCache != null) {
+            metrics.registerGauge("fhir_validation_cache_entries", "Resultados en la caché de validación", validationCache::getEntryCount);
+            metrics.registerGauge("fhir_validation_cache_hits", "Validaciones resueltas desde la caché", validationCache::getHits);
+            metrics.registerGauge("fhir_validation_cache_misses", "Validaciones ejecutadas por el validador", validationCache::getMisses);
+            metrics.registerGauge("fhir_validation_cache_evictions", "Desalojos de la caché de validación", validationCache::getEvictions);
+        }
+        IngestPipeline ingest = IngestPipeline.getInstance();
+        metrics.registerGauge("fhir_ingest_queue_depth", "Recursos pendientes de validación asíncrona", ingest::getQueueDepth);
+        metrics.registerGauge("fhir_ingest_submitted", "Recursos recibidos por la ingesta asíncrona", ingest::getSubmitted);
+        metrics.registerGauge("fhir_ingest_accepted", "Recursos validados y guardados", ingest::getAccepted);
+        metrics.registerGauge("fhir_ingest_quarantined", "Recursos enviados a cuarentena", ingest::getQuarantined);
+        metrics.registerGauge("fhir_ingest_quarantine_size", "Recursos actualmente en cuarentena", ingest::getQuarantineSize);
+        metrics.registerGauge("fhir_ingest_rejected_queue_full", "Peticiones rechazadas con cola llena", ingest::getRejectedQueueFull);
+        metrics.registerGauge("fhir_ingest_reject_ratio", "Proporción de recursos procesados que terminaron en cuarentena", ingest::getRejectRate);
+        metrics.registerHistogram("fhir_ingest_validation_lag_seconds", "Tiempo desde la recepción hasta la aceptación o cuarentena", ingest.getValidationLag());
+        UserJournal userJournal = UserStorage.getInstance().getJournal();
+        metrics.registerGauge("fhir_users_journal_pending", "Cambios de usuarios pendientes de escribir", userJournal::getPending);
+        metrics.registerGauge("fhir_users_journal_records", "Registros en el journal desde la última compactación", userJournal::getJournalRecords);
+        metrics.registerGauge("fhir_users_journal_written", "Registros escritos en el journal de usuarios", userJournal::getWritten);
+        metrics.registerGauge("fhir_users_compactions", "Compactaciones de users.json", userJournal::getCompactions);
+        metrics.registerGauge("fhir_paging_cursors", "Cursores de búsqueda activos", pagingProvider::size);
+        metrics.registerGauge("fhir_audit_queue_depth", "Líneas pendientes en el log de auditoría", auditLog::getQueueDepth);
+        metrics.registerGauge("fhir_audit_written", "Líneas escritas en el log de auditoría", auditLog::getWritten);
+        metrics.registerGauge("fhir_audit_dropped", "Líneas descartadas por buffer lleno", auditLog::getDropped);
     }
     
     public static void main(String[] args) throws Exception {
@@ -74,8 +182,20 @@ public class FhirServerMain extends RestfulServer {
             System.out.println("  - " + u.getUsername() + " (rol: " + u.getRole() + ")"));
         System.out.println("==========================================");
         
+        // Persistencia opcional (WAL + snapshots) de los recursos FHIR
+        StoragePersistence persistence = StoragePersistence.enableFromSystemProperties(InMemoryStorage.getInstance());
+        if (persistence != null) {
+            System.out.println("Persistencia habilitada en: " + System.getProperty("fhir.persistence.dir"));
+        } else {
+            System.out.println("Persistencia deshabilitada (solo memoria). Use -Dfhir.persistence.dir=<dir> para habilitarla.");
+        }
+        System.out.println("==========================================");
+        
         // Crear servidor Jetty
-        Server server = new Server(PORT);
+        Server server = new Server(createThreadPool());
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(PORT);
+        server.addConnector(connector);
         
         // Configurar contexto
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
@@ -85,14 +205,38 @@ public class FhirServerMain extends RestfulServer {
         // Registrar servlet FHIR
         FhirServerMain servlet = new FhirServerMain();
         ServletHolder servletHolder = new ServletHolder(servlet);
+        // Inicializar (y calentar) el servlet en server.start(), antes de abrir el puerto
+        servletHolder.setInitOrder(0);
         context.addServlet(servletHolder, "/fhir/*");
         
+        // Métricas en formato Prometheus
+        context.addServlet(new ServletHolder(new MetricsServlet(MetricsRegistry.getInstance())), "/metrics");
+        
         // Iniciar servidor
         server.start();
-        System.out.println("Servidor FHIR iniciado correctamente!");
+        System.out.println("Servidor FHIR iniciado correctamente! (hilos: " + THREAD_MODE + ")");
+        System.out.println("Métricas: http://localhost:" + PORT + "/metrics");
         System.out.println("Presiona Ctrl+C para detener el servidor.");
         
         server.join();
     }
+    
+    /**
+     * Pool de hilos de Jetty según fhir.server.threads
+     * En modo "virtual" los selectores y aceptadores siguen en hilos de plataforma y cada petición
+     * se ejecuta en un hilo virtual propio: una petición bloqueada (validación, disco) no ocupa
+     * un hilo del pool y la concurrencia deja de estar limitada por MAX_THREADS.
+     */
+    private static QueuedThreadPool createThreadPool() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(MAX_THREADS);
+        threadPool.setName("fhir-http");
+        if ("virtual".equalsIgnoreCase(THREAD_MODE)) {
+            threadPool.setVirtualThreadsExecutor(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fhir-http-virtual-", 0).factory()));
+        } else if (!"platform".equalsIgnoreCase(THREAD_MODE)) {
+            throw new IllegalArgumentException("fhir.server.threads debe ser 'platform' o 'virtual': " + THREAD_MODE);
+        }
+        return threadPool;
+    }
 }
 
@@ -0,0 +1,161 @@
+package com.example.fhir.cache;
+
+import com.example.fhir.storage.StorageListener;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Caché de representaciones serializadas (JSON/XML) de los recursos
+ *
+ * Cada entrada guarda la instancia del recurso a partir de la cual se codificó; InMemoryStorage
+ * reemplaza la instancia en cada update, por lo que la instancia funciona como versión: si el
+ * recurso leído no es el mismo objeto, la entrada se descarta. Además, los cambios notificados
+ * por el almacenamiento invalidan la entrada de inmediato.
+ *
+ * El tamaño total en bytes está acotado; al superarlo se desalojan entradas con el algoritmo
+ * CLOCK (segunda oportunidad), que aproxima LRU sin bloquear las lecturas.
+ */
+public class SerializedResourceCache implements StorageListener {
+    
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    
+    public SerializedResourceCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+    
+    /**
+     * Obtener los bytes codificados del recurso, codificándolo si no están en caché
+     * @param resourceType Tipo de recurso
+     * @param resource Instancia devuelta por el provider (define la versión)
+     * @param variant Formato de la representación (ej: "JSON|pretty")
+     * @param encoder Codificador usado en caso de fallo de caché
+     */
+    public byte[] get(String resourceType, IBaseResource resource, String variant, Supplier<byte[]> encoder) {
+        String key = resourceType + "/" + resource.getIdElement().getIdPart();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.source == resource) {
+            byte[] bytes = entry.variants.get(variant);
+            if (bytes != null) {
+                entry.referenced = true;
+                hits.increment();
+                return bytes;
+            }
+        }
+        
+        misses.increment();
+        byte[] bytes = encoder.get();
+        
+        if (entry == null || entry.source != resource) {
+            Entry fresh = new Entry(resource);
+            release(entries.put(key, fresh));
+            entry = fresh;
+        }
+        entry.add(variant, bytes, currentBytes);
+        
+        if (currentBytes.get() > maxBytes) {
+            evict();
+        }
+        return bytes;
+    }
+    
+    @Override
+    public void onChange(String resourceType, String id) {
+        release(entries.remove(resourceType + "/" + id));
+    }
+    
+    private void release(Entry entry) {
+        if (entry != null) {
+            entry.release(currentBytes);
+        }
+    }
+    
+    private void evict() {
+        // Un solo hilo desaloja; los demás siguen atendiendo peticiones
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (currentBytes.get() > maxBytes) {
+                if (!iterator.hasNext()) {
+                    iterator = entries.entrySet().iterator();
+                    if (!iterator.hasNext()) {
+                        break;
+                    }
+                }
+                Map.Entry<String, Entry> candidate = iterator.next();
+                Entry entry = candidate.getValue();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                    continue;
+                }
+                if (entries.remove(candidate.getKey(), entry)) {
+                    entry.release(currentBytes);
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    public long getEvictions() {
+        return evictions.sum();
+    }
+    
+    public long getSizeBytes() {
+        return currentBytes.get();
+    }
+    
+    public int getEntryCount() {
+        return entries.size();
+    }
+    
+    private static final class Entry {
+        final IBaseResource source;
+        final Map<String, byte[]> variants = new ConcurrentHashMap<>(4);
+        volatile boolean referenced = true;
+        // Contabilidad de bytes protegida por el monitor de la entrada
+        private long bytes;
+        private boolean released;
+        
+        Entry(IBaseResource source) {
+            this.source = source;
+        }
+        
+        synchronized void add(String variant, byte[] encoded, AtomicLong total) {
+            if (!released && variants.putIfAbsent(variant, encoded) == null) {
+                bytes += encoded.length;
+                total.addAndGet(encoded.length);
+            }
+        }
+        
+        synchronized void release(AtomicLong total) {
+            if (!released) {
+                released = true;
+                total.addAndGet(-bytes);
+            }
+        }
+    }
+}
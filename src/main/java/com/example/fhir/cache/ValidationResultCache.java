@@ -0,0 +1,140 @@
+package com.example.fhir.cache;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import org.hl7.fhir.r4.model.CanonicalType;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caché de resultados de validación
+ *
+ * La clave es el SHA-256 del recurso serializado en forma canónica (JSON compacto, sin ID ni
+ * meta.versionId/meta.lastUpdated, que el servidor asigna) más el conjunto de perfiles activos
+ * (configuración del validador y meta.profile del recurso, ordenados). Un recurso reenviado sin
+ * cambios obtiene el mismo resultado sin volver a ejecutar el validador.
+ *
+ * Se guardan tanto los resultados válidos como los errores. El número de entradas está acotado
+ * y se desaloja la usada hace más tiempo (LRU).
+ */
+public class ValidationResultCache {
+
+    // Resultado válido (los errores se guardan como su mensaje)
+    private static final String VALID = "";
+
+    private final FhirContext fhirContext;
+    private final String validatorProfiles;
+    private final Map<String, String> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param fhirContext Contexto usado para la serialización canónica
+     * @param validatorProfiles Identificador de la configuración del validador (perfiles activos)
+     * @param maxEntries Número máximo de resultados guardados
+     */
+    public ValidationResultCache(FhirContext fhirContext, String validatorProfiles, int maxEntries) {
+        this.fhirContext = fhirContext;
+        this.validatorProfiles = validatorProfiles;
+        this.entries = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Obtener el resultado de validación del recurso, validándolo si no está en caché
+     * @param resource Recurso a validar
+     * @param validator Validación real; devuelve null si el recurso es válido o el mensaje de error
+     * @return null si el recurso es válido, o el mensaje de error
+     */
+    public String validate(Resource resource, Supplier<String> validator) {
+        String key = keyOf(resource);
+        String cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached.isEmpty() ? null : cached;
+        }
+
+        misses.increment();
+        String errors = validator.get();
+        synchronized (entries) {
+            entries.put(key, errors == null ? VALID : errors);
+        }
+        return errors;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private String keyOf(Resource resource) {
+        IParser parser = fhirContext.newJsonParser()
+            .setPrettyPrint(false)
+            .setOmitResourceId(true)
+            .setDontEncodeElements(Set.of("*.meta.versionId", "*.meta.lastUpdated"));
+        byte[] canonical = parser.encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8);
+
+        Set<String> profiles = new TreeSet<>();
+        if (resource.hasMeta()) {
+            for (CanonicalType profile : resource.getMeta().getProfile()) {
+                if (profile.hasValue()) {
+                    profiles.add(profile.getValue());
+                }
+            }
+        }
+
+        MessageDigest digest = sha256();
+        digest.update(canonical);
+        return resource.fhirType() + "|" + validatorProfiles + "|" + String.join(",", profiles) + "|"
+            + HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.fhir.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché de headers Authorization ya verificados
+ *
+ * Verificar una contraseña con PBKDF2 cuesta decenas de milisegundos; los clientes reenvían el
+ * mismo header en cada petición. La caché guarda, por SHA-256 del header (nunca el header ni
+ * la contraseña), el usuario y el hash de contraseña con el que se verificó. Una entrada sirve
+ * solo mientras no expire su TTL y el hash almacenado del usuario siga siendo el mismo, así un
+ * cambio de contraseña la invalida de inmediato.
+ *
+ * Solo se guardan verificaciones exitosas. El tamaño está acotado: si está llena se eliminan
+ * las entradas expiradas y, si no alcanza, la verificación simplemente no se guarda.
+ */
+public class VerifiedCredentialCache {
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public VerifiedCredentialCache(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Buscar un header verificado
+     * @param authorizationHeader Header Authorization completo
+     * @return Clave de la entrada y, si hay una verificación vigente, el usuario
+     */
+    public Verified get(String authorizationHeader) {
+        String key = digest(authorizationHeader);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return new Verified(key, null, null);
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            misses.increment();
+            return new Verified(key, null, null);
+        }
+        hits.increment();
+        return new Verified(key, entry.username, entry.passwordHash);
+    }
+
+    /**
+     * Guardar una verificación exitosa
+     * @param key Clave devuelta por get()
+     * @param username Usuario verificado
+     * @param passwordHash Hash almacenado del usuario al momento de verificar
+     */
+    public void put(String key, String username, String passwordHash) {
+        long now = System.currentTimeMillis();
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf(entry -> entry.expiresAt < now);
+            if (entries.size() >= maxEntries) {
+                return;
+            }
+        }
+        entries.put(key, new Entry(username, passwordHash, now + ttlMillis));
+    }
+
+    /**
+     * Descartar una entrada (ej: el usuario ya no existe o cambió su contraseña)
+     */
+    public void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    private static String digest(String value) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha256.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Resultado de la búsqueda: username es null si no hay una verificación vigente
+     */
+    public static final class Verified {
+        private final String key;
+        private final String username;
+        private final String passwordHash;
+
+        Verified(String key, String username, String passwordHash) {
+            this.key = key;
+            this.username = username;
+            this.passwordHash = passwordHash;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPasswordHash() {
+            return passwordHash;
+        }
+    }
+
+    private static final class Entry {
+        final String username;
+        final String passwordHash;
+        final long expiresAt;
+
+        Entry(String username, String passwordHash, long expiresAt) {
+            this.username = username;
+            this.passwordHash = passwordHash;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
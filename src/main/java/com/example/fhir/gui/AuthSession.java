@@ -0,0 +1,134 @@
+package com.example.fhir.gui;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.interceptor.BasicAuthInterceptor;
+import com.example.fhir.model.User;
+import com.example.fhir.provider.AuthProvider;
+import com.example.fhir.util.FhirContextRegistry;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sesión del cliente contra el servidor FHIR
+ *
+ * Obtiene un token bearer con $login y lo agrega como interceptor a cada petición del cliente
+ * HAPI. Cuando el token está por expirar se pide uno nuevo con las mismas credenciales, así la
+ * sesión de la GUI dura más que el token.
+ */
+@Interceptor
+public class AuthSession {
+
+    // Margen para renovar el token antes de que el servidor lo rechace
+    private static final long REFRESH_MARGIN_MILLIS = 30_000;
+
+    private final String username;
+    private final String password;
+    private String serverUrl;
+    private User user;
+    private String token;
+    private long expiresAt;
+
+    private AuthSession(String serverUrl, String username, String password) {
+        this.serverUrl = serverUrl;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Iniciar sesión en el servidor
+     * @throws ca.uhn.fhir.rest.server.exceptions.AuthenticationException si las credenciales son inválidas
+     */
+    public static AuthSession login(String serverUrl, String username, String password) {
+        AuthSession session = new AuthSession(serverUrl, username, password);
+        session.refresh();
+        return session;
+    }
+
+    /**
+     * Registrar un usuario nuevo en el servidor (rol "user", sin Patient asociado)
+     * @throws ca.uhn.fhir.rest.server.exceptions.InvalidRequestException si el usuario ya existe
+     */
+    public static void signup(String serverUrl, String username, String password, String email) {
+        Parameters parameters = new Parameters();
+        parameters.addParameter().setName("username").setValue(new StringType(username));
+        parameters.addParameter().setName("password").setValue(new StringType(password));
+        parameters.addParameter().setName("email").setValue(new StringType(email));
+
+        IGenericClient client = FhirContextRegistry.getR4Context().newRestfulGenericClient(serverUrl);
+        client.operation().onServer().named(AuthProvider.SIGNUP_OPERATION)
+            .withParameters(parameters).execute();
+    }
+
+    /**
+     * Token vigente (se renueva si está por expirar)
+     */
+    public synchronized String getToken() {
+        if (token == null || System.currentTimeMillis() > expiresAt - REFRESH_MARGIN_MILLIS) {
+            refresh();
+        }
+        return token;
+    }
+
+    /**
+     * Cambiar de servidor: el token se pide de nuevo en la siguiente petición
+     */
+    public synchronized void setServerUrl(String serverUrl) {
+        if (!serverUrl.equals(this.serverUrl)) {
+            this.serverUrl = serverUrl;
+            this.token = null;
+        }
+    }
+
+    public synchronized String getServerUrl() {
+        return serverUrl;
+    }
+
+    /**
+     * Usuario autenticado (username, rol y patientId informados por el servidor)
+     */
+    public synchronized User getUser() {
+        return user;
+    }
+
+    @Hook(Pointcut.CLIENT_REQUEST)
+    public void addAuthorization(IHttpRequest request) {
+        request.addHeader("Authorization", "Bearer " + getToken());
+    }
+
+    /**
+     * Un 401 con token significa que el servidor ya no lo acepta (ej: se reinició con otro
+     * secreto): se descarta para pedir uno nuevo en la siguiente petición
+     */
+    @Hook(Pointcut.CLIENT_RESPONSE)
+    public synchronized void checkResponse(IHttpResponse response) {
+        if (response.getStatus() == 401) {
+            token = null;
+        }
+    }
+
+    private synchronized void refresh() {
+        IGenericClient client = FhirContextRegistry.getR4Context().newRestfulGenericClient(serverUrl);
+        client.registerInterceptor(new BasicAuthInterceptor(username, password));
+        Parameters response = client.operation().onServer().named(AuthProvider.LOGIN_OPERATION)
+            .withNoParameters(Parameters.class).execute();
+
+        Map<String, String> values = new HashMap<>();
+        for (Parameters.ParametersParameterComponent parameter : response.getParameter()) {
+            if (parameter.getValue() != null) {
+                values.put(parameter.getName(), parameter.getValue().primitiveValue());
+            }
+        }
+
+        this.token = values.get("access_token");
+        this.expiresAt = System.currentTimeMillis() + Long.parseLong(values.getOrDefault("expires_in", "0")) * 1000;
+        this.user = new User(values.get("username"), null, values.get("role"), values.get("patientId"), null);
+    }
+}
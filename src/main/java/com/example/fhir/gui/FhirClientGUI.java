@@ -22,13 +22,13 @@ public class FhirClientGUI extends JFrame {
     private ObservationPanel observationPanel;
     
     private User currentUser;
-    private String currentPassword;
+    private AuthSession session;
     
-    public FhirClientGUI(User user, String password) {
-        this.currentUser = user;
-        this.currentPassword = password;
+    public FhirClientGUI(AuthSession session) {
+        this.session = session;
+        this.currentUser = session.getUser();
         
-        setTitle("Cliente FHIR - Gestor de Recursos HL7 - Usuario: " + user.getUsername());
+        setTitle("Cliente FHIR - Gestor de Recursos HL7 - Usuario: " + currentUser.getUsername());
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(1200, 800);
         setLocationRelativeTo(null);
@@ -61,7 +61,7 @@ public class FhirClientGUI extends JFrame {
         gbc.gridx = 0; gbc.gridy = 1;
         configPanel.add(new JLabel("URL del Servidor:"), gbc);
         gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
-        serverUrlField = new JTextField(DEFAULT_SERVER_URL, 30);
+        serverUrlField = new JTextField(session.getServerUrl(), 30);
         configPanel.add(serverUrlField, gbc);
         
         // Botón reconectar
@@ -111,9 +111,10 @@ public class FhirClientGUI extends JFrame {
         log("Intentando conectar a: " + serverUrl);
         log("Usuario: " + currentUser.getUsername() + " | Rol: " + currentUser.getRole());
         
-        // Actualizar configuración en los paneles
-        patientPanel.setServerConfig(serverUrl, currentUser.getUsername(), currentPassword);
-        observationPanel.setServerConfig(serverUrl, currentUser.getUsername(), currentPassword);
+        // Actualizar configuración en los paneles (si cambia el servidor se pide un token nuevo)
+        session.setServerUrl(serverUrl);
+        patientPanel.setServerConfig(serverUrl, session);
+        observationPanel.setServerConfig(serverUrl, session);
         
         // Probar conexión en un hilo separado para no bloquear la UI
         new Thread(() -> {
@@ -159,13 +160,10 @@ public class FhirClientGUI extends JFrame {
             dispose();
             // Mostrar ventana de login nuevamente
             SwingUtilities.invokeLater(() -> {
-                LoginWindow loginWindow = new LoginWindow();
+                LoginWindow loginWindow = new LoginWindow(session.getServerUrl());
                 User user = loginWindow.showAndWait();
                 if (user != null) {
-                    String password = loginWindow.getAuthenticatedPassword();
-                    if (password != null && !password.isEmpty()) {
-                        new FhirClientGUI(user, password).setVisible(true);
-                    }
+                    new FhirClientGUI(loginWindow.getSession()).setVisible(true);
                 }
             });
         }
@@ -192,18 +190,12 @@ public class FhirClientGUI extends JFrame {
         SwingUtilities.invokeLater(() -> {
             try {
                 // Mostrar ventana de login primero
-                LoginWindow loginWindow = new LoginWindow();
+                LoginWindow loginWindow = new LoginWindow(DEFAULT_SERVER_URL);
                 User user = loginWindow.showAndWait();
                 
                 if (user != null) {
-                    String password = loginWindow.getAuthenticatedPassword();
-                    if (password != null && !password.isEmpty()) {
-                        FhirClientGUI gui = new FhirClientGUI(user, password);
-                        gui.setVisible(true);
-                    } else {
-                        System.err.println("Error: No se pudo obtener la contraseña del usuario");
-                        System.exit(1);
-                    }
+                    FhirClientGUI gui = new FhirClientGUI(loginWindow.getSession());
+                    gui.setVisible(true);
                 } else {
                     System.out.println("Login cancelado por el usuario");
                     System.exit(0);
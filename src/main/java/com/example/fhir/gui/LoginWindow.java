@@ -1,30 +1,29 @@
 package com.example.fhir.gui;
 
+import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import com.example.fhir.model.User;
-import com.example.fhir.storage.UserStorage;
 
 import javax.swing.*;
 import java.awt.*;
 
 /**
  * Ventana de Login y Registro de usuarios
+ * Ambos se hacen contra el servidor ($login y $signup); la GUI no lee users.json
  */
 public class LoginWindow {
     
+    private JTextField serverUrlField;
     private JTextField usernameField;
     private JPasswordField passwordField;
     private JTextField emailField;
-    private JTextField patientIdField;
     private JTabbedPane tabbedPane;
-    private User authenticatedUser;
-    private String authenticatedPassword;
+    private AuthSession session;
     private boolean loginSuccessful = false;
     private JDialog dialog;
     
-    private UserStorage userStorage;
-    
-    public LoginWindow() {
-        this.userStorage = UserStorage.getInstance();
+    public LoginWindow(String serverUrl) {
+        this.serverUrlField = new JTextField(serverUrl, 20);
         initComponents();
     }
     
@@ -118,12 +117,9 @@ public class LoginWindow {
         emailField = new JTextField(20);
         panel.add(emailField, gbc);
         
-        // Patient ID (opcional)
-        gbc.gridx = 0; gbc.gridy = 4; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
-        panel.add(new JLabel("Patient ID (opcional):"), gbc);
-        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
-        patientIdField = new JTextField(20);
-        panel.add(patientIdField, gbc);
+        // El Patient lo asocia un administrador
+        gbc.gridx = 0; gbc.gridy = 4; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Un administrador asociará su cuenta a su Patient."), gbc);
         
         // Botón Registro
         gbc.gridx = 0; gbc.gridy = 5; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.NONE;
@@ -150,17 +146,17 @@ public class LoginWindow {
             return;
         }
         
-        User user = userStorage.authenticate(username, password);
-        if (user != null) {
-            this.authenticatedUser = user;
-            this.authenticatedPassword = password;
+        try {
+            this.session = AuthSession.login(serverUrlField.getText().trim(), username, password);
             this.loginSuccessful = true;
             if (dialog != null) {
                 dialog.dispose();
             }
-        } else {
+        } catch (AuthenticationException e) {
             showMessage("Usuario o contraseña incorrectos", Color.RED);
             passwordField.setText("");
+        } catch (Exception e) {
+            showMessage("No se pudo conectar al servidor: " + e.getMessage(), Color.RED);
         }
     }
     
@@ -168,27 +164,23 @@ public class LoginWindow {
         String username = usernameField.getText().trim();
         String password = new String(passwordField.getPassword());
         String email = emailField.getText().trim();
-        String patientId = patientIdField.getText().trim();
         
         if (username.isEmpty() || password.isEmpty() || email.isEmpty()) {
             showMessage("Por favor complete los campos obligatorios", Color.RED);
             return;
         }
         
-        if (userStorage.userExists(username)) {
-            showMessage("El usuario ya existe", Color.RED);
-            return;
-        }
-        
-        if (userStorage.registerUser(username, password, email, patientId.isEmpty() ? null : patientId)) {
-            showMessage("Usuario registrado exitosamente. Puede iniciar sesión ahora.", Color.GREEN);
+        try {
+            AuthSession.signup(serverUrlField.getText().trim(), username, password, email);
+            showMessage("Usuario registrado. Podrá ver sus datos cuando un administrador asocie su Patient.", Color.GREEN);
             // Limpiar campos
             usernameField.setText("");
             passwordField.setText("");
             emailField.setText("");
-            patientIdField.setText("");
-        } else {
-            showMessage("Error al registrar usuario", Color.RED);
+        } catch (BaseServerResponseException e) {
+            showMessage("Error al registrar usuario: " + e.getMessage(), Color.RED);
+        } catch (Exception e) {
+            showMessage("No se pudo conectar al servidor: " + e.getMessage(), Color.RED);
         }
     }
     
@@ -218,32 +210,35 @@ public class LoginWindow {
         // Usar JDialog modal en lugar de JFrame para bloquear correctamente
         dialog = new JDialog((Frame) null, "Sistema FHIR - Inicio de Sesión", true);
         dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
-        dialog.setSize(450, 400);
+        dialog.setSize(450, 440);
         dialog.setLocationRelativeTo(null);
         dialog.setResizable(false);
         
-        // Agregar el contenido al diálogo
+        // Agregar el contenido al diálogo (el servidor se comparte entre login y registro)
+        JPanel serverPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        serverPanel.add(new JLabel("Servidor:"));
+        serverPanel.add(serverUrlField);
+        dialog.add(serverPanel, BorderLayout.NORTH);
         dialog.add(tabbedPane, BorderLayout.CENTER);
         
         // Resetear estado de login
         loginSuccessful = false;
-        authenticatedUser = null;
-        authenticatedPassword = null;
+        session = null;
         
         // Mostrar el diálogo de forma modal (bloquea hasta que se cierre)
         dialog.setVisible(true);
         
         // El diálogo bloqueará hasta que se cierre
         // Cuando se cierre, verificamos si el login fue exitoso
-        return loginSuccessful ? authenticatedUser : null;
+        return loginSuccessful ? session.getUser() : null;
     }
     
     /**
-     * Obtener la contraseña del usuario autenticado
-     * @return Contraseña del usuario autenticado
+     * Obtener la sesión iniciada (token bearer del servidor)
+     * @return Sesión del usuario autenticado o null si se canceló
      */
-    public String getAuthenticatedPassword() {
-        return authenticatedPassword;
+    public AuthSession getSession() {
+        return loginSuccessful ? session : null;
     }
     
     public static void main(String[] args) {
@@ -254,7 +249,7 @@ public class LoginWindow {
                 e.printStackTrace();
             }
             
-            LoginWindow loginWindow = new LoginWindow();
+            LoginWindow loginWindow = new LoginWindow("http://localhost:8080/fhir/");
             User user = loginWindow.showAndWait();
             if (user != null) {
                 System.out.println("Usuario autenticado: " + user.getUsername() + " - Rol: " + user.getRole());
@@ -2,8 +2,8 @@ package com.example.fhir.gui;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.client.interceptor.BasicAuthInterceptor;
 import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
+import com.example.fhir.util.FhirContextRegistry;
 import org.hl7.fhir.r4.model.*;
 
 import javax.swing.*;
@@ -36,12 +36,11 @@ public class ObservationPanel extends JPanel {
     private JButton clearButton;
     
     private String serverUrl;
-    private String username;
-    private String password;
+    private AuthSession session;
     
     public ObservationPanel(FhirClientGUI parent) {
         this.parent = parent;
-        this.fhirContext = FhirContext.forR4();
+        this.fhirContext = FhirContextRegistry.getR4Context();
         initComponents();
     }
     
@@ -141,10 +140,9 @@ public class ObservationPanel extends JPanel {
         add(resultScrollPane, BorderLayout.CENTER);
     }
     
-    public void setServerConfig(String serverUrl, String username, String password) {
+    public void setServerConfig(String serverUrl, AuthSession session) {
         this.serverUrl = serverUrl;
-        this.username = username;
-        this.password = password;
+        this.session = session;
         
         // Crear cliente nuevo (esto limpia interceptores anteriores)
         client = fhirContext.newRestfulGenericClient(serverUrl);
@@ -152,9 +150,8 @@ public class ObservationPanel extends JPanel {
         // Limpiar interceptores anteriores si existen
         client.getInterceptorService().unregisterAllInterceptors();
         
-        // Agregar autenticación (debe ser el primero)
-        BasicAuthInterceptor authInterceptor = new BasicAuthInterceptor(username, password);
-        client.registerInterceptor(authInterceptor);
+        // Agregar autenticación con el token bearer de la sesión (debe ser el primero)
+        client.registerInterceptor(session);
         
         // Agregar logging del cliente (diferente del del servidor)
         ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor clientLoggingInterceptor = 
@@ -385,17 +382,37 @@ public class ObservationPanel extends JPanel {
         }
         
         try {
+            // _include=Observation:subject: los Patients llegan en el mismo Bundle (sin una lectura por Observation)
             org.hl7.fhir.r4.model.Bundle bundle = (org.hl7.fhir.r4.model.Bundle) client.search()
                 .forResource(Observation.class)
+                .include(Observation.INCLUDE_SUBJECT)
                 .execute();
             
-            int total = bundle.getEntry().size();
-            resultArea.setText("✓ Observations encontradas: " + total + "\n\n");
+            java.util.Map<String, String> patientNames = new java.util.HashMap<>();
+            int matches = 0;
+            for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+                if (entry.getResource() instanceof Patient) {
+                    Patient patient = (Patient) entry.getResource();
+                    patientNames.put("Patient/" + patient.getIdElement().getIdPart(),
+                        patient.getNameFirstRep().getNameAsSingleString());
+                } else if (entry.getResource() instanceof Observation) {
+                    matches++;
+                }
+            }
+            
+            // El servidor pagina los resultados: total global y coincidencias de la primera página
+            int total = bundle.hasTotal() ? bundle.getTotal() : matches;
+            resultArea.setText("✓ Observations encontradas: " + total + 
+                " (mostrando " + matches + ")\n\n");
             
             for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
                 if (entry.getResource() instanceof Observation) {
                     Observation observation = (Observation) entry.getResource();
                     resultArea.append("ID: " + observation.getIdElement().getIdPart() + "\n");
+                    String patientName = patientNames.get(observation.getSubject().getReference());
+                    if (patientName != null) {
+                        resultArea.append("Patient: " + patientName + "\n");
+                    }
                     if (observation.hasCode()) {
                         resultArea.append("Código: " + observation.getCode().getCodingFirstRep().getCode() + "\n");
                     }
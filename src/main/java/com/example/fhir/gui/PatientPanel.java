@@ -2,8 +2,8 @@ package com.example.fhir.gui;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
-import ca.uhn.fhir.rest.client.interceptor.BasicAuthInterceptor;
 import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
+import com.example.fhir.util.FhirContextRegistry;
 import org.hl7.fhir.r4.model.Patient;
 
 import javax.swing.*;
@@ -19,7 +19,6 @@ public class PatientPanel extends JPanel {
     private FhirClientGUI parent;
     private IGenericClient client;
     private FhirContext fhirContext;
-    private BasicAuthInterceptor authInterceptor; // Guardar referencia al interceptor
     
     private JTextField idField;
     private JTextField familyNameField;
@@ -36,12 +35,11 @@ public class PatientPanel extends JPanel {
     private JButton clearButton;
     
     private String serverUrl;
-    private String username;
-    private String password;
+    private AuthSession session;
     
     public PatientPanel(FhirClientGUI parent) {
         this.parent = parent;
-        this.fhirContext = FhirContext.forR4();
+        this.fhirContext = FhirContextRegistry.getR4Context();
         initComponents();
     }
     
@@ -130,10 +128,9 @@ public class PatientPanel extends JPanel {
         add(resultScrollPane, BorderLayout.CENTER);
     }
     
-    public void setServerConfig(String serverUrl, String username, String password) {
+    public void setServerConfig(String serverUrl, AuthSession session) {
         this.serverUrl = serverUrl;
-        this.username = username;
-        this.password = password;
+        this.session = session;
         
         // Crear cliente nuevo (esto limpia interceptores anteriores)
         client = fhirContext.newRestfulGenericClient(serverUrl);
@@ -141,12 +138,10 @@ public class PatientPanel extends JPanel {
         // Limpiar interceptores anteriores si existen
         client.getInterceptorService().unregisterAllInterceptors();
         
-        // Agregar autenticación (debe ser el primero)
-        // Guardar referencia para verificar después
-        this.authInterceptor = new BasicAuthInterceptor(username, password);
-        client.registerInterceptor(this.authInterceptor);
+        // Agregar autenticación con el token bearer de la sesión (debe ser el primero)
+        client.registerInterceptor(session);
         
-        System.out.println("PatientPanel: Cliente configurado con usuario: " + username);
+        System.out.println("PatientPanel: Cliente configurado con usuario: " + session.getUser().getUsername());
         System.out.println("PatientPanel: Interceptores registrados: " + 
             client.getInterceptorService().getAllRegisteredInterceptors().size());
         
@@ -160,9 +155,11 @@ public class PatientPanel extends JPanel {
     
     public boolean testConnection() {
         if (client == null) {
-            setServerConfig(serverUrl != null ? serverUrl : "http://localhost:8080/fhir/", 
-                          username != null ? username : "admin", 
-                          password != null ? password : "admin123");
+            if (session == null) {
+                parent.log("Error de conexión: no hay una sesión iniciada");
+                return false;
+            }
+            setServerConfig(serverUrl != null ? serverUrl : "http://localhost:8080/fhir/", session);
         }
         
         try {
@@ -175,7 +172,7 @@ public class PatientPanel extends JPanel {
             // Si falla por autenticación, reconfigurar el cliente
             if (e.getMessage() != null && (e.getMessage().contains("401") || e.getMessage().contains("403") || e.getMessage().contains("autenticación"))) {
                 parent.log("Error de autenticación - reconfigurando cliente...");
-                setServerConfig(serverUrl, username, password);
+                setServerConfig(serverUrl, session);
             }
             return false;
         }
@@ -189,9 +186,9 @@ public class PatientPanel extends JPanel {
         }
         
         // Asegurar que el cliente tenga las credenciales configuradas
-        if (username != null && password != null) {
+        if (session != null) {
             // Reconfigurar para asegurar que las credenciales estén presentes
-            setServerConfig(serverUrl, username, password);
+            setServerConfig(serverUrl, session);
         }
         
         // Verificar que el cliente tenga los interceptores antes de crear
@@ -199,7 +196,7 @@ public class PatientPanel extends JPanel {
         parent.log("PatientPanel: Interceptores registrados en cliente: " + interceptorCount);
         if (interceptorCount == 0) {
             parent.log("ERROR: No hay interceptores registrados! Reconfigurando...");
-            setServerConfig(serverUrl, username, password);
+            setServerConfig(serverUrl, session);
         }
         
         try {
@@ -226,7 +223,7 @@ public class PatientPanel extends JPanel {
                 parent.log("PatientPanel: Usando ID proporcionado por usuario: " + userProvidedId);
             }
             
-            parent.log("PatientPanel: Enviando petición CREATE con usuario: " + username);
+            parent.log("PatientPanel: Enviando petición CREATE con usuario: " + session.getUser().getUsername());
             
             // Crear en servidor
             Patient created = (Patient) client.create().resource(patient).execute().getResource();
@@ -381,9 +378,9 @@ public class PatientPanel extends JPanel {
         }
         
         // Asegurar que el cliente tenga las credenciales configuradas
-        if (username != null && password != null) {
+        if (session != null) {
             // Reconfigurar para asegurar que las credenciales estén presentes
-            setServerConfig(serverUrl, username, password);
+            setServerConfig(serverUrl, session);
         }
         
         try {
@@ -391,8 +388,10 @@ public class PatientPanel extends JPanel {
                 .forResource(Patient.class)
                 .execute();
             
-            int total = bundle.getEntry().size();
-            resultArea.setText("✓ Patients encontrados: " + total + "\n\n");
+            // El servidor pagina los resultados: total global y entradas de la primera página
+            int total = bundle.hasTotal() ? bundle.getTotal() : bundle.getEntry().size();
+            resultArea.setText("✓ Patients encontrados: " + total + 
+                " (mostrando " + bundle.getEntry().size() + ")\n\n");
             
             for (org.hl7.fhir.r4.model.Bundle.BundleEntryComponent entry : bundle.getEntry()) {
                 if (entry.getResource() instanceof Patient) {
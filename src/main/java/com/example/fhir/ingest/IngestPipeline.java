@@ -0,0 +1,391 @@
+package com.example.fhir.ingest;
+
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.example.fhir.metrics.LatencyHistogram;
+import com.example.fhir.util.ValidationUtil;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipeline de ingesta asíncrona (singleton)
+ *
+ * Si una escritura trae el header "Prefer: respond-async", el provider no valida el recurso en
+ * el hilo de la petición: lo entrega aquí como pendiente y responde 202 Accepted con el enlace
+ * de estado ($ingest-status?job=...) en Content-Location y en el OperationOutcome del cuerpo.
+ * Un pool acotado de workers ejecuta ValidationUtil y, si el recurso es válido, lo guarda en
+ * InMemoryStorage; si no, el recurso pasa a cuarentena junto con el error, donde puede
+ * consultarse con la operación $quarantine.
+ *
+ * Los workers se particionan por recurso (tipo/ID): cada partición tiene un solo hilo y una cola
+ * FIFO, así dos escrituras del mismo recurso se validan y guardan en el orden en que llegaron
+ * (la última gana, como en el modo síncrono); recursos distintos se procesan en paralelo.
+ *
+ * Si la cola está llena la petición se rechaza con 503 en lugar de bloquear.
+ *
+ * Configuración (System properties):
+ * - fhir.ingest.workers: Workers de validación, uno por partición (por defecto, número de procesadores)
+ * - fhir.ingest.queueCapacity: Recursos pendientes en cola, repartidos entre las particiones (por defecto 10000)
+ * - fhir.ingest.quarantineMax: Recursos en cuarentena; se descartan los más antiguos (por defecto 10000)
+ * - fhir.ingest.retentionMinutes: Tiempo que se conserva el estado de un trabajo terminado (por defecto 60)
+ * - fhir.ingest.maxJobs: Trabajos terminados cuyo estado se conserva; se descartan los más antiguos
+ *   (por defecto 100000)
+ *
+ * Un trabajo aceptado solo conserva tipo, ID y estado: el recurso ya está en el almacenamiento y
+ * no se retiene una segunda copia. Solo los trabajos en cuarentena guardan el recurso completo.
+ */
+public class IngestPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestPipeline.class);
+
+    public static final String PREFER_HEADER = "Prefer";
+    public static final String RESPOND_ASYNC = "respond-async";
+    public static final String STATUS_OPERATION = "$ingest-status";
+
+    private static final IngestPipeline instance = new IngestPipeline(
+        Integer.getInteger("fhir.ingest.workers", Runtime.getRuntime().availableProcessors()),
+        Integer.getInteger("fhir.ingest.queueCapacity", 10000),
+        Integer.getInteger("fhir.ingest.quarantineMax", 10000),
+        Long.getLong("fhir.ingest.retentionMinutes", 60),
+        Integer.getInteger("fhir.ingest.maxJobs", 100000));
+
+    /**
+     * Confirmación del recurso ya validado (ej: guardarlo en el almacenamiento)
+     * Puede lanzar una BaseServerResponseException para rechazarlo (ej: ID duplicado)
+     */
+    @FunctionalInterface
+    public interface Commit {
+        void apply(Resource resource);
+    }
+
+    public enum Status { PENDING, ACCEPTED, QUARANTINED }
+
+    // Una partición por worker: un hilo y su cola FIFO
+    private final ThreadPoolExecutor[] workers;
+    private final int quarantineMax;
+    private final long retentionMillis;
+    private final int maxJobs;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    // Trabajos terminados en orden de finalización (para expirar y acotar jobs desde el más antiguo)
+    private final Queue<Job> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+    private final Map<String, Job> quarantine = new ConcurrentHashMap<>();
+    private final Queue<String> quarantineOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder quarantined = new LongAdder();
+    private final LongAdder rejectedFull = new LongAdder();
+    private final LatencyHistogram validationLag = new LatencyHistogram();
+
+    IngestPipeline(int workerCount, int queueCapacity, int quarantineMax, long retentionMinutes, int maxJobs) {
+        this.workers = new ThreadPoolExecutor[workerCount];
+        int partitionCapacity = Math.max(1, queueCapacity / workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            String threadName = "ingest-validator-" + (i + 1);
+            workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(partitionCapacity), r -> {
+                    Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        }
+        this.quarantineMax = quarantineMax;
+        this.retentionMillis = TimeUnit.MINUTES.toMillis(retentionMinutes);
+        this.maxJobs = maxJobs;
+
+        ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ingest-job-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(this::expireJobs, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public static IngestPipeline getInstance() {
+        return instance;
+    }
+
+    /**
+     * ¿La petición pide procesamiento asíncrono? (Prefer: respond-async)
+     */
+    public static boolean isAsyncRequested(RequestDetails requestDetails) {
+        if (requestDetails == null) {
+            return false;
+        }
+        List<String> values = requestDetails.getHeaders(PREFER_HEADER);
+        if (values == null) {
+            return false;
+        }
+        for (String value : values) {
+            for (String preference : value.split(",")) {
+                if (RESPOND_ASYNC.equalsIgnoreCase(preference.trim())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encolar un recurso para validación en segundo plano
+     * @param resource Recurso con su ID final ya asignado
+     * @param commit Acción que guarda el recurso si es válido
+     * @param requestDetails Petición (para construir el enlace de estado)
+     * @return Resultado con status 202, el enlace de estado en Content-Location y un
+     *         OperationOutcome con el mismo enlace como cuerpo
+     */
+    public MethodOutcome submit(Resource resource, Commit commit, RequestDetails requestDetails) {
+        Job job = new Job(UUID.randomUUID().toString(), resource, commit);
+        jobs.put(job.id, job);
+        pending.incrementAndGet();
+        try {
+            // Mismo recurso, misma partición: sus escrituras se procesan en orden de llegada
+            workers[Math.floorMod(job.resourceReference().hashCode(), workers.length)].execute(() -> process(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            pending.decrementAndGet();
+            rejectedFull.increment();
+            throw new UnclassifiedServerFailureException(503,
+                "La cola de ingesta está llena (" + getQueueDepth() + " pendientes). Reintente más tarde.");
+        }
+        submitted.increment();
+
+        String statusUrl = requestDetails.getFhirServerBase() + "/" + STATUS_OPERATION + "?job=" + job.id;
+        // Sin ID en el MethodOutcome HAPI no agrega Location/Content-Location del recurso (que todavía
+        // no existe) y conserva este header; la ubicación final la informa $ingest-status
+        if (requestDetails instanceof ServletRequestDetails) {
+            ((ServletRequestDetails) requestDetails).getServletResponse().setHeader("Content-Location", statusUrl);
+        }
+
+        OperationOutcome operationOutcome = new OperationOutcome();
+        operationOutcome.addIssue()
+            .setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
+            .setCode(OperationOutcome.IssueType.INFORMATIONAL)
+            .setDiagnostics("Recurso " + job.resourceReference() + " aceptado para validación asíncrona. Estado: " + statusUrl);
+
+        // HAPI serializa como cuerpo el recurso del MethodOutcome (Prefer: return=representation,
+        // el valor por defecto) o el OperationOutcome (return=OperationOutcome)
+        MethodOutcome outcome = new MethodOutcome();
+        outcome.setOperationOutcome(operationOutcome);
+        outcome.setResource(operationOutcome);
+        outcome.setResponseStatusCode(202);
+        return outcome;
+    }
+
+    private void process(Job job) {
+        try {
+            ValidationUtil.validateResource(job.resource);
+            job.commit.apply(job.resource);
+            job.finish(Status.ACCEPTED, null);
+            accepted.increment();
+            retire(job);
+        } catch (BaseServerResponseException e) {
+            toQuarantine(job, e.getMessage());
+        } catch (RuntimeException e) {
+            logger.error("Error inesperado en la ingesta de {}", job.resourceReference(), e);
+            toQuarantine(job, "Error interno: " + e.getMessage());
+        } finally {
+            pending.decrementAndGet();
+            validationLag.recordNanos(System.nanoTime() - job.submittedNanos);
+        }
+    }
+
+    private void toQuarantine(Job job, String error) {
+        job.finish(Status.QUARANTINED, error);
+        quarantined.increment();
+        retire(job);
+        quarantine.put(job.id, job);
+        quarantineOrder.add(job.id);
+        while (quarantine.size() > quarantineMax) {
+            String oldest = quarantineOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            quarantine.remove(oldest);
+        }
+        logger.warn("Recurso {} en cuarentena (trabajo {}): {}", job.resourceReference(), job.id, error);
+    }
+
+    /**
+     * Registrar un trabajo terminado; si se supera maxJobs se descarta el terminado más antiguo
+     */
+    private void retire(Job job) {
+        finished.add(job);
+        if (finishedCount.incrementAndGet() > maxJobs) {
+            removeOldestFinished();
+        }
+    }
+
+    private void removeOldestFinished() {
+        Job oldest = finished.poll();
+        if (oldest != null) {
+            finishedCount.decrementAndGet();
+            jobs.remove(oldest.id, oldest);
+        }
+    }
+
+    /**
+     * Descartar el estado de los trabajos terminados hace más de retentionMillis
+     * Los trabajos en cuarentena siguen disponibles en la cuarentena
+     */
+    private void expireJobs() {
+        long limit = System.currentTimeMillis() - retentionMillis;
+        Job oldest;
+        while ((oldest = finished.peek()) != null && oldest.completedAt < limit) {
+            removeOldestFinished();
+        }
+    }
+
+    /**
+     * Estado de un trabajo (null si no existe o ya expiró)
+     */
+    public Job getJob(String jobId) {
+        Job job = jobs.get(jobId);
+        return job != null ? job : quarantine.get(jobId);
+    }
+
+    /**
+     * Recursos en cuarentena, del más reciente al más antiguo
+     * @param resourceType Filtrar por tipo de recurso (null = todos)
+     * @param max Máximo de resultados
+     */
+    public List<Job> getQuarantine(String resourceType, int max) {
+        List<Job> result = new ArrayList<>();
+        for (Job job : quarantine.values()) {
+            if (resourceType == null || resourceType.equals(job.resourceType)) {
+                result.add(job);
+            }
+        }
+        result.sort((a, b) -> Long.compare(b.completedAt, a.completedAt));
+        return result.size() > max ? new ArrayList<>(result.subList(0, max)) : result;
+    }
+
+    // ===== Métricas =====
+
+    public int getQueueDepth() {
+        return pending.get();
+    }
+
+    public int getQuarantineSize() {
+        return quarantine.size();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getQuarantined() {
+        return quarantined.sum();
+    }
+
+    public long getRejectedQueueFull() {
+        return rejectedFull.sum();
+    }
+
+    /**
+     * Proporción de recursos procesados que terminaron en cuarentena
+     */
+    public double getRejectRate() {
+        long done = accepted.sum() + quarantined.sum();
+        return done == 0 ? 0.0 : (double) quarantined.sum() / done;
+    }
+
+    /**
+     * Tiempo desde que el recurso se encola hasta que queda aceptado o en cuarentena
+     */
+    public LatencyHistogram getValidationLag() {
+        return validationLag;
+    }
+
+    /**
+     * Trabajo de ingesta de un recurso
+     */
+    public static final class Job {
+        private final String id;
+        private final String resourceType;
+        private final String resourceId;
+        // Se liberan al aceptar el trabajo; la cuarentena conserva el recurso
+        private volatile Resource resource;
+        private volatile Commit commit;
+        private final long submittedAt = System.currentTimeMillis();
+        private final long submittedNanos = System.nanoTime();
+        private volatile Status status = Status.PENDING;
+        private volatile String error;
+        private volatile long completedAt;
+
+        Job(String id, Resource resource, Commit commit) {
+            this.id = id;
+            this.resourceType = resource.fhirType();
+            this.resourceId = resource.getIdElement().getIdPart();
+            this.resource = resource;
+            this.commit = commit;
+        }
+
+        void finish(Status status, String error) {
+            this.error = error;
+            this.completedAt = System.currentTimeMillis();
+            this.commit = null;
+            if (status == Status.ACCEPTED) {
+                this.resource = null;
+            }
+            this.status = status;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Recurso enviado (null una vez aceptado: ya está en el almacenamiento)
+         */
+        public Resource getResource() {
+            return resource;
+        }
+
+        public String resourceReference() {
+            return resourceType + "/" + resourceId;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getSubmittedAt() {
+            return submittedAt;
+        }
+
+        public long getCompletedAt() {
+            return completedAt;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.fhir.interceptor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Escritor asíncrono del log de auditoría
+ *
+ * Los hilos de petición solo encolan la línea en un buffer acotado (offer, nunca bloquea);
+ * si el buffer está lleno la línea se descarta y se cuenta como perdida. Un único hilo
+ * escritor vacía el buffer por lotes (group commit: una escritura por lote) y aplica la
+ * política de fsync y la rotación por tamaño o por tiempo.
+ *
+ * Configuración (propiedades del sistema):
+ * - fhir.audit.file            archivo de auditoría (por defecto fhir-audit.log)
+ * - fhir.audit.capacity        tamaño del buffer en líneas (por defecto 65536)
+ * - fhir.audit.fsync           never | batch | interval (por defecto interval)
+ * - fhir.audit.fsyncMillis     intervalo de fsync para el modo interval (por defecto 1000)
+ * - fhir.audit.maxBytes        tamaño máximo antes de rotar (por defecto 50 MB)
+ * - fhir.audit.rotateMinutes   antigüedad máxima antes de rotar (por defecto 1440)
+ */
+public class AuditLogWriter {
+    
+    private static final Logger logger = LoggerFactory.getLogger(AuditLogWriter.class);
+    private static final DateTimeFormatter ROTATION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final int MAX_BATCH = 1024;
+    
+    /**
+     * Política de sincronización con el disco
+     */
+    public enum FsyncPolicy { NEVER, BATCH, INTERVAL }
+    
+    private final Path file;
+    private final BlockingQueue<String> buffer;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final long maxBytes;
+    private final long rotateMillis;
+    private final Thread writerThread;
+    
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    
+    // Solo accedidos por el hilo escritor
+    private FileChannel channel;
+    private long fileBytes;
+    private long fileOpenedAt;
+    private long lastFsync;
+    private boolean unsynced;
+    private long reportedDrops;
+    
+    private volatile boolean running = true;
+    
+    public AuditLogWriter(Path file, int capacity, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                          long maxBytes, long rotateMillis) {
+        this.file = file;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.maxBytes = maxBytes;
+        this.rotateMillis = rotateMillis;
+        this.writerThread = new Thread(this::writerLoop, "audit-log-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "audit-log-shutdown"));
+    }
+    
+    /**
+     * Crear el escritor con la configuración de las propiedades del sistema
+     */
+    public static AuditLogWriter fromSystemProperties() {
+        return new AuditLogWriter(
+            Paths.get(System.getProperty("fhir.audit.file", "fhir-audit.log")),
+            Integer.getInteger("fhir.audit.capacity", 65536),
+            FsyncPolicy.valueOf(System.getProperty("fhir.audit.fsync", "interval").toUpperCase()),
+            Long.getLong("fhir.audit.fsyncMillis", 1000L),
+            Long.getLong("fhir.audit.maxBytes", 50L * 1024 * 1024),
+            TimeUnit.MINUTES.toMillis(Long.getLong("fhir.audit.rotateMinutes", 1440L))
+        );
+    }
+    
+    /**
+     * Encolar una línea de auditoría sin bloquear
+     * @return false si el buffer estaba lleno y la línea se descartó
+     */
+    public boolean append(String line) {
+        if (running && buffer.offer(line)) {
+            enqueued.increment();
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+    
+    private void writerLoop() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !buffer.isEmpty()) {
+            try {
+                String first = buffer.poll(200, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch(batch);
+                }
+                maybeFsyncOnInterval();
+                reportDrops();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // Las líneas del lote fallido se pierden; el escritor sigue funcionando
+                dropped.add(batch.size());
+                logger.error("Error al escribir el log de auditoría", e);
+                closeChannel();
+            } finally {
+                batch.clear();
+            }
+        }
+        closeChannel();
+    }
+    
+    private void writeBatch(List<String> batch) throws IOException {
+        ensureOpen();
+        StringBuilder sb = new StringBuilder(batch.size() * 128);
+        for (String line : batch) {
+            sb.append(line).append('\n');
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            fileBytes += channel.write(bytes);
+        }
+        written.add(batch.size());
+        batches.increment();
+        unsynced = true;
+        
+        if (fsyncPolicy == FsyncPolicy.BATCH) {
+            fsync();
+        }
+        if (fileBytes >= maxBytes || System.currentTimeMillis() - fileOpenedAt >= rotateMillis) {
+            rotate();
+        }
+    }
+    
+    private void maybeFsyncOnInterval() throws IOException {
+        if (fsyncPolicy == FsyncPolicy.INTERVAL && unsynced && channel != null
+                && System.currentTimeMillis() - lastFsync >= fsyncIntervalMillis) {
+            fsync();
+        }
+    }
+    
+    /**
+     * Avisar (una vez por ciclo) si se descartaron líneas por buffer lleno
+     */
+    private void reportDrops() {
+        long drops = dropped.sum();
+        if (drops > reportedDrops) {
+            logger.warn("Buffer de auditoría lleno: {} líneas descartadas (total {})", drops - reportedDrops, drops);
+            reportedDrops = drops;
+        }
+    }
+    
+    private void fsync() throws IOException {
+        channel.force(false);
+        fsyncs.increment();
+        lastFsync = System.currentTimeMillis();
+        unsynced = false;
+    }
+    
+    private void ensureOpen() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            fileBytes = channel.size();
+            fileOpenedAt = System.currentTimeMillis();
+        }
+    }
+    
+    private void rotate() throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            fsync();
+        }
+        closeChannel();
+        Path rotated = file.resolveSibling(file.getFileName() + "." + LocalDateTime.now().format(ROTATION_SUFFIX));
+        Files.move(file, rotated);
+        rotations.increment();
+        logger.info("Log de auditoría rotado a {}", rotated.getFileName());
+    }
+    
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Error al cerrar el log de auditoría: {}", e.getMessage());
+            }
+            channel = null;
+        }
+    }
+    
+    /**
+     * Detener el escritor vaciando las líneas pendientes
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    // ===== Contadores =====
+    
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+    
+    public long getWritten() {
+        return written.sum();
+    }
+    
+    public long getDropped() {
+        return dropped.sum();
+    }
+    
+    public long getBatches() {
+        return batches.sum();
+    }
+    
+    public long getFsyncs() {
+        return fsyncs.sum();
+    }
+    
+    public long getRotations() {
+        return rotations.sum();
+    }
+    
+    public int getQueueDepth() {
+        return buffer.size();
+    }
+    
+    public int getQueueCapacity() {
+        return buffer.size() + buffer.remainingCapacity();
+    }
+}
@@ -5,103 +5,103 @@ import ca.uhn.fhir.interceptor.api.Interceptor;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 /**
  * Interceptor de trazabilidad
- * Registra todas las operaciones en un archivo de log
+ * Registra todas las operaciones en el log de auditoría
+ *
+ * Las líneas se entregan a AuditLogWriter, que las escribe en disco desde su propio hilo;
+ * el hilo de la petición nunca espera por I/O de archivo.
  */
 @Interceptor
 public class LoggingInterceptor {
     
     private static final Logger logger = LoggerFactory.getLogger(LoggingInterceptor.class);
-    private static final String LOG_FILE = "fhir-server.log";
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
-    @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_PROCESSED)
-    public void logRequest(RequestDetails requestDetails) {
-        if (requestDetails == null) {
-            logger.warn("RequestDetails es null en logRequest");
-            return;
-        }
+    private final AuditLogWriter auditLog;
+    
+    public LoggingInterceptor() {
+        this(AuditLogWriter.fromSystemProperties());
+    }
+    
+    public LoggingInterceptor(AuditLogWriter auditLog) {
+        this.auditLog = auditLog;
+    }
+    
+    public AuditLogWriter getAuditLog() {
+        return auditLog;
+    }
+    
+    /**
+     * Línea de la petición, cuando HAPI ya eligió el método (tipo de operación conocido) y
+     * la política de acceso la aceptó; una petición rechazada antes solo deja su línea de respuesta
+     */
+    @Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
+    public boolean logRequest(RequestDetails requestDetails) {
+
+        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
+        String method = requestDetails.getRequestType() != null ? requestDetails.getRequestType().name() : "UNKNOWN";
+        String path = requestDetails.getRequestPath();
+        RestOperationTypeEnum operationType = requestDetails.getRestOperationType();
+        
+        // Verificar headers de Authorization
+        java.util.List<String> authHeaders = requestDetails.getHeaders("Authorization");
+        String authHeaderInfo = authHeaders != null && !authHeaders.isEmpty() ? 
+            "PRESENT (" + authHeaders.size() + ")" : "MISSING";
         
-        try {
-            String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-            String method = requestDetails.getRequestType() != null ? requestDetails.getRequestType().name() : "UNKNOWN";
-            String path = requestDetails.getRequestPath();
-            RestOperationTypeEnum operationType = requestDetails.getRestOperationType();
-            
-            // Verificar headers de Authorization
-            java.util.List<String> authHeaders = requestDetails.getHeaders("Authorization");
-            String authHeaderInfo = authHeaders != null && !authHeaders.isEmpty() ? 
-                "PRESENT (" + authHeaders.size() + ")" : "MISSING";
-            
-            String username = (String) requestDetails.getAttribute("USERNAME");
-            String role = (String) requestDetails.getAttribute("ROLE");
-            
-            System.out.println("LoggingInterceptor: Request recibido - Method=" + method + 
-                ", Path=" + path + ", AuthHeader=" + authHeaderInfo);
-            
-            String logEntry = String.format(
-                "[%s] OPERACION=%s | METODO=%s | PATH=%s | USUARIO=%s | ROL=%s",
-                timestamp,
-                operationType != null ? operationType.name() : "UNKNOWN",
-                method,
-                path,
-                username != null ? username : "ANONYMOUS",
-                role != null ? role : "NONE"
-            );
-            
-            // Escribir en archivo
-            try (PrintWriter writer = new PrintWriter(new FileWriter(LOG_FILE, true))) {
-                writer.println(logEntry);
-            }
-            
-            // También en consola
-            logger.info(logEntry);
-            
-        } catch (IOException e) {
-            logger.error("Error al escribir en archivo de log", e);
-        }
+        String username = (String) requestDetails.getAttribute("USERNAME");
+        String role = (String) requestDetails.getAttribute("ROLE");
+        
+        logger.debug("Request recibido - Method={}, Path={}, AuthHeader={}", method, path, authHeaderInfo);
+        
+        String logEntry = new StringBuilder(160)
+            .append('[').append(timestamp).append("] OPERACION=")
+            .append(operationType != null ? operationType.name() : "UNKNOWN")
+            .append(" | METODO=").append(method)
+            .append(" | PATH=").append(path)
+            .append(" | USUARIO=").append(username != null ? username : "ANONYMOUS")
+            .append(" | ROL=").append(role != null ? role : "NONE")
+            .toString();
+        
+        // Encolar en el log de auditoría (no bloquea)
+        auditLog.append(logEntry);
+        
+        // También en consola
+        logger.info(logEntry);
+        return true;
     }
     
-    @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
-    public void logResponse(RequestDetails requestDetails, Integer statusCode) {
-        if (requestDetails == null) {
-            logger.warn("RequestDetails es null en logResponse");
-            return;
-        }
+    /**
+     * Línea de la respuesta con el status ya escrito en HttpServletResponse
+     * SERVER_PROCESSING_COMPLETED se invoca también cuando la petición termina en error (401, 403,
+     * 404...) y cuando un interceptor escribió la respuesta por su cuenta (búsquedas en streaming)
+     */
+    @Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+    public void logResponse(RequestDetails requestDetails, ServletRequestDetails servletRequestDetails) {
+        logResponse(requestDetails, servletRequestDetails.getServletResponse().getStatus());
+    }
+    
+    private void logResponse(RequestDetails requestDetails, int statusCode) {
+        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
+        String path = requestDetails.getRequestPath();
+        String username = (String) requestDetails.getAttribute("USERNAME");
+        
+        String logEntry = new StringBuilder(128)
+            .append('[').append(timestamp).append("] RESPUESTA")
+            .append(" | PATH=").append(path)
+            .append(" | STATUS=").append(statusCode)
+            .append(" | USUARIO=").append(username != null ? username : "ANONYMOUS")
+            .toString();
         
-        try {
-            String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-            String path = requestDetails.getRequestPath();
-            String username = (String) requestDetails.getAttribute("USERNAME");
-            
-            String logEntry = String.format(
-                "[%s] RESPUESTA | PATH=%s | STATUS=%d | USUARIO=%s",
-                timestamp,
-                path,
-                statusCode,
-                username != null ? username : "ANONYMOUS"
-            );
-            
-            // Escribir en archivo
-            try (PrintWriter writer = new PrintWriter(new FileWriter(LOG_FILE, true))) {
-                writer.println(logEntry);
-            }
-            
-            logger.info(logEntry);
-            
-        } catch (IOException e) {
-            logger.error("Error al escribir en archivo de log", e);
-        }
+        auditLog.append(logEntry);
+        
+        logger.info(logEntry);
     }
 }
-
@@ -0,0 +1,45 @@
+package com.example.fhir.interceptor;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.example.fhir.metrics.MetricsRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Interceptor de métricas de latencia
+ *
+ * Marca el inicio de la petición en SERVER_INCOMING_REQUEST_PRE_PROCESSED (el primer pointcut)
+ * y registra la duración en SERVER_PROCESSING_COMPLETED. Se usa este último en lugar de
+ * SERVER_OUTGOING_RESPONSE porque también se invoca cuando la petición termina en error o
+ * cuando otro interceptor escribe la respuesta (streaming, caché de serialización).
+ */
+@Interceptor
+public class MetricsInterceptor {
+
+    private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+
+    private final MetricsRegistry registry;
+
+    public MetricsInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_PROCESSED)
+    public void markStart(HttpServletRequest request) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+    }
+
+    @Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+    public void recordRequest(RequestDetails requestDetails, ServletRequestDetails servletRequestDetails) {
+        Object start = servletRequestDetails.getServletRequest().getAttribute(START_ATTRIBUTE);
+        if (!(start instanceof Long)) {
+            return;
+        }
+        long elapsed = System.nanoTime() - (Long) start;
+        boolean error = servletRequestDetails.getServletResponse().getStatus() >= 400;
+        registry.recordRequest(requestDetails.getRestOperationType(), requestDetails.getResourceName(), elapsed, error);
+    }
+}
@@ -3,91 +3,100 @@ package com.example.fhir.interceptor;
 import ca.uhn.fhir.interceptor.api.Hook;
 import ca.uhn.fhir.interceptor.api.Interceptor;
 import ca.uhn.fhir.interceptor.api.Pointcut;
-import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
 import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
+import com.example.fhir.cache.VerifiedCredentialCache;
+import com.example.fhir.metrics.MetricsRegistry;
 import com.example.fhir.model.User;
+import com.example.fhir.provider.AuthProvider;
 import com.example.fhir.storage.UserStorage;
+import com.example.fhir.util.AccessPolicy;
 import com.example.fhir.util.AuthContext;
+import com.example.fhir.util.TokenService;
 import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interceptor de seguridad mejorado
- * Implementa autenticación HTTP Basic usando UserStorage
- * Control de acceso granular basado en roles y ownership
+ * Implementa autenticación HTTP Basic usando UserStorage, o con un token Bearer
+ * firmado (obtenido con $login) que se verifica sin consultar UserStorage
+ * Control de acceso según AccessPolicy (rol × operación × tipo de recurso, ver
+ * access-policy.properties); el ownership se aplica con el compartimento del rol
  * 
- * Roles disponibles:
+ * Roles de la política por defecto:
  * - admin: Permiso completo (CRUD en todos los recursos)
  * - user: Solo puede consultar sus propios recursos
  */
 @Interceptor
 public class SecurityInterceptor {
     
+    private static final Logger logger = LoggerFactory.getLogger(SecurityInterceptor.class);
+    private static final String AUTHENTICATION_NANOS = SecurityInterceptor.class.getName() + ".authenticationNanos";
+    
     private final UserStorage userStorage = UserStorage.getInstance();
+    private final TokenService tokenService = TokenService.getInstance();
+    private final AccessPolicy accessPolicy = AccessPolicy.getInstance();
+    private final MetricsRegistry metrics = MetricsRegistry.getInstance();
+    private final VerifiedCredentialCache credentialCache = new VerifiedCredentialCache(
+        TimeUnit.SECONDS.toMillis(Long.getLong("fhir.auth.cacheTtlSeconds", 60)),
+        Integer.getInteger("fhir.auth.cacheSize", 10000));
+    
+    /**
+     * Caché de headers Authorization verificados (para métricas)
+     */
+    public VerifiedCredentialCache getCredentialCache() {
+        return credentialCache;
+    }
     
     @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLER_SELECTED)
     public void authenticate(RequestDetails requestDetails) {
-        System.out.println("SecurityInterceptor: ===== INICIO authenticate (PRE_HANDLER_SELECTED) =====");
-        System.out.println("SecurityInterceptor: Thread: " + Thread.currentThread().getName());
-        System.out.println("SecurityInterceptor: RequestPath: " + (requestDetails != null ? requestDetails.getRequestPath() : "null"));
-        
+        long startTime = System.nanoTime();
+        doAuthenticate(requestDetails);
+        // La métrica se registra en authorize, cuando ya se conoce el tipo de operación
+        requestDetails.setAttribute(AUTHENTICATION_NANOS, System.nanoTime() - startTime);
+    }
+    
+    private void doAuthenticate(RequestDetails requestDetails) {
         // Si requestDetails es null, lanzar excepción
         if (requestDetails == null) {
-            System.err.println("SecurityInterceptor: requestDetails es null!");
+            logger.warn("requestDetails es null");
             throw new AuthenticationException("Error interno: requestDetails es null");
         }
         
+        // El registro de usuarios es la única operación sin autenticación
+        if (AuthProvider.SIGNUP_OPERATION.equals(requestDetails.getOperation())) {
+            return;
+        }
+        
         try {
             // Obtener header de autorización
             List<String> authHeaders = requestDetails.getHeaders("Authorization");
             
-            // Log para depuración
-            System.out.println("SecurityInterceptor: Headers recibidos - " + 
-                (authHeaders != null ? authHeaders.size() + " headers" : "null"));
-            if (authHeaders != null && !authHeaders.isEmpty()) {
-                System.out.println("SecurityInterceptor: Primer header = " + 
-                    (authHeaders.get(0) != null ? authHeaders.get(0).substring(0, Math.min(20, authHeaders.get(0).length())) + "..." : "null"));
-            }
-            
             if (authHeaders == null || authHeaders.isEmpty()) {
-                System.err.println("SecurityInterceptor: No se encontraron headers de Authorization");
-                throw new AuthenticationException("Se requiere autenticación. Use HTTP Basic Auth.");
+                logger.debug("No se encontraron headers de Authorization: {}", requestDetails.getRequestPath());
+                throw new AuthenticationException("Se requiere autenticación. Use HTTP Basic Auth o un token Bearer.");
             }
             
             String authHeader = authHeaders.get(0);
-            if (authHeader == null || !authHeader.startsWith("Basic ")) {
-                System.err.println("SecurityInterceptor: Header no es Basic Auth: " + 
-                    (authHeader != null ? authHeader.substring(0, Math.min(20, authHeader.length())) : "null"));
-                throw new AuthenticationException("Solo se soporta HTTP Basic Authentication");
-            }
-            
-            // Decodificar credenciales
-            String encoded = authHeader.substring(6);
-            String decoded = new String(Base64.decodeBase64(encoded));
-            String[] credentials = decoded.split(":", 2);
-            
-            if (credentials.length != 2) {
-                System.err.println("SecurityInterceptor: Formato de credenciales inválido");
-                throw new AuthenticationException("Formato de credenciales inválido");
+            boolean login = AuthProvider.LOGIN_OPERATION.equals(requestDetails.getOperation());
+            User user;
+            if (authHeader != null && authHeader.startsWith("Bearer ") && !login) {
+                user = authenticateBearer(authHeader.substring(7).trim());
+            } else if (authHeader != null && authHeader.startsWith("Basic ")) {
+                user = authenticateBasic(authHeader);
+            } else {
+                logger.debug("Header de Authorization no soportado: {}", requestDetails.getRequestPath());
+                throw new AuthenticationException(login
+                    ? "$login requiere HTTP Basic Authentication"
+                    : "Solo se soporta HTTP Basic Authentication o un token Bearer");
             }
             
-            String username = credentials[0];
-            String password = credentials[1];
-            
-            System.out.println("SecurityInterceptor: Intentando autenticar usuario: " + username);
-            
-            // Validar credenciales usando UserStorage
-            User user = userStorage.authenticate(username, password);
-            if (user == null) {
-                System.err.println("SecurityInterceptor: Credenciales inválidas para usuario: " + username);
-                throw new AuthenticationException("Credenciales inválidas");
-            }
-            
-            System.out.println("SecurityInterceptor: Usuario autenticado: " + username + " con rol: " + user.getRole());
+            logger.debug("Usuario autenticado: {} con rol: {}", user.getUsername(), user.getRole());
             
             // Guardar información del usuario en request details y ThreadLocal
             try {
@@ -101,62 +110,106 @@ public class SecurityInterceptor {
                 
                 // Guardar en ThreadLocal (más confiable)
                 AuthContext.setUser(user);
-                
-                // Verificar inmediatamente que se guardó
-                User verifyUser = AuthContext.getUser();
-                System.out.println("SecurityInterceptor: Usuario guardado en RequestDetails y ThreadLocal");
-                System.out.println("SecurityInterceptor: Verificación ThreadLocal - USER=" + 
-                    (verifyUser != null ? verifyUser.getUsername() + " (rol: " + verifyUser.getRole() + ")" : "NULL"));
             } catch (Exception e) {
-                System.err.println("SecurityInterceptor: Error al guardar atributos: " + e.getMessage());
-                e.printStackTrace();
+                logger.error("Error al guardar atributos", e);
             }
             
-            // Verificar permisos según operación
-            RestOperationTypeEnum operationType = requestDetails.getRestOperationType();
-            if (operationType != null) {
-                System.out.println("SecurityInterceptor: Verificando permisos para operación: " + operationType);
-                checkPermissions(user, operationType);
-            }
         } catch (AuthenticationException | ForbiddenOperationException e) {
             // Re-lanzar excepciones de autenticación/autorización
-            System.err.println("SecurityInterceptor: Error de autenticación/autorización: " + e.getMessage());
+            logger.debug("Error de autenticación/autorización: {}", e.getMessage());
             throw e;
         } catch (Exception e) {
             // Cualquier otro error se convierte en error de autenticación
-            System.err.println("SecurityInterceptor: Error inesperado: " + e.getMessage());
-            e.printStackTrace();
+            logger.error("Error inesperado durante la autenticación", e);
             throw new AuthenticationException("Error durante la autenticación: " + e.getMessage(), e);
         }
     }
     
-    private void checkPermissions(User user, RestOperationTypeEnum operationType) {
-        // Admin tiene todos los permisos
-        if (user.isAdmin()) {
-            return;
+    /**
+     * Verificar permisos según la política
+     * Se ejecuta cuando HAPI ya eligió el método: en PRE_HANDLER_SELECTED el tipo de operación
+     * todavía es null. Va antes que el resto de hooks de esta fase (ej: búsquedas en streaming,
+     * que responden sin llegar al provider).
+     * $login está permitido a cualquier usuario autenticado y $signup no tiene usuario.
+     */
+    @Hook(value = Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED, order = -100)
+    public boolean authorize(RequestDetails requestDetails) {
+        long startTime = System.nanoTime();
+        try {
+            String operation = requestDetails.getOperation();
+            if (AuthProvider.SIGNUP_OPERATION.equals(operation) || AuthProvider.LOGIN_OPERATION.equals(operation)) {
+                return true;
+            }
+            User user = (User) requestDetails.getAttribute("USER");
+            if (user == null) {
+                throw new AuthenticationException("Se requiere autenticación. Use HTTP Basic Auth o un token Bearer.");
+            }
+            // Tabla compilada de la política; el ownership lo resuelven los providers con el compartimento
+            accessPolicy.check(user, requestDetails.getRestOperationType(), requestDetails.getResourceName(), operation);
+            return true;
+        } finally {
+            // Autenticación (medida en authenticate) + autorización, por tipo de operación
+            Object authenticationNanos = requestDetails.getAttribute(AUTHENTICATION_NANOS);
+            metrics.recordAuthentication(requestDetails.getRestOperationType(),
+                (authenticationNanos instanceof Long ? (Long) authenticationNanos : 0L) + System.nanoTime() - startTime);
+        }
+    }
+    
+    /**
+     * Verificar un token firmado emitido por $login (sin consultar UserStorage)
+     */
+    private User authenticateBearer(String token) {
+        User user = tokenService.verify(token);
+        if (user == null) {
+            logger.debug("Token bearer inválido o expirado");
+            throw new AuthenticationException("Token inválido o expirado. Obtenga uno nuevo con $login.");
+        }
+        return user;
+    }
+    
+    /**
+     * Verificar credenciales HTTP Basic contra UserStorage
+     */
+    private User authenticateBasic(String authHeader) {
+        // Header ya verificado: evitar recalcular PBKDF2 mientras el hash del usuario no cambie
+        VerifiedCredentialCache.Verified verified = credentialCache.get(authHeader);
+        if (verified.getUsername() != null) {
+            User cached = userStorage.getUser(verified.getUsername());
+            if (cached != null && verified.getPasswordHash().equals(cached.getPassword())) {
+                return cached;
+            }
+            credentialCache.invalidate(verified.getKey());
+        }
+        
+        // Decodificar credenciales
+        String encoded = authHeader.substring(6);
+        String decoded = new String(Base64.decodeBase64(encoded));
+        String[] credentials = decoded.split(":", 2);
+        
+        if (credentials.length != 2) {
+            logger.debug("Formato de credenciales inválido");
+            throw new AuthenticationException("Formato de credenciales inválido");
         }
         
-        // Usuarios regulares solo pueden leer (READ y SEARCH)
-        // El filtrado por ownership se hace en los providers
-        List<RestOperationTypeEnum> allowedOps = Arrays.asList(
-            RestOperationTypeEnum.READ,
-            RestOperationTypeEnum.SEARCH_TYPE,
-            RestOperationTypeEnum.VREAD,
-            RestOperationTypeEnum.HISTORY_TYPE
-        );
+        String username = credentials[0];
+        String password = credentials[1];
         
-        if (!allowedOps.contains(operationType)) {
-            throw new ForbiddenOperationException(
-                "El rol 'user' solo tiene permisos de lectura. Operación '" + 
-                operationType + "' no permitida."
-            );
+        // Validar credenciales usando UserStorage
+        User user = userStorage.authenticate(username, password);
+        if (user == null) {
+            logger.warn("Credenciales inválidas para usuario: {}", username);
+            throw new AuthenticationException("Credenciales inválidas");
         }
+        credentialCache.put(verified.getKey(), user.getUsername(), user.getPassword());
+        return user;
     }
     
     /**
      * Limpiar el ThreadLocal después de procesar la petición
+     * SERVER_PROCESSING_COMPLETED se invoca siempre, también cuando la petición termina en error,
+     * así un hilo reutilizado del pool nunca conserva el usuario de una petición anterior
      */
-    @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+    @Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
     public void cleanup(RequestDetails requestDetails) {
         AuthContext.clear();
     }
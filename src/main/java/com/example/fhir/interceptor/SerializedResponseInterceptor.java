@@ -0,0 +1,102 @@
+package com.example.fhir.interceptor;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import com.example.fhir.cache.SerializedResourceCache;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Interceptor que responde las lecturas (READ) con los bytes ya codificados
+ * de SerializedResourceCache, evitando volver a serializar el recurso en cada petición
+ *
+ * Se ejecuta después de los demás hooks de SERVER_OUTGOING_RESPONSE (ej: el resaltado HTML)
+ * y, al escribir la respuesta, devuelve false para que HAPI no la codifique. La línea de
+ * respuesta del log y la limpieza del contexto de autenticación no dependen de este hook:
+ * van en SERVER_PROCESSING_COMPLETED (LoggingInterceptor, SecurityInterceptor.cleanup),
+ * que HAPI invoca igual.
+ * Las peticiones con _summary/_elements u otros parámetros, y las de navegador (HTML),
+ * siguen el camino normal.
+ */
+@Interceptor
+public class SerializedResponseInterceptor {
+    
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+    
+    private final FhirContext fhirContext;
+    private final SerializedResourceCache cache;
+    
+    public SerializedResponseInterceptor(FhirContext fhirContext, SerializedResourceCache cache) {
+        this.fhirContext = fhirContext;
+        this.cache = cache;
+    }
+    
+    @Hook(value = Pointcut.SERVER_OUTGOING_RESPONSE, order = 100)
+    public boolean writeCachedResource(RequestDetails requestDetails, IBaseResource resource, HttpServletResponse response) throws IOException {
+        RestOperationTypeEnum operationType = requestDetails.getRestOperationType();
+        // VREAD devuelve versiones reconstruidas (instancias nuevas): no se cachean
+        if (resource == null || response == null || operationType != RestOperationTypeEnum.READ) {
+            return true;
+        }
+        
+        // Solo _format y _pretty: el resto de parámetros altera la representación
+        for (String param : requestDetails.getParameters().keySet()) {
+            if (!"_format".equals(param) && !"_pretty".equals(param)) {
+                return true;
+            }
+        }
+        
+        // Navegadores: dejar que ResponseHighlighterInterceptor genere el HTML
+        String accept = requestDetails.getHeader("Accept");
+        if (accept != null && accept.contains("text/html") && !requestDetails.getParameters().containsKey("_format")) {
+            return true;
+        }
+        
+        RestfulServerUtils.ResponseEncoding encoding = RestfulServerUtils.determineResponseEncodingWithDefault(requestDetails);
+        EncodingEnum encodingEnum = encoding.getEncoding();
+        if (encodingEnum != EncodingEnum.JSON && encodingEnum != EncodingEnum.XML) {
+            return true;
+        }
+        boolean pretty = RestfulServerUtils.prettyPrintResponse(requestDetails.getServer(), requestDetails);
+        String serverBase = requestDetails.getFhirServerBase();
+        
+        String variant = encodingEnum.name() + (pretty ? "|pretty" : "");
+        byte[] body = cache.get(fhirContext.getResourceType(resource), resource, variant, () -> {
+            IParser parser = encodingEnum.newParser(fhirContext).setPrettyPrint(pretty);
+            parser.setServerBaseUrl(serverBase);
+            return parser.encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8);
+        });
+        
+        response.setStatus(200);
+        response.setContentType(encoding.getResourceContentType());
+        response.setCharacterEncoding("UTF-8");
+        // hasMeta() evita que getMeta() cree un Meta vacío en el recurso almacenado
+        if (resource instanceof Resource r && r.hasMeta()) {
+            if (r.getMeta().hasVersionId()) {
+                response.setHeader("ETag", "W/\"" + r.getMeta().getVersionId() + "\"");
+            }
+            if (r.getMeta().hasLastUpdated()) {
+                response.setHeader("Last-Modified", HTTP_DATE.format(r.getMeta().getLastUpdated().toInstant()));
+            }
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        response.getOutputStream().flush();
+        
+        // Respuesta ya escrita
+        return false;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.fhir.interceptor;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import com.example.fhir.util.AuthContext;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.InstantType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Interceptor de búsquedas en streaming
+ *
+ * Si la petición de búsqueda incluye el header "X-FHIR-Stream: true" y la respuesta es JSON,
+ * el Bundle (searchset) se escribe directamente en la respuesta: primero la envoltura y luego
+ * cada entrada a medida que se cargan del almacenamiento, en bloques de tamaño fijo.
+ * No se construye el Bundle en memoria, así la memoria por petición es constante.
+ *
+ * Si la búsqueda trae parámetros propios, pide una página (_count) o pide XML, se usa el camino
+ * normal (paginado).
+ *
+ * Como la respuesta se escribe aquí, HAPI no invoca SERVER_OUTGOING_RESPONSE; sí invoca
+ * SERVER_PROCESSING_COMPLETED, donde LoggingInterceptor registra la línea de respuesta.
+ * Este hook va después de la verificación de la política y de la línea de petición.
+ */
+@Interceptor
+public class StreamingSearchInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingSearchInterceptor.class);
+
+    public static final String STREAM_HEADER = "X-FHIR-Stream";
+    private static final int CHUNK_SIZE = 100;
+    // Parámetros de control que no alteran el resultado de la búsqueda
+    private static final Set<String> CONTROL_PARAMS = Set.of("_format", "_pretty");
+
+    private final FhirContext fhirContext;
+    private final Map<String, Function<RequestDetails, IBundleProvider>> searches = new ConcurrentHashMap<>();
+
+    public StreamingSearchInterceptor(FhirContext fhirContext) {
+        this.fhirContext = fhirContext;
+    }
+
+    /**
+     * Registrar la búsqueda sin parámetros de un tipo de recurso
+     * @param resourceType Tipo de recurso (ej: "Patient")
+     * @param search Función que ejecuta la búsqueda (con el filtrado por rol del provider)
+     */
+    public void registerSearch(String resourceType, Function<RequestDetails, IBundleProvider> search) {
+        searches.put(resourceType, search);
+    }
+
+    @Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
+    public boolean streamSearch(RequestDetails requestDetails, HttpServletResponse response) throws IOException {
+        if (requestDetails.getRestOperationType() != RestOperationTypeEnum.SEARCH_TYPE
+                || !"true".equalsIgnoreCase(requestDetails.getHeader(STREAM_HEADER))) {
+            return true;
+        }
+
+        Function<RequestDetails, IBundleProvider> search = searches.get(requestDetails.getResourceName());
+        if (search == null || !CONTROL_PARAMS.containsAll(requestDetails.getParameters().keySet())) {
+            return true;
+        }
+
+        // Sin _format ni Accept explícitos el servidor responde JSON
+        RestfulServerUtils.ResponseEncoding encoding =
+            RestfulServerUtils.determineResponseEncodingNoDefault(requestDetails, EncodingEnum.JSON);
+        if (encoding != null && encoding.getEncoding() != EncodingEnum.JSON) {
+            return true;
+        }
+
+        try {
+            IBundleProvider results = search.apply(requestDetails);
+            writeBundle(requestDetails, results, response);
+        } finally {
+            // Se omite SERVER_OUTGOING_RESPONSE: limpiar aquí el contexto de autenticación
+            AuthContext.clear();
+        }
+
+        // La respuesta ya fue escrita, HAPI no debe seguir procesando
+        return false;
+    }
+
+    private void writeBundle(RequestDetails requestDetails, IBundleProvider results, HttpServletResponse response) throws IOException {
+        long startTime = System.nanoTime();
+        String base = requestDetails.getFhirServerBase();
+        String resourceType = requestDetails.getResourceName();
+        Integer size = results.size();
+
+        response.setStatus(200);
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("application/fhir+json");
+
+        Writer out = response.getWriter();
+        // encodeResourceToWriter no debe cerrar el writer de la respuesta
+        Writer entryWriter = new FilterWriter(out) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        IParser parser = fhirContext.newJsonParser().setPrettyPrint(false);
+
+        out.write("{\"resourceType\":\"Bundle\",\"id\":\"");
+        out.write(UUID.randomUUID().toString());
+        out.write("\",\"meta\":{\"lastUpdated\":\"");
+        Date published = results.getPublished() != null ? results.getPublished().getValue() : new Date();
+        out.write(new InstantType(published).getValueAsString());
+        out.write("\"},\"type\":\"searchset\"");
+        if (size != null) {
+            out.write(",\"total\":");
+            out.write(Integer.toString(size));
+        }
+
+        int written = 0;
+        int from = 0;
+        while (size == null || from < size) {
+            List<IBaseResource> chunk = results.getResources(from, from + CHUNK_SIZE);
+            if (chunk.isEmpty() && size == null) {
+                break;
+            }
+            for (IBaseResource resource : chunk) {
+                // FHIR JSON no admite arreglos vacíos: "entry" se abre con la primera entrada
+                out.write(written == 0 ? ",\"entry\":[" : ",");
+                out.write("{\"fullUrl\":\"");
+                out.write(base + "/" + resourceType + "/" + resource.getIdElement().getIdPart());
+                out.write("\",\"resource\":");
+                parser.encodeResourceToWriter(resource, entryWriter);
+                out.write(",\"search\":{\"mode\":\"match\"}}");
+                written++;
+            }
+            out.flush();
+            from += CHUNK_SIZE;
+        }
+
+        out.write(written > 0 ? "]}" : "}");
+        out.flush();
+
+        logger.info("Búsqueda en streaming {}: {} entradas en {} ms", resourceType, written,
+            (System.nanoTime() - startTime) / 1_000_000);
+    }
+}
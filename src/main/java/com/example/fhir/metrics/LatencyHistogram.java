@@ -0,0 +1,108 @@
+package com.example.fhir.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias con buckets log-lineales (estilo HDR)
+ *
+ * Los valores se registran en microsegundos. Cada potencia de dos se divide en 32 sub-buckets,
+ * por lo que el error relativo de un percentil es menor al 3% en todo el rango
+ * (1 µs a ~38 horas) con un arreglo fijo de contadores. Registrar un valor es un incremento
+ * atómico sin locks ni asignaciones de memoria.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Valores por encima se registran en el último bucket
+    private static final long MAX_VALUE = (1L << 37) - 1;
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Registrar una duración
+     * @param nanos Duración en nanosegundos
+     */
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(indexOf(Math.min(micros, MAX_VALUE)));
+        count.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Calcular varios percentiles en una sola pasada
+     * @param quantiles Cuantiles en orden ascendente (ej: 0.5, 0.99, 0.999)
+     * @return Valor en microsegundos de cada cuantil (0 si no hay datos)
+     */
+    public long[] percentilesMicros(double... quantiles) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        long[] result = new long[quantiles.length];
+        if (total == 0) {
+            return result;
+        }
+        long max = getMaxMicros();
+        int q = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && q < quantiles.length; i++) {
+            seen += snapshot[i];
+            while (q < quantiles.length && seen >= (long) Math.ceil(quantiles[q] * total)) {
+                // Punto medio del bucket, sin superar el máximo observado
+                result[q] = Math.min(max, lowerBound(i) + (width(i) - 1) / 2);
+                q++;
+            }
+        }
+        for (; q < quantiles.length; q++) {
+            result[q] = max;
+        }
+        return result;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long lowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long) (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+    }
+
+    private static long width(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return 1;
+        }
+        return 1L << ((index >>> SUB_BUCKET_BITS) - 1);
+    }
+}
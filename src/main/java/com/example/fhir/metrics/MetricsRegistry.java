@@ -0,0 +1,248 @@
+package com.example.fhir.metrics;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registro de métricas del servidor (singleton)
+ *
+ * Mantiene histogramas de latencia por operación REST y tipo de recurso, el tiempo de
+ * autenticación por operación, el tiempo de validación por tipo de recurso y gauges
+ * registrados por los componentes (tamaño del almacenamiento, cachés, colas).
+ * Se exporta en formato de texto de Prometheus desde MetricsServlet.
+ *
+ * La etiqueta "resource" solo toma los tipos que sirve el servidor (RESOURCE_TYPES), "" o
+ * "other": el nombre de recurso viene de la URL, y usarlo tal cual permitiría a cualquier cliente
+ * crear series sin límite. Los valores de etiqueta se escapan según el formato de texto.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String NO_RESOURCE = "";
+    private static final String OTHER_RESOURCE = "other";
+    private static final Set<String> RESOURCE_TYPES = Set.of("Patient", "Observation");
+
+    private final Map<RestOperationTypeEnum, Map<String, LatencyHistogram>> requests = new EnumMap<>(RestOperationTypeEnum.class);
+    private final Map<RestOperationTypeEnum, Map<String, LongAdder>> errors = new EnumMap<>(RestOperationTypeEnum.class);
+    private final Map<RestOperationTypeEnum, LatencyHistogram> authentication = new EnumMap<>(RestOperationTypeEnum.class);
+    private final Map<String, LatencyHistogram> validation = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    // Duración de la primera petición atendida desde el arranque (-1 = ninguna todavía)
+    private final AtomicLong firstRequestNanos = new AtomicLong(-1);
+
+    private MetricsRegistry() {
+        // Los mapas por operación se crean completos para leerlos sin sincronización
+        for (RestOperationTypeEnum operation : RestOperationTypeEnum.values()) {
+            requests.put(operation, new ConcurrentHashMap<>());
+            errors.put(operation, new ConcurrentHashMap<>());
+            authentication.put(operation, new LatencyHistogram());
+        }
+        registerGauge("fhir_first_request_seconds", "Duración de la primera petición desde el arranque", () -> {
+            long nanos = firstRequestNanos.get();
+            return nanos < 0 ? Double.NaN : nanos / 1_000_000_000.0;
+        });
+    }
+
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registrar la duración total de una petición
+     * @param operation Operación REST (null si HAPI no llegó a resolverla)
+     * @param resourceType Tipo de recurso (puede ser null)
+     * @param nanos Duración en nanosegundos
+     * @param error true si la respuesta fue un error (status >= 400)
+     */
+    public void recordRequest(RestOperationTypeEnum operation, String resourceType, long nanos, boolean error) {
+        RestOperationTypeEnum op = operation != null ? operation : RestOperationTypeEnum.EXTENDED_OPERATION_SERVER;
+        String resource = resourceLabel(resourceType);
+        requests.get(op).computeIfAbsent(resource, key -> new LatencyHistogram()).recordNanos(nanos);
+        if (firstRequestNanos.get() < 0) {
+            firstRequestNanos.compareAndSet(-1, nanos);
+        }
+        if (error) {
+            errors.get(op).computeIfAbsent(resource, key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Registrar el tiempo de autenticación y autorización de una petición
+     * Se llama cuando HAPI ya eligió el método (el tipo de operación es conocido); una petición
+     * rechazada al autenticar no llega a tener operación y no se registra aquí
+     */
+    public void recordAuthentication(RestOperationTypeEnum operation, long nanos) {
+        RestOperationTypeEnum op = operation != null ? operation : RestOperationTypeEnum.EXTENDED_OPERATION_SERVER;
+        authentication.get(op).recordNanos(nanos);
+    }
+
+    /**
+     * Registrar el tiempo de validación de un recurso
+     */
+    public void recordValidation(String resourceType, long nanos) {
+        validation.computeIfAbsent(resourceLabel(resourceType), key -> new LatencyHistogram()).recordNanos(nanos);
+    }
+
+    /**
+     * Registrar un gauge (valor leído en cada exportación)
+     * @param name Nombre de la métrica en formato Prometheus (ej: fhir_storage_patients)
+     * @param help Descripción
+     * @param value Proveedor del valor actual
+     */
+    public void registerGauge(String name, String help, Supplier<Number> value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Registrar un histograma de duraciones mantenido por un componente
+     * Se exporta como summary (p50/p99/p999, suma y cantidad) en segundos
+     */
+    public void registerHistogram(String name, String help, LatencyHistogram histogram) {
+        histograms.put(name, new Histogram(help, histogram));
+    }
+    
+    /**
+     * Escribir todas las métricas en formato de texto de Prometheus (versión 0.0.4)
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder(8192);
+
+        sb.append("# HELP fhir_request_duration_seconds Duración de las peticiones FHIR por operación y tipo de recurso\n");
+        sb.append("# TYPE fhir_request_duration_seconds summary\n");
+        for (Map.Entry<RestOperationTypeEnum, Map<String, LatencyHistogram>> byOperation : requests.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> byResource : new TreeMap<>(byOperation.getValue()).entrySet()) {
+                String labels = "operation=\"" + escape(byOperation.getKey().getCode()) + "\",resource=\"" + escape(byResource.getKey()) + "\"";
+                writeSummary(sb, "fhir_request_duration_seconds", labels, byResource.getValue());
+            }
+        }
+
+        sb.append("# HELP fhir_request_errors_total Peticiones con respuesta de error (status >= 400)\n");
+        sb.append("# TYPE fhir_request_errors_total counter\n");
+        for (Map.Entry<RestOperationTypeEnum, Map<String, LongAdder>> byOperation : errors.entrySet()) {
+            for (Map.Entry<String, LongAdder> byResource : new TreeMap<>(byOperation.getValue()).entrySet()) {
+                sb.append("fhir_request_errors_total{operation=\"").append(escape(byOperation.getKey().getCode()))
+                  .append("\",resource=\"").append(escape(byResource.getKey())).append("\"} ")
+                  .append(byResource.getValue().sum()).append('\n');
+            }
+        }
+
+        sb.append("# HELP fhir_authentication_duration_seconds Tiempo de autenticación y autorización por operación\n");
+        sb.append("# TYPE fhir_authentication_duration_seconds summary\n");
+        for (Map.Entry<RestOperationTypeEnum, LatencyHistogram> entry : authentication.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                writeSummary(sb, "fhir_authentication_duration_seconds",
+                    "operation=\"" + escape(entry.getKey().getCode()) + "\"", entry.getValue());
+            }
+        }
+
+        sb.append("# HELP fhir_validation_duration_seconds Tiempo de validación por tipo de recurso\n");
+        sb.append("# TYPE fhir_validation_duration_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(validation).entrySet()) {
+            writeSummary(sb, "fhir_validation_duration_seconds", "resource=\"" + escape(entry.getKey()) + "\"", entry.getValue());
+        }
+
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            sb.append("# HELP ").append(entry.getKey()).append(' ').append(entry.getValue().help).append('\n');
+            sb.append("# TYPE ").append(entry.getKey()).append(" summary\n");
+            writeSummary(sb, entry.getKey(), null, entry.getValue().histogram);
+        }
+
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            Number value;
+            try {
+                value = entry.getValue().value.get();
+            } catch (RuntimeException e) {
+                continue;
+            }
+            sb.append("# HELP ").append(entry.getKey()).append(' ').append(entry.getValue().help).append('\n');
+            sb.append("# TYPE ").append(entry.getKey()).append(" gauge\n");
+            sb.append(entry.getKey()).append(' ').append(value).append('\n');
+        }
+
+        out.write(sb.toString());
+    }
+
+    /**
+     * Valor de la etiqueta "resource": el tipo si lo sirve el servidor, "" sin tipo y "other" en otro caso
+     */
+    private static String resourceLabel(String resourceType) {
+        if (resourceType == null) {
+            return NO_RESOURCE;
+        }
+        return RESOURCE_TYPES.contains(resourceType) ? resourceType : OTHER_RESOURCE;
+    }
+
+    /**
+     * Escapar un valor de etiqueta (barra invertida, comillas y salto de línea)
+     */
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                escaped.append("\\\\");
+            } else if (c == '"') {
+                escaped.append("\\\"");
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * @param labels Etiquetas sin llaves (null si la métrica no tiene etiquetas)
+     */
+    private static void writeSummary(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels != null ? labels + "," : "";
+        String suffix = labels != null ? "{" + labels + "}" : "";
+        long[] percentiles = histogram.percentilesMicros(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sb.append(name).append('{').append(prefix).append("quantile=\"").append(QUANTILES[i]).append("\"} ")
+              .append(seconds(percentiles[i])).append('\n');
+        }
+        sb.append(name).append("_sum").append(suffix).append(' ').append(seconds(histogram.getSumMicros())).append('\n');
+        sb.append(name).append("_count").append(suffix).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+
+    private static final class Histogram {
+        final String help;
+        final LatencyHistogram histogram;
+
+        Histogram(String help, LatencyHistogram histogram) {
+            this.help = help;
+            this.histogram = histogram;
+        }
+    }
+
+    private static final class Gauge {
+        final String help;
+        final Supplier<Number> value;
+
+        Gauge(String help, Supplier<Number> value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
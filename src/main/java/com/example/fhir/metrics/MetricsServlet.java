@@ -0,0 +1,66 @@
+package com.example.fhir.metrics;
+
+import com.example.fhir.model.User;
+import com.example.fhir.storage.UserStorage;
+import com.example.fhir.util.TokenService;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Servlet que expone las métricas en formato de texto de Prometheus
+ * Se registra en /metrics, fuera de /fhir/* (no pasa por SecurityInterceptor), así que
+ * autentica por su cuenta: HTTP Basic o token Bearer ($login) de un administrador
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private final MetricsRegistry registry;
+
+    public MetricsServlet(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        User user = authenticate(request.getHeader("Authorization"));
+        if (user == null) {
+            response.setHeader("WWW-Authenticate", "Basic realm=\"metrics\"");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Se requiere autenticación de administrador");
+            return;
+        }
+        if (!user.isAdmin()) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "Solo administradores pueden leer las métricas");
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        registry.writePrometheus(response.getWriter());
+    }
+
+    /**
+     * Usuario del header Authorization (null si falta o las credenciales no son válidas)
+     */
+    private static User authenticate(String authHeader) {
+        if (authHeader == null) {
+            return null;
+        }
+        if (authHeader.startsWith("Bearer ")) {
+            return TokenService.getInstance().verify(authHeader.substring(7).trim());
+        }
+        if (authHeader.startsWith("Basic ")) {
+            String decoded = new String(Base64.decodeBase64(authHeader.substring(6)), StandardCharsets.UTF_8);
+            String[] credentials = decoded.split(":", 2);
+            if (credentials.length == 2) {
+                return UserStorage.getInstance().authenticate(credentials[0], credentials[1]);
+            }
+        }
+        return null;
+    }
+}
@@ -10,7 +10,7 @@ public class User implements Serializable {
     private static final long serialVersionUID = 1L;
     
     private String username;
-    private String password;
+    private String password; // Hash PBKDF2 (ver PasswordHasher), nunca la contraseña en texto plano
     private String role; // "admin" o "user"
     private String patientId; // ID del Patient asociado al usuario (solo para usuarios regulares)
     private String email;
@@ -0,0 +1,130 @@
+package com.example.fhir.paging;
+
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.valueset.BundleEntrySearchModeEnum;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import com.example.fhir.storage.Compartment;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Resultado de búsqueda perezoso sobre InMemoryStorage
+ *
+ * Solo guarda los IDs que coinciden con la búsqueda; los recursos se obtienen del
+ * almacenamiento al pedir cada página, así el trabajo por petición depende del tamaño
+ * de página y no del tamaño del almacenamiento.
+ * Los recursos eliminados entre páginas se omiten, igual que los que ya no pertenecen al
+ * compartimento de quien hizo la búsqueda (ej: Observation cuyo subject cambió): el acceso se
+ * verifica otra vez con cada recurso cargado, no solo al resolver los IDs.
+ *
+ * Con includes (_include / _revinclude) cada página agrega, después de sus coincidencias, los
+ * recursos referenciados o que referencian a ellas, sin repetir ninguno dentro de la página.
+ * Los incluidos no cuentan en size() ni en la paginación, igual que en el servidor JPA de HAPI.
+ */
+public class StorageBundleProvider implements IBundleProvider {
+    
+    private final List<String> ids;
+    private final Function<String, ? extends IBaseResource> loader;
+    private final Compartment compartment;
+    private final InstantType published = new InstantType(new Date());
+    private Function<IBaseResource, Collection<String>> includes;
+    private Function<String, ? extends IBaseResource> includeLoader;
+    
+    /**
+     * @param compartment Compartimento del usuario que hizo la búsqueda (se aplica a cada página)
+     */
+    public StorageBundleProvider(List<String> ids, Function<String, ? extends IBaseResource> loader,
+                                 Compartment compartment) {
+        this.ids = ids;
+        this.loader = loader;
+        this.compartment = compartment;
+    }
+    
+    /**
+     * Agregar recursos incluidos a cada página
+     * @param includes Referencias ("Tipo/id") a incluir para cada coincidencia de la página
+     * @param includeLoader Carga un recurso por referencia (null si ya no existe)
+     */
+    public StorageBundleProvider withIncludes(Function<IBaseResource, Collection<String>> includes,
+                                              Function<String, ? extends IBaseResource> includeLoader) {
+        this.includes = includes;
+        this.includeLoader = includeLoader;
+        return this;
+    }
+    
+    @Override
+    public IPrimitiveType<Date> getPublished() {
+        return published;
+    }
+    
+    @Override
+    public List<IBaseResource> getResources(int fromIndex, int toIndex) {
+        int from = Math.max(0, fromIndex);
+        int to = Math.min(ids.size(), toIndex);
+        List<IBaseResource> page = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            IBaseResource resource = loader.apply(ids.get(i));
+            if (isVisible(resource)) {
+                page.add(resource);
+            }
+        }
+        if (includes != null) {
+            addIncludes(page);
+        }
+        return page;
+    }
+    
+    private void addIncludes(List<IBaseResource> page) {
+        // Referencias ya presentes en la página: las coincidencias no se repiten como incluidas
+        Set<String> seen = new HashSet<>();
+        for (IBaseResource match : page) {
+            seen.add(match.getIdElement().toUnqualifiedVersionless().getValue());
+        }
+        List<IBaseResource> included = new ArrayList<>();
+        for (IBaseResource match : page) {
+            for (String reference : includes.apply(match)) {
+                if (!seen.add(reference)) {
+                    continue;
+                }
+                IBaseResource resource = includeLoader.apply(reference);
+                if (isVisible(resource)) {
+                    // Copia: el modo de búsqueda no debe quedar en la instancia del almacenamiento
+                    Resource copy = ((Resource) resource).copy();
+                    ResourceMetadataKeyEnum.ENTRY_SEARCH_MODE.put(copy, BundleEntrySearchModeEnum.INCLUDE);
+                    included.add(copy);
+                }
+            }
+        }
+        page.addAll(included);
+    }
+    
+    private boolean isVisible(IBaseResource resource) {
+        return resource != null && compartment.contains((Resource) resource);
+    }
+    
+    @Override
+    public String getUuid() {
+        // Lo asigna el IPagingProvider al guardar el resultado
+        return null;
+    }
+    
+    @Override
+    public Integer preferredPageSize() {
+        return null;
+    }
+    
+    @Override
+    public Integer size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.fhir.paging;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.BasePagingProvider;
+import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
+import com.example.fhir.model.User;
+import com.example.fhir.util.AuthContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caché de cursores de búsqueda con expiración por inactividad (TTL)
+ *
+ * HAPI guarda aquí el IBundleProvider de cada búsqueda paginada y genera los enlaces
+ * "next"/"previous" con el ID del cursor (parámetro _getpages). Cada acceso renueva el TTL;
+ * un hilo en segundo plano elimina los cursores expirados y, si se supera el máximo,
+ * se descarta el más antiguo.
+ *
+ * Cada cursor guarda el usuario que hizo la búsqueda: _getpages con el ID de un cursor ajeno se
+ * rechaza, aunque la operación GET_PAGE esté permitida para el rol. El filtro por compartimento
+ * de cada página lo aplica el IBundleProvider (StorageBundleProvider).
+ */
+public class TtlPagingProvider extends BasePagingProvider {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TtlPagingProvider.class);
+    
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int maxCursors;
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "paging-cursor-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public TtlPagingProvider(int defaultPageSize, int maximumPageSize, long ttl, TimeUnit unit, int maxCursors) {
+        setDefaultPageSize(defaultPageSize);
+        setMaximumPageSize(maximumPageSize);
+        this.ttlMillis = unit.toMillis(ttl);
+        this.maxCursors = maxCursors;
+        long period = Math.max(1000L, ttlMillis / 4);
+        evictor.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public String storeResultList(RequestDetails requestDetails, IBundleProvider list) {
+        if (cursors.size() >= maxCursors) {
+            evictOldest();
+        }
+        String id = UUID.randomUUID().toString();
+        cursors.put(id, new Cursor(list, username(requestDetails), System.currentTimeMillis()));
+        return id;
+    }
+    
+    @Override
+    public IBundleProvider retrieveResultList(RequestDetails requestDetails, String searchId) {
+        Cursor cursor = cursors.get(searchId);
+        if (cursor == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - cursor.lastAccess > ttlMillis) {
+            cursors.remove(searchId, cursor);
+            return null;
+        }
+        if (!Objects.equals(cursor.owner, username(requestDetails))) {
+            throw new ForbiddenOperationException("El cursor de búsqueda pertenece a otro usuario");
+        }
+        cursor.lastAccess = now;
+        return cursor.results;
+    }
+    
+    /**
+     * Usuario autenticado de la petición (null si la petición no pasó por SecurityInterceptor)
+     */
+    private static String username(RequestDetails requestDetails) {
+        User user = AuthContext.getUser();
+        if (user == null && requestDetails != null) {
+            user = (User) requestDetails.getAttribute("USER");
+        }
+        return user != null ? user.getUsername() : null;
+    }
+    
+    /**
+     * Número de cursores activos
+     */
+    public int size() {
+        return cursors.size();
+    }
+    
+    private void evictExpired() {
+        long limit = System.currentTimeMillis() - ttlMillis;
+        int before = cursors.size();
+        cursors.values().removeIf(cursor -> cursor.lastAccess < limit);
+        int evicted = before - cursors.size();
+        if (evicted > 0) {
+            logger.debug("Cursores de búsqueda expirados: {}", evicted);
+        }
+    }
+    
+    private void evictOldest() {
+        cursors.entrySet().stream()
+            .min((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess))
+            .ifPresent(oldest -> cursors.remove(oldest.getKey(), oldest.getValue()));
+    }
+    
+    private static final class Cursor {
+        final IBundleProvider results;
+        final String owner;
+        volatile long lastAccess;
+        
+        Cursor(IBundleProvider results, String owner, long lastAccess) {
+            this.results = results;
+            this.owner = owner;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
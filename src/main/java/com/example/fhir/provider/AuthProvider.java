@@ -0,0 +1,112 @@
+package com.example.fhir.provider;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
+import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.example.fhir.model.User;
+import com.example.fhir.storage.InMemoryStorage;
+import com.example.fhir.storage.UserStorage;
+import com.example.fhir.util.AuthContext;
+import com.example.fhir.util.TokenService;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
+
+/**
+ * Operaciones de cuenta
+ *
+ * POST /fhir/$login - Canjea credenciales HTTP Basic por un token bearer firmado
+ * POST /fhir/$signup - Registra un usuario con rol "user" sin Patient asociado (no requiere autenticación)
+ * POST /fhir/$link-patient - Asocia una cuenta a un Patient (solo administradores)
+ *
+ * El registro anónimo nunca asocia un Patient: con el compartimento de ese Patient la cuenta
+ * podría leer toda su historia clínica. Hasta que un administrador la asocie con $link-patient,
+ * la cuenta no ve ningún recurso.
+ */
+public class AuthProvider {
+
+    public static final String LOGIN_OPERATION = "$login";
+    public static final String SIGNUP_OPERATION = "$signup";
+    public static final String LINK_PATIENT_OPERATION = "$link-patient";
+
+    private final TokenService tokenService = TokenService.getInstance();
+    private final UserStorage userStorage = UserStorage.getInstance();
+    private final InMemoryStorage storage = InMemoryStorage.getInstance();
+
+    @Operation(name = LOGIN_OPERATION)
+    public Parameters login(RequestDetails requestDetails) {
+        // SecurityInterceptor ya verificó el header Basic; un token no puede emitir otro token
+        User user = getUserFromRequest(requestDetails);
+        if (user == null) {
+            throw new AuthenticationException("Se requiere autenticación HTTP Basic para obtener un token");
+        }
+
+        Parameters parameters = new Parameters();
+        parameters.addParameter("access_token", tokenService.issue(user));
+        parameters.addParameter("token_type", "Bearer");
+        parameters.addParameter("expires_in", new IntegerType((int) tokenService.getTtlSeconds()));
+        parameters.addParameter("username", user.getUsername());
+        parameters.addParameter("role", user.getRole());
+        if (user.getPatientId() != null) {
+            parameters.addParameter("patientId", user.getPatientId());
+        }
+        return parameters;
+    }
+
+    @Operation(name = SIGNUP_OPERATION)
+    public Parameters signup(@OperationParam(name = "username", min = 1) StringType username,
+                             @OperationParam(name = "password", min = 1) StringType password,
+                             @OperationParam(name = "email", min = 1) StringType email) {
+        if (username.isEmpty() || password.isEmpty() || email.isEmpty()) {
+            throw new InvalidRequestException("username, password y email son obligatorios");
+        }
+        if (!userStorage.registerUser(username.getValue(), password.getValue(), email.getValue(), null)) {
+            throw new InvalidRequestException("El usuario '" + username.getValue() + "' ya existe");
+        }
+
+        Parameters parameters = new Parameters();
+        parameters.addParameter("username", username.getValue());
+        parameters.addParameter("role", "user");
+        return parameters;
+    }
+
+    /**
+     * Asociar una cuenta a un Patient existente
+     * Los tokens emitidos antes conservan el patientId anterior hasta que expiran
+     */
+    @Operation(name = LINK_PATIENT_OPERATION)
+    public Parameters linkPatient(@OperationParam(name = "username", min = 1) StringType username,
+                                  @OperationParam(name = "patientId", min = 1) StringType patientId,
+                                  RequestDetails requestDetails) {
+        User admin = getUserFromRequest(requestDetails);
+        if (admin == null || !admin.isAdmin()) {
+            throw new ForbiddenOperationException("Solo un administrador puede asociar una cuenta a un Patient");
+        }
+        if (username.isEmpty() || patientId.isEmpty()) {
+            throw new InvalidRequestException("username y patientId son obligatorios");
+        }
+        if (storage.getPatient(patientId.getValue()) == null) {
+            throw new ResourceNotFoundException("Patient con ID '" + patientId.getValue() + "' no encontrado");
+        }
+        if (!userStorage.associatePatientId(username.getValue(), patientId.getValue())) {
+            throw new ResourceNotFoundException("Usuario '" + username.getValue() + "' no encontrado");
+        }
+
+        Parameters parameters = new Parameters();
+        parameters.addParameter("username", username.getValue());
+        parameters.addParameter("patientId", patientId.getValue());
+        return parameters;
+    }
+
+    private static User getUserFromRequest(RequestDetails requestDetails) {
+        User user = AuthContext.getUser();
+        if (user == null && requestDetails != null) {
+            user = (User) requestDetails.getAttribute("USER");
+        }
+        return user;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.fhir.provider;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.example.fhir.ingest.IngestPipeline;
+import com.example.fhir.model.User;
+import com.example.fhir.util.AuthContext;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.StringType;
+
+import java.util.Date;
+
+/**
+ * Operaciones de la ingesta asíncrona (solo administradores)
+ *
+ * GET /fhir/$ingest-status?job={id} - Estado de un recurso enviado con "Prefer: respond-async"
+ * GET /fhir/$quarantine[?resourceType=Observation][&_count=100] - Recursos que no pasaron la validación
+ */
+public class IngestProvider {
+
+    private static final int DEFAULT_QUARANTINE_COUNT = 100;
+
+    private final IngestPipeline pipeline = IngestPipeline.getInstance();
+
+    @Operation(name = IngestPipeline.STATUS_OPERATION, idempotent = true)
+    public Parameters ingestStatus(@OperationParam(name = "job", min = 1) StringType job, RequestDetails requestDetails) {
+        requireAdmin(requestDetails);
+
+        IngestPipeline.Job ingestJob = pipeline.getJob(job.getValue());
+        if (ingestJob == null) {
+            throw new ResourceNotFoundException("Trabajo de ingesta '" + job.getValue() + "' no encontrado o expirado");
+        }
+
+        Parameters parameters = new Parameters();
+        describe(parameters, ingestJob);
+        if (ingestJob.getStatus() == IngestPipeline.Status.ACCEPTED) {
+            parameters.addParameter("location", requestDetails.getFhirServerBase() + "/" + ingestJob.resourceReference());
+        }
+        return parameters;
+    }
+
+    @Operation(name = "$quarantine", idempotent = true)
+    public Parameters quarantine(@OperationParam(name = "resourceType") StringType resourceType,
+                                 @OperationParam(name = "_count") IntegerType count,
+                                 RequestDetails requestDetails) {
+        requireAdmin(requestDetails);
+
+        int max = count != null && count.getValue() != null ? count.getValue() : DEFAULT_QUARANTINE_COUNT;
+        String type = resourceType != null ? resourceType.getValue() : null;
+
+        Parameters parameters = new Parameters();
+        parameters.addParameter("total", new IntegerType(pipeline.getQuarantineSize()));
+        for (IngestPipeline.Job job : pipeline.getQuarantine(type, max)) {
+            Parameters.ParametersParameterComponent entry = parameters.addParameter().setName("entry");
+            entry.addPart().setName("job").setValue(new StringType(job.getId()));
+            entry.addPart().setName("reference").setValue(new StringType(job.resourceReference()));
+            entry.addPart().setName("error").setValue(new StringType(job.getError()));
+            entry.addPart().setName("quarantinedAt").setValue(new InstantType(new Date(job.getCompletedAt())));
+            entry.addPart().setName("resource").setResource(job.getResource());
+        }
+        return parameters;
+    }
+
+    private void describe(Parameters parameters, IngestPipeline.Job job) {
+        parameters.addParameter("job", job.getId());
+        parameters.addParameter("status", job.getStatus().name().toLowerCase());
+        parameters.addParameter("reference", job.resourceReference());
+        parameters.addParameter("submitted", new InstantType(new Date(job.getSubmittedAt())));
+        if (job.getStatus() != IngestPipeline.Status.PENDING) {
+            parameters.addParameter("completed", new InstantType(new Date(job.getCompletedAt())));
+        }
+        if (job.getError() != null) {
+            parameters.addParameter("error", job.getError());
+        }
+    }
+
+    private void requireAdmin(RequestDetails requestDetails) {
+        User user = AuthContext.getUser();
+        if (user == null && requestDetails != null) {
+            user = (User) requestDetails.getAttribute("USER");
+        }
+        if (user == null || !user.isAdmin()) {
+            throw new ForbiddenOperationException("Solo los administradores pueden consultar la ingesta asíncrona");
+        }
+    }
+}
@@ -1,21 +1,57 @@
 package com.example.fhir.provider;
 
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.valueset.BundleTypeEnum;
 import ca.uhn.fhir.rest.annotation.*;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.example.fhir.ingest.IngestPipeline;
 import com.example.fhir.model.User;
+import com.example.fhir.paging.StorageBundleProvider;
+import com.example.fhir.storage.Compartment;
 import com.example.fhir.storage.InMemoryStorage;
+import com.example.fhir.storage.ObservationQuery;
+import com.example.fhir.storage.ValueStats;
+import com.example.fhir.util.AccessPolicy;
 import com.example.fhir.util.AuthContext;
+import com.example.fhir.util.DateSearch;
+import com.example.fhir.util.IdGenerator;
 import com.example.fhir.util.ValidationUtil;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DecimalType;
 import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.IntegerType;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Resource;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Proveedor de recursos Observation
@@ -23,7 +59,17 @@ import java.util.stream.Collectors;
  */
 public class ObservationProvider implements IResourceProvider {
     
+    public static final String INCLUDE_SUBJECT = "Observation:subject";
+    public static final String LASTN_OPERATION = "$lastn";
+    public static final String STATS_OPERATION = "$stats";
+    
+    // Percentiles de $stats cuando no se indica ninguno
+    private static final double[] DEFAULT_PERCENTILES = {50, 90, 99};
+    
     private final InMemoryStorage storage = InMemoryStorage.getInstance();
+    private final IdGenerator idGenerator = IdGenerator.getDefault();
+    private final IngestPipeline ingest = IngestPipeline.getInstance();
+    private final AccessPolicy accessPolicy = AccessPolicy.getInstance();
     
     @Override
     public Class<Observation> getResourceType() {
@@ -37,23 +83,15 @@ public class ObservationProvider implements IResourceProvider {
      */
     @Create
     public MethodOutcome createObservation(@ResourceParam Observation observation, RequestDetails requestDetails) {
-        // Verificar permisos - solo admin puede crear
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin()) {
-            throw new ForbiddenOperationException("Solo los administradores pueden crear recursos Observation");
-        }
-        
-        // Validar recurso
-        ValidationUtil.validateResource(observation);
+        // Verificar permisos según la política de acceso
+        accessPolicy.check(getUserFromRequest(requestDetails), RestOperationTypeEnum.CREATE, "Observation");
         
         // Usar ID del recurso si existe, o generar uno nuevo
         String finalId;
         if (observation.getIdElement().isEmpty()) {
-            // Generar ID único
-            do {
-                finalId = "Observation-" + System.currentTimeMillis();
-            } while (storage.getObservation(finalId) != null);
-            observation.setId(finalId);
+            // Generar ID único (sin coordinación entre hilos)
+            finalId = idGenerator.nextId("Observation");
+            observation.setId("Observation/" + finalId);
         } else {
             // Si el recurso ya tiene un ID, extraer solo la parte del ID (sin el tipo de recurso)
             String idPart = observation.getIdElement().getIdPart();
@@ -62,20 +100,24 @@ public class ObservationProvider implements IResourceProvider {
                 idPart = idPart.substring(idPart.lastIndexOf("/") + 1);
             }
             finalId = idPart;
-            
-            // Verificar que el ID no exista ya
-            if (storage.getObservation(finalId) != null) {
+            observation.setId("Observation/" + finalId);
+        }
+        
+        // Modo ingesta (Prefer: respond-async): validar y guardar en segundo plano
+        if (IngestPipeline.isAsyncRequested(requestDetails)) {
+            return ingest.submit(observation, this::commitCreate, requestDetails);
+        }
+        
+        // Validar recurso
+        ValidationUtil.validateResource(observation);
+        
+        // Guardar de forma atómica: falla si otro hilo ya insertó el mismo ID
+        if (!storage.saveObservationIfAbsent(observation)) {
             throw new InvalidRequestException(
                 "Ya existe una Observation con el ID '" + finalId + "'. Por favor, use un ID diferente."
             );
-            }
-            
-            observation.setId("Observation/" + finalId);
         }
         
-        // Guardar
-        storage.saveObservation(observation);
-        
         MethodOutcome outcome = new MethodOutcome();
         outcome.setId(observation.getIdElement());
         outcome.setResource(observation);
@@ -85,34 +127,77 @@ public class ObservationProvider implements IResourceProvider {
     }
     
     /**
-     * Leer una Observation por ID
+     * Leer una Observation por ID (o una versión específica)
      * GET /fhir/Observation/{id}
+     * GET /fhir/Observation/{id}/_history/{version}
      * Usuarios regulares solo pueden leer Observations de su Patient
      */
-    @Read
+    @Read(version = true)
     public Observation readObservation(@IdParam IdType id, RequestDetails requestDetails) {
-        Observation observation = storage.getObservation(id.getIdPart());
-        if (observation == null) {
+        Observation observation;
+        if (id.hasVersionIdPart()) {
+            observation = id.isVersionIdPartValidLong()
+                ? storage.getObservationVersion(id.getIdPart(), id.getVersionIdPartAsLong())
+                : null;
+            if (observation == null) {
+                throw new ResourceNotFoundException("Observation con ID '" + id.getIdPart() + "' y versión '" + id.getVersionIdPart() + "' no encontrado");
+            }
+            if (ResourceMetadataKeyEnum.DELETED_AT.get(observation) != null) {
+                throw new ResourceGoneException("La versión '" + id.getVersionIdPart() + "' de la Observation '" + id.getIdPart() + "' corresponde a una eliminación");
+            }
+        } else {
+            observation = storage.getObservation(id.getIdPart());
+            if (observation == null) {
+                throw new ResourceNotFoundException("Observation con ID '" + id.getIdPart() + "' no encontrado");
+            }
+        }
+        
+        // Verificar que la Observation esté en el compartimento del usuario
+        if (!getCompartment(requestDetails).containsObservation(observation)) {
+            throw new ForbiddenOperationException("No tiene permisos para acceder a este recurso Observation");
+        }
+        
+        return observation;
+    }
+    
+    /**
+     * Historial de una Observation
+     * GET /fhir/Observation/{id}/_history
+     */
+    @History
+    public List<Observation> getObservationHistory(@IdParam IdType id, @Since InstantType since, RequestDetails requestDetails) {
+        Compartment compartment = getCompartment(requestDetails);
+        List<Observation> history = storage.getObservationHistory(id.getIdPart(), since != null ? since.getValue() : null);
+        if (history.isEmpty()) {
             throw new ResourceNotFoundException("Observation con ID '" + id.getIdPart() + "' no encontrado");
         }
         
-        // Verificar permisos de acceso
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin()) {
-            // Verificar que la Observation pertenezca al Patient del usuario
-            if (observation.hasSubject() && observation.getSubject().hasReference()) {
-                String subjectRef = observation.getSubject().getReference();
-                String patientId = subjectRef.contains("/") ? subjectRef.split("/")[1] : subjectRef;
-                
-                if (!patientId.equals(user.getPatientId())) {
-                    throw new ForbiddenOperationException("No tiene permisos para acceder a este recurso Observation");
-                }
-            } else {
+        // Compartimento restringido: solo las versiones cuyo subject es su Patient (igual que vread);
+        // las de otro paciente antes de un cambio de subject no se devuelven
+        if (!compartment.isUnrestricted()) {
+            history.removeIf(version -> !compartment.containsObservation(version));
+            if (history.isEmpty()) {
                 throw new ForbiddenOperationException("No tiene permisos para acceder a este recurso Observation");
             }
         }
         
-        return observation;
+        return history;
+    }
+    
+    /**
+     * Historial de todas las Observations
+     * GET /fhir/Observation/_history
+     * Usuarios regulares solo ven el historial de las Observations de su Patient
+     */
+    @History
+    public List<Observation> getObservationTypeHistory(@Since InstantType since, RequestDetails requestDetails) {
+        Date sinceDate = since != null ? since.getValue() : null;
+        List<Observation> history = storage.getObservationHistory(getCompartment(requestDetails), sinceDate);
+        
+        // Más recientes primero
+        history.sort(Comparator.comparing((Observation o) -> o.getMeta().getLastUpdated(),
+            Comparator.nullsLast(Comparator.reverseOrder())));
+        return history;
     }
     
     /**
@@ -122,14 +207,8 @@ public class ObservationProvider implements IResourceProvider {
      */
     @Update
     public MethodOutcome updateObservation(@IdParam IdType id, @ResourceParam Observation observation, RequestDetails requestDetails) {
-        // Verificar permisos - solo admin puede actualizar
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin()) {
-            throw new ForbiddenOperationException("Solo los administradores pueden actualizar recursos Observation");
-        }
-        
-        // Validar recurso
-        ValidationUtil.validateResource(observation);
+        // Verificar permisos según la política de acceso
+        accessPolicy.check(getUserFromRequest(requestDetails), RestOperationTypeEnum.UPDATE, "Observation");
         
         // Verificar que existe
         Observation existing = storage.getObservation(id.getIdPart());
@@ -153,6 +232,14 @@ public class ObservationProvider implements IResourceProvider {
         // Actualizar ID si es necesario
         observation.setId("Observation/" + id.getIdPart());
         
+        // Modo ingesta (Prefer: respond-async): validar y guardar en segundo plano
+        if (IngestPipeline.isAsyncRequested(requestDetails)) {
+            return ingest.submit(observation, resource -> storage.saveObservation((Observation) resource), requestDetails);
+        }
+        
+        // Validar recurso
+        ValidationUtil.validateResource(observation);
+        
         // Guardar
         storage.saveObservation(observation);
         
@@ -170,11 +257,8 @@ public class ObservationProvider implements IResourceProvider {
      */
     @Delete
     public MethodOutcome deleteObservation(@IdParam IdType id, RequestDetails requestDetails) {
-        // Verificar permisos - solo admin puede eliminar
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin()) {
-            throw new ForbiddenOperationException("Solo los administradores pueden eliminar recursos Observation");
-        }
+        // Verificar permisos según la política de acceso
+        accessPolicy.check(getUserFromRequest(requestDetails), RestOperationTypeEnum.DELETE, "Observation");
         
         Observation observation = storage.getObservation(id.getIdPart());
         if (observation == null) {
@@ -190,31 +274,226 @@ public class ObservationProvider implements IResourceProvider {
     }
     
     /**
-     * Buscar todas las Observations
-     * GET /fhir/Observation
+     * Buscar Observations
+     * GET /fhir/Observation[?date=ge..&date=le..][&code=system|value][&subject=Patient/123][&_include=Observation:subject]
      * Usuarios regulares solo ven Observations de su Patient
+     * Los parámetros se resuelven intersecando los índices de InMemoryStorage (código, subject e
+     * instante efectivo), sin recorrer las Observations
+     * Resultado paginado (_count); las Observations se cargan solo para la página pedida
+     * Con _include=Observation:subject cada página trae también los Patients referenciados
      */
     @Search
-    public List<Observation> searchObservations(RequestDetails requestDetails) {
-        User user = getUserFromRequest(requestDetails);
+    public IBundleProvider searchObservations(@OptionalParam(name = Observation.SP_DATE) DateRangeParam date,
+                                              @OptionalParam(name = Observation.SP_CODE) TokenAndListParam code,
+                                              @OptionalParam(name = Observation.SP_SUBJECT, targetTypes = {Patient.class}) ReferenceAndListParam subject,
+                                              @IncludeParam(allow = {INCLUDE_SUBJECT}) Set<Include> includes,
+                                              RequestDetails requestDetails) {
+        // El compartimento se resuelve en el almacenamiento (índice por subject para usuarios regulares)
+        Compartment compartment = getCompartment(requestDetails);
+        ObservationQuery query = toQuery(date, code, subject);
+        List<String> ids = query.isEmpty()
+            ? storage.getObservationIds(compartment)
+            : storage.searchObservationIds(compartment, query);
+        StorageBundleProvider results = new StorageBundleProvider(ids, storage::getObservation, compartment);
+        if (includes != null && includes.stream().anyMatch(include -> INCLUDE_SUBJECT.equals(include.getValue()))) {
+            results.withIncludes(match -> subjectReferences((Observation) match, compartment), storage::getResource);
+        }
+        return results;
+    }
+    
+    /**
+     * Convertir los parámetros de búsqueda a criterios del almacenamiento
+     */
+    private static ObservationQuery toQuery(DateRangeParam date, TokenAndListParam code, ReferenceAndListParam subject) {
+        ObservationQuery query = new ObservationQuery();
+        if (date != null) {
+            // date=2024-03-10 cubre ese día de calendario; con hora se compara el instante
+            query.effective(DateSearch.lowerBound(date), DateSearch.upperBound(date));
+        }
+        if (code != null) {
+            for (TokenOrListParam anyOf : code.getValuesAsQueryTokens()) {
+                List<String> keys = new ArrayList<>();
+                for (TokenParam token : anyOf.getValuesAsQueryTokens()) {
+                    if (token.getModifier() != null) {
+                        throw new InvalidRequestException("Modificador no soportado en code: " + token.getModifier().getValue());
+                    }
+                    keys.add(ObservationQuery.codeKey(token.getSystem(), token.getValue()));
+                }
+                query.code(keys);
+            }
+        }
+        if (subject != null) {
+            for (ReferenceOrListParam anyOf : subject.getValuesAsQueryTokens()) {
+                List<String> references = new ArrayList<>();
+                for (ReferenceParam reference : anyOf.getValuesAsQueryTokens()) {
+                    if (reference.getChain() != null) {
+                        throw new InvalidRequestException("Búsqueda encadenada no soportada en subject: " + reference.getChain());
+                    }
+                    String type = reference.getResourceType() != null ? reference.getResourceType() : "Patient";
+                    references.add(type + "/" + reference.getIdPart());
+                }
+                query.subject(references);
+            }
+        }
+        return query;
+    }
+    
+    /**
+     * Observations más recientes de un paciente por código
+     * GET /fhir/Observation/$lastn?patient=123[&code=system|value,...][&max=3]
+     * Devuelve hasta max Observations por código, de la más reciente a la más antigua (instante
+     * efectivo). Se lee de las listas acotadas por (subject, código) que mantiene el
+     * almacenamiento, sin ordenar el historial; max no puede superar su capacidad.
+     * Usuarios regulares solo consultan su propio Patient (por defecto si no indican subject)
+     */
+    @Operation(name = LASTN_OPERATION, idempotent = true, bundleType = BundleTypeEnum.SEARCHSET)
+    public IBundleProvider lastN(@OperationParam(name = Observation.SP_PATIENT) ReferenceParam patient,
+                                 @OperationParam(name = Observation.SP_SUBJECT) ReferenceParam subject,
+                                 @OperationParam(name = Observation.SP_CODE) TokenOrListParam code,
+                                 @OperationParam(name = "max") IntegerType max,
+                                 RequestDetails requestDetails) {
+        Compartment compartment = getCompartment(requestDetails);
+        String subjectReference = patientSubject(LASTN_OPERATION, patient != null ? patient : subject, compartment);
         
-        // Administradores ven todas las Observations
-        if (user.isAdmin()) {
-            return storage.getAllObservations();
+        int count = max != null && max.getValue() != null ? max.getValue() : 1;
+        if (count < 1 || count > storage.getLastNCapacity()) {
+            throw new InvalidRequestException("max debe estar entre 1 y " + storage.getLastNCapacity()
+                + " (capacidad configurada con -Dfhir.lastn.capacity)");
         }
         
-        // Usuarios regulares solo ven Observations de su Patient
-        if (user.getPatientId() != null && !user.getPatientId().isEmpty()) {
-            String patientRef = "Patient/" + user.getPatientId();
-            return storage.getAllObservations().stream()
-                .filter(obs -> obs.hasSubject() && 
-                              obs.getSubject().hasReference() && 
-                              obs.getSubject().getReference().equals(patientRef))
-                .collect(Collectors.toList());
+        List<String> codeKeys = new ArrayList<>();
+        if (code != null) {
+            for (TokenParam token : code.getValuesAsQueryTokens()) {
+                if (token.getModifier() != null) {
+                    throw new InvalidRequestException("Modificador no soportado en code: " + token.getModifier().getValue());
+                }
+                codeKeys.add(ObservationQuery.codeKey(token.getSystem(), token.getValue()));
+            }
+        }
+        return new StorageBundleProvider(storage.getLastObservationIds(subjectReference, codeKeys, count), storage::getObservation,
+            compartment);
+    }
+    
+    /**
+     * Estadísticas de los valores numéricos (valueQuantity) de un paciente y código
+     * GET /fhir/Observation/$stats?patient=123&code=http://loinc.org|8867-4[&unit=/min][&start=..][&end=..][&percentile=50&percentile=95]
+     * Devuelve Parameters con el count total y un bloque stats por unidad (unit, count, minimum,
+     * maximum, average y un percentile con rank + value por cada percentil pedido, por defecto
+     * 50, 90 y 99), sobre las Observations cuyo instante efectivo cae en [start, end]. Los valores
+     * no se convierten entre unidades: cada unidad (código UCUM o texto) se agrega por separado y
+     * unit limita el resultado a una sola. Se calcula sobre el almacén columnar de
+     * InMemoryStorage, sin cargar las Observations.
+     * Usuarios regulares solo consultan su propio Patient (por defecto si no indican subject)
+     */
+    @Operation(name = STATS_OPERATION, idempotent = true)
+    public Parameters stats(@OperationParam(name = Observation.SP_PATIENT) ReferenceParam patient,
+                            @OperationParam(name = Observation.SP_SUBJECT) ReferenceParam subject,
+                            @OperationParam(name = Observation.SP_CODE, min = 1) TokenParam code,
+                            @OperationParam(name = "unit") StringType unit,
+                            @OperationParam(name = "start") DateTimeType start,
+                            @OperationParam(name = "end") DateTimeType end,
+                            @OperationParam(name = "percentile", max = OperationParam.MAX_UNLIMITED) List<DecimalType> percentile,
+                            RequestDetails requestDetails) {
+        String subjectReference = patientSubject(STATS_OPERATION, patient != null ? patient : subject, getCompartment(requestDetails));
+        if (code == null || code.getValue() == null || code.getSystem() == null || code.getModifier() != null) {
+            throw new InvalidRequestException("$stats requiere un code con sistema (system|code) y sin modificadores");
         }
         
-        // Si el usuario no tiene Patient asociado, retorna lista vacía
-        return List.of();
+        double[] percentiles = DEFAULT_PERCENTILES;
+        if (percentile != null && !percentile.isEmpty()) {
+            percentiles = new double[percentile.size()];
+            for (int i = 0; i < percentiles.length; i++) {
+                DecimalType value = percentile.get(i);
+                if (value.getValue() == null || value.getValue().doubleValue() < 0 || value.getValue().doubleValue() > 100) {
+                    throw new InvalidRequestException("percentile debe estar entre 0 y 100");
+                }
+                percentiles[i] = value.getValue().doubleValue();
+            }
+        }
+        Long from = start != null && start.getValue() != null ? start.getValue().getTime() : null;
+        Long to = end != null && end.getValue() != null ? end.getValue().getTime() : null;
+        String unitFilter = unit != null && unit.getValue() != null && !unit.getValue().isBlank() ? unit.getValue() : null;
+        
+        List<ValueStats> statsByUnit = storage.getValueStats(subjectReference,
+            ObservationQuery.codeKey(code.getSystem(), code.getValue()), unitFilter, from, to, percentiles);
+        
+        Parameters result = new Parameters();
+        result.addParameter().setName("subject").setValue(new Reference(subjectReference));
+        result.addParameter().setName("code").setValue(new Coding(code.getSystem(), code.getValue(), null));
+        result.addParameter().setName("count").setValue(new IntegerType(statsByUnit.stream().mapToInt(ValueStats::getCount).sum()));
+        for (ValueStats stats : statsByUnit) {
+            Parameters.ParametersParameterComponent block = result.addParameter().setName("stats");
+            if (stats.getUnit() != null) {
+                block.addPart().setName("unit").setValue(new StringType(stats.getUnit()));
+            }
+            block.addPart().setName("count").setValue(new IntegerType(stats.getCount()));
+            block.addPart().setName("minimum").setValue(quantity(stats.getMin(), stats.getUnit()));
+            block.addPart().setName("maximum").setValue(quantity(stats.getMax(), stats.getUnit()));
+            block.addPart().setName("average").setValue(quantity(stats.getMean(), stats.getUnit()));
+            for (Map.Entry<Double, Double> entry : stats.getPercentiles().entrySet()) {
+                Parameters.ParametersParameterComponent part = block.addPart().setName("percentile");
+                part.addPart().setName("rank").setValue(new DecimalType(entry.getKey()));
+                part.addPart().setName("value").setValue(quantity(entry.getValue(), stats.getUnit()));
+            }
+        }
+        return result;
+    }
+    
+    private static Quantity quantity(double value, String unit) {
+        return new Quantity().setValue(value).setUnit(unit);
+    }
+    
+    /**
+     * Referencia del paciente de $lastn / $stats, validada contra el compartimento del usuario
+     */
+    private static String patientSubject(String operation, ReferenceParam reference, Compartment compartment) {
+        if (reference == null) {
+            if (compartment.isUnrestricted() || compartment.getPatientReference() == null) {
+                throw new InvalidRequestException(operation + " requiere el parámetro patient o subject");
+            }
+            return compartment.getPatientReference();
+        }
+        if (reference.getChain() != null) {
+            throw new InvalidRequestException("Búsqueda encadenada no soportada en " + operation + ": " + reference.getChain());
+        }
+        String type = reference.getResourceType() != null ? reference.getResourceType() : "Patient";
+        if (!"Patient".equals(type)) {
+            throw new InvalidRequestException(operation + " solo admite subjects de tipo Patient: " + type);
+        }
+        if (!compartment.containsPatient(reference.getIdPart())) {
+            throw new ForbiddenOperationException("No tiene permisos para acceder a las Observations de este Patient");
+        }
+        return "Patient/" + reference.getIdPart();
+    }
+    
+    /**
+     * Patient referenciado por el subject (si está en el compartimento del usuario)
+     */
+    private static List<String> subjectReferences(Observation observation, Compartment compartment) {
+        if (!observation.hasSubject() || !observation.getSubject().hasReference()) {
+            return List.of();
+        }
+        IdType subject = new IdType(observation.getSubject().getReference());
+        if (!"Patient".equals(subject.getResourceType()) || !compartment.containsPatient(subject.getIdPart())) {
+            return List.of();
+        }
+        return List.of(subject.toUnqualifiedVersionless().getValue());
+    }
+    
+    /**
+     * Guardar una Observation creada por la ingesta asíncrona una vez validada
+     */
+    private void commitCreate(Resource resource) {
+        if (!storage.saveObservationIfAbsent((Observation) resource)) {
+            throw new InvalidRequestException("Ya existe una Observation con el ID '" + resource.getIdElement().getIdPart() + "'.");
+        }
+    }
+    
+    /**
+     * Compartimento al que el usuario autenticado tiene acceso según la política
+     */
+    private Compartment getCompartment(RequestDetails requestDetails) {
+        return accessPolicy.compartmentFor(getUserFromRequest(requestDetails));
     }
     
     /**
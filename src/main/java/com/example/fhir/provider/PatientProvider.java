@@ -1,20 +1,45 @@
 package com.example.fhir.provider;
 
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
 import ca.uhn.fhir.rest.annotation.*;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.StringAndListParam;
+import ca.uhn.fhir.rest.param.StringOrListParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import com.example.fhir.ingest.IngestPipeline;
 import com.example.fhir.model.User;
+import com.example.fhir.paging.StorageBundleProvider;
+import com.example.fhir.storage.Compartment;
 import com.example.fhir.storage.InMemoryStorage;
+import com.example.fhir.storage.PatientQuery;
+import com.example.fhir.util.AccessPolicy;
 import com.example.fhir.util.AuthContext;
+import com.example.fhir.util.DateSearch;
+import com.example.fhir.util.IdGenerator;
 import com.example.fhir.util.ValidationUtil;
 import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Proveedor de recursos Patient
@@ -22,7 +47,12 @@ import java.util.List;
  */
 public class PatientProvider implements IResourceProvider {
     
+    public static final String EVERYTHING_OPERATION = "$everything";
+    
     private final InMemoryStorage storage = InMemoryStorage.getInstance();
+    private final IdGenerator idGenerator = IdGenerator.getDefault();
+    private final IngestPipeline ingest = IngestPipeline.getInstance();
+    private final AccessPolicy accessPolicy = AccessPolicy.getInstance();
     
     @Override
     public Class<Patient> getResourceType() {
@@ -36,23 +66,15 @@ public class PatientProvider implements IResourceProvider {
      */
     @Create
     public MethodOutcome createPatient(@ResourceParam Patient patient, RequestDetails requestDetails) {
-        // Verificar permisos - solo admin puede crear
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin()) {
-            throw new ForbiddenOperationException("Solo los administradores pueden crear recursos Patient");
-        }
-        
-        // Validar recurso
-        ValidationUtil.validateResource(patient);
+        // Verificar permisos según la política de acceso
+        accessPolicy.check(getUserFromRequest(requestDetails), RestOperationTypeEnum.CREATE, "Patient");
         
         // Usar ID del recurso si existe, o generar uno nuevo
         String finalId;
         if (patient.getIdElement().isEmpty()) {
-            // Generar ID único
-            do {
-                finalId = "Patient-" + System.currentTimeMillis();
-            } while (storage.getPatient(finalId) != null);
-            patient.setId(finalId);
+            // Generar ID único (sin coordinación entre hilos)
+            finalId = idGenerator.nextId("Patient");
+            patient.setId("Patient/" + finalId);
         } else {
             // Si el recurso ya tiene un ID, extraer solo la parte del ID (sin el tipo de recurso)
             String idPart = patient.getIdElement().getIdPart();
@@ -61,19 +83,23 @@ public class PatientProvider implements IResourceProvider {
                 idPart = idPart.substring(idPart.lastIndexOf("/") + 1);
             }
             finalId = idPart;
-            
-            // Verificar que el ID no exista ya
-            if (storage.getPatient(finalId) != null) {
-                throw new ca.uhn.fhir.rest.server.exceptions.InvalidRequestException(
-                    "Ya existe un Patient con el ID '" + finalId + "'. Por favor, use un ID diferente."
-                );
-            }
-            
             patient.setId("Patient/" + finalId);
         }
         
-        // Guardar
-        storage.savePatient(patient);
+        // Modo ingesta (Prefer: respond-async): validar y guardar en segundo plano
+        if (IngestPipeline.isAsyncRequested(requestDetails)) {
+            return ingest.submit(patient, this::commitCreate, requestDetails);
+        }
+        
+        // Validar recurso
+        ValidationUtil.validateResource(patient);
+        
+        // Guardar de forma atómica: falla si otro hilo ya insertó el mismo ID
+        if (!storage.savePatientIfAbsent(patient)) {
+            throw new InvalidRequestException(
+                "Ya existe un Patient con el ID '" + finalId + "'. Por favor, use un ID diferente."
+            );
+        }
         
         MethodOutcome outcome = new MethodOutcome();
         outcome.setId(patient.getIdElement());
@@ -84,26 +110,73 @@ public class PatientProvider implements IResourceProvider {
     }
     
     /**
-     * Leer un Patient por ID
+     * Leer un Patient por ID (o una versión específica)
      * GET /fhir/Patient/{id}
+     * GET /fhir/Patient/{id}/_history/{version}
      * Usuarios regulares solo pueden leer su propio Patient
      */
-    @Read
+    @Read(version = true)
     public Patient readPatient(@IdParam IdType id, RequestDetails requestDetails) {
-        Patient patient = storage.getPatient(id.getIdPart());
-        if (patient == null) {
-            throw new ResourceNotFoundException("Patient con ID '" + id.getIdPart() + "' no encontrado");
+        Patient patient;
+        if (id.hasVersionIdPart()) {
+            patient = id.isVersionIdPartValidLong()
+                ? storage.getPatientVersion(id.getIdPart(), id.getVersionIdPartAsLong())
+                : null;
+            if (patient == null) {
+                throw new ResourceNotFoundException("Patient con ID '" + id.getIdPart() + "' y versión '" + id.getVersionIdPart() + "' no encontrado");
+            }
+            if (ResourceMetadataKeyEnum.DELETED_AT.get(patient) != null) {
+                throw new ResourceGoneException("La versión '" + id.getVersionIdPart() + "' del Patient '" + id.getIdPart() + "' corresponde a una eliminación");
+            }
+        } else {
+            patient = storage.getPatient(id.getIdPart());
+            if (patient == null) {
+                throw new ResourceNotFoundException("Patient con ID '" + id.getIdPart() + "' no encontrado");
+            }
         }
         
-        // Verificar permisos de acceso
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin() && !id.getIdPart().equals(user.getPatientId())) {
+        // Verificar que el Patient esté en el compartimento del usuario
+        if (!getCompartment(requestDetails).containsPatient(id.getIdPart())) {
             throw new ForbiddenOperationException("No tiene permisos para acceder a este recurso Patient");
         }
         
         return patient;
     }
     
+    /**
+     * Historial de un Patient
+     * GET /fhir/Patient/{id}/_history
+     * Usuarios regulares solo pueden ver el historial de su propio Patient
+     */
+    @History
+    public List<Patient> getPatientHistory(@IdParam IdType id, @Since InstantType since, RequestDetails requestDetails) {
+        if (!getCompartment(requestDetails).containsPatient(id.getIdPart())) {
+            throw new ForbiddenOperationException("No tiene permisos para acceder a este recurso Patient");
+        }
+        
+        List<Patient> history = storage.getPatientHistory(id.getIdPart(), since != null ? since.getValue() : null);
+        if (history.isEmpty()) {
+            throw new ResourceNotFoundException("Patient con ID '" + id.getIdPart() + "' no encontrado");
+        }
+        return history;
+    }
+    
+    /**
+     * Historial de todos los Patients
+     * GET /fhir/Patient/_history
+     * Usuarios regulares solo ven el historial de su propio Patient
+     */
+    @History
+    public List<Patient> getPatientTypeHistory(@Since InstantType since, RequestDetails requestDetails) {
+        Date sinceDate = since != null ? since.getValue() : null;
+        List<Patient> history = storage.getPatientHistory(getCompartment(requestDetails), sinceDate);
+        
+        // Más recientes primero
+        history.sort(Comparator.comparing((Patient p) -> p.getMeta().getLastUpdated(),
+            Comparator.nullsLast(Comparator.reverseOrder())));
+        return history;
+    }
+    
     /**
      * Actualizar un Patient
      * PUT /fhir/Patient/{id}
@@ -111,14 +184,8 @@ public class PatientProvider implements IResourceProvider {
      */
     @Update
     public MethodOutcome updatePatient(@IdParam IdType id, @ResourceParam Patient patient, RequestDetails requestDetails) {
-        // Verificar permisos - solo admin puede actualizar
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin()) {
-            throw new ForbiddenOperationException("Solo los administradores pueden actualizar recursos Patient");
-        }
-        
-        // Validar recurso
-        ValidationUtil.validateResource(patient);
+        // Verificar permisos según la política de acceso
+        accessPolicy.check(getUserFromRequest(requestDetails), RestOperationTypeEnum.UPDATE, "Patient");
         
         // Verificar que existe
         Patient existing = storage.getPatient(id.getIdPart());
@@ -142,6 +209,14 @@ public class PatientProvider implements IResourceProvider {
         // Actualizar ID si es necesario
         patient.setId("Patient/" + id.getIdPart());
         
+        // Modo ingesta (Prefer: respond-async): validar y guardar en segundo plano
+        if (IngestPipeline.isAsyncRequested(requestDetails)) {
+            return ingest.submit(patient, resource -> storage.savePatient((Patient) resource), requestDetails);
+        }
+        
+        // Validar recurso
+        ValidationUtil.validateResource(patient);
+        
         // Guardar
         storage.savePatient(patient);
         
@@ -159,11 +234,8 @@ public class PatientProvider implements IResourceProvider {
      */
     @Delete
     public MethodOutcome deletePatient(@IdParam IdType id, RequestDetails requestDetails) {
-        // Verificar permisos - solo admin puede eliminar
-        User user = getUserFromRequest(requestDetails);
-        if (!user.isAdmin()) {
-            throw new ForbiddenOperationException("Solo los administradores pueden eliminar recursos Patient");
-        }
+        // Verificar permisos según la política de acceso
+        accessPolicy.check(getUserFromRequest(requestDetails), RestOperationTypeEnum.DELETE, "Patient");
         
         Patient patient = storage.getPatient(id.getIdPart());
         if (patient == null) {
@@ -179,62 +251,131 @@ public class PatientProvider implements IResourceProvider {
     }
     
     /**
-     * Buscar todos los Patients
-     * GET /fhir/Patient
+     * Buscar Patients
+     * GET /fhir/Patient[?name=jua][&name:contains=ere][&identifier=system|value][&birthdate=ge1980-01-01][&_revinclude=Observation:subject]
      * Usuarios regulares solo ven su propio Patient
+     * Los parámetros se resuelven con los índices de InMemoryStorage (nombre por prefijo o subcadena
+     * sin distinguir mayúsculas ni acentos, identificador exacto, rango de fecha de nacimiento)
+     * Resultado paginado (_count); los Patients se cargan solo para la página pedida
+     * Con _revinclude=Observation:subject cada página trae también las Observations de sus Patients
+     * (índice de referencias; todas pertenecen al compartimento del Patient)
      */
     @Search
-    public List<Patient> searchPatients(RequestDetails requestDetails) {
-        User user = getUserFromRequest(requestDetails);
-        
-        // Administradores ven todos los Patients
-        if (user.isAdmin()) {
-            return storage.getAllPatients();
+    public IBundleProvider searchPatients(@OptionalParam(name = Patient.SP_NAME) StringAndListParam name,
+                                          @OptionalParam(name = Patient.SP_IDENTIFIER) TokenAndListParam identifier,
+                                          @OptionalParam(name = Patient.SP_BIRTHDATE) DateRangeParam birthdate,
+                                          @IncludeParam(reverse = true, allow = {ObservationProvider.INCLUDE_SUBJECT}) Set<Include> revIncludes,
+                                          RequestDetails requestDetails) {
+        // El compartimento se resuelve en el almacenamiento (un lookup para usuarios regulares)
+        Compartment compartment = getCompartment(requestDetails);
+        PatientQuery query = toQuery(name, identifier, birthdate);
+        List<String> ids = query.isEmpty()
+            ? storage.getPatientIds(compartment)
+            : storage.searchPatientIds(compartment, query);
+        StorageBundleProvider results = new StorageBundleProvider(ids, storage::getPatient, compartment);
+        if (revIncludes != null && revIncludes.stream().anyMatch(include -> ObservationProvider.INCLUDE_SUBJECT.equals(include.getValue()))) {
+            results.withIncludes(match -> observationReferences(match.getIdElement().getIdPart()), storage::getResource);
         }
-        
-        // Usuarios regulares solo ven su propio Patient
-        if (user.getPatientId() != null && !user.getPatientId().isEmpty()) {
-            Patient patient = storage.getPatient(user.getPatientId());
-            if (patient != null) {
-                return List.of(patient);
+        return results;
+    }
+    
+    /**
+     * Convertir los parámetros de búsqueda a criterios del almacenamiento
+     */
+    private static PatientQuery toQuery(StringAndListParam name, TokenAndListParam identifier, DateRangeParam birthdate) {
+        PatientQuery query = new PatientQuery();
+        if (name != null) {
+            for (StringOrListParam anyOf : name.getValuesAsQueryTokens()) {
+                List<PatientQuery.NameTerm> terms = new ArrayList<>();
+                for (StringParam value : anyOf.getValuesAsQueryTokens()) {
+                    if (value.isExact()) {
+                        throw new InvalidRequestException("Modificador no soportado en name: :exact");
+                    }
+                    terms.add(new PatientQuery.NameTerm(value.getValue(), value.isContains()));
+                }
+                query.name(terms);
+            }
+        }
+        if (identifier != null) {
+            for (TokenOrListParam anyOf : identifier.getValuesAsQueryTokens()) {
+                List<String> keys = new ArrayList<>();
+                for (TokenParam token : anyOf.getValuesAsQueryTokens()) {
+                    if (token.getModifier() != null) {
+                        throw new InvalidRequestException("Modificador no soportado en identifier: " + token.getModifier().getValue());
+                    }
+                    keys.add(PatientQuery.identifierKey(token.getSystem(), token.getValue()));
+                }
+                query.identifier(keys);
             }
         }
+        if (birthdate != null) {
+            // birthDate es un date: se compara por días enteros, sin ampliar los límites
+            query.birthDate(DateSearch.lowerDayBound(birthdate), DateSearch.upperDayBound(birthdate));
+        }
+        return query;
+    }
+    
+    private List<String> observationReferences(String patientId) {
+        List<String> ids = storage.getObservationIdsBySubject("Patient/" + patientId);
+        List<String> references = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            references.add("Observation/" + id);
+        }
+        return references;
+    }
+    
+    /**
+     * Todo el compartimento de un Patient en una sola petición
+     * GET /fhir/Patient/{id}/$everything
+     * Se resuelve con el índice de referencias (sin recorrer las Observations de otros pacientes);
+     * resultado paginado (_count), los recursos se cargan solo para la página pedida
+     */
+    @Operation(name = EVERYTHING_OPERATION, idempotent = true)
+    public IBundleProvider everything(@IdParam IdType id, RequestDetails requestDetails) {
+        Compartment compartment = getCompartment(requestDetails);
+        if (!compartment.containsPatient(id.getIdPart())) {
+            throw new ForbiddenOperationException("No tiene permisos para acceder a este recurso Patient");
+        }
         
-        // Si el usuario no tiene Patient asociado, retorna lista vacía
-        return List.of();
+        List<String> references = storage.getPatientCompartment(id.getIdPart());
+        if (references.isEmpty()) {
+            throw new ResourceNotFoundException("Patient con ID '" + id.getIdPart() + "' no encontrado");
+        }
+        return new StorageBundleProvider(references, storage::getResource, compartment);
+    }
+    
+    /**
+     * Guardar un Patient creado por la ingesta asíncrona una vez validado
+     */
+    private void commitCreate(Resource resource) {
+        if (!storage.savePatientIfAbsent((Patient) resource)) {
+            throw new InvalidRequestException("Ya existe un Patient con el ID '" + resource.getIdElement().getIdPart() + "'.");
+        }
+    }
+    
+    /**
+     * Compartimento al que el usuario autenticado tiene acceso según la política
+     */
+    private Compartment getCompartment(RequestDetails requestDetails) {
+        return accessPolicy.compartmentFor(getUserFromRequest(requestDetails));
     }
     
     /**
      * Obtener el usuario autenticado desde RequestDetails o ThreadLocal
      */
     private User getUserFromRequest(RequestDetails requestDetails) {
-        System.out.println("PatientProvider: ===== INICIO getUserFromRequest =====");
-        System.out.println("PatientProvider: Thread: " + Thread.currentThread().getName());
-        
         // Primero intentar obtener de ThreadLocal (más confiable)
         User user = AuthContext.getUser();
-        System.out.println("PatientProvider: Usuario desde ThreadLocal: " + (user != null ? user.getUsername() : "NULL"));
         
         // Si no está en ThreadLocal, intentar desde RequestDetails
         if (user == null && requestDetails != null) {
             user = (User) requestDetails.getAttribute("USER");
-            System.out.println("PatientProvider: Usuario desde RequestDetails: " + (user != null ? user.getUsername() : "NULL"));
         }
         
         if (user == null) {
-            System.err.println("PatientProvider: Usuario no encontrado ni en ThreadLocal ni en RequestDetails");
-            System.err.println("PatientProvider: Thread actual: " + Thread.currentThread().getName());
-            if (requestDetails != null) {
-                String username = (String) requestDetails.getAttribute("USERNAME");
-                String role = (String) requestDetails.getAttribute("ROLE");
-                System.err.println("PatientProvider: USERNAME attribute = " + username);
-                System.err.println("PatientProvider: ROLE attribute = " + role);
-                System.err.println("PatientProvider: RequestPath = " + requestDetails.getRequestPath());
-            }
             throw new ForbiddenOperationException("Usuario no autenticado. El SecurityInterceptor no se ejecutó correctamente.");
         }
         
-        System.out.println("PatientProvider: Usuario obtenido exitosamente: " + user.getUsername() + " (rol: " + user.getRole() + ")");
         return user;
     }
 }
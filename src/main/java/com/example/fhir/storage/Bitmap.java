@@ -0,0 +1,513 @@
+package com.example.fhir.storage;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Conjunto comprimido de ordinales (enteros no negativos), al estilo de Roaring
+ *
+ * Los ordinales se agrupan por sus 16 bits altos; cada grupo guarda los 16 bits bajos en un
+ * arreglo ordenado de char si tiene hasta 4096 valores (2 bytes por valor) o en un bitset de
+ * 65536 bits si tiene más (8 KB fijos). AND y OR operan grupo a grupo, sin expandir ordinales.
+ *
+ * Los métodos son synchronized: los índices se actualizan desde varios hilos. Las consultas
+ * copian la condición más selectiva (copy) y combinan el resto sobre esa copia privada
+ * (and/or solo bloquean el otro operando mientras lo leen), así nunca se toman dos locks
+ * de bitmaps compartidos a la vez.
+ */
+final class Bitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+    private int cardinality;
+
+    synchronized void add(int ordinal) {
+        char high = (char) (ordinal >>> 16);
+        int index = find(high);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, high, new ArrayContainer());
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.add((char) ordinal);
+        cardinality += containers[index].cardinality() - before;
+    }
+
+    synchronized void remove(int ordinal) {
+        int index = find((char) (ordinal >>> 16));
+        if (index < 0) {
+            return;
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        container = container.remove((char) ordinal);
+        cardinality -= before - container.cardinality();
+        if (container.cardinality() == 0) {
+            removeContainer(index);
+        } else {
+            containers[index] = container;
+        }
+    }
+
+    synchronized boolean contains(int ordinal) {
+        int index = find((char) (ordinal >>> 16));
+        return index >= 0 && containers[index].contains((char) ordinal);
+    }
+
+    synchronized int cardinality() {
+        return cardinality;
+    }
+
+    synchronized boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    synchronized void clear() {
+        keys = new char[4];
+        containers = new Container[4];
+        size = 0;
+        cardinality = 0;
+    }
+
+    synchronized Bitmap copy() {
+        Bitmap copy = new Bitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(size, 4));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        copy.cardinality = cardinality;
+        return copy;
+    }
+
+    /**
+     * Intersección en el lugar: este bitmap queda con los ordinales presentes en ambos
+     */
+    synchronized void and(Bitmap other) {
+        synchronized (other) {
+            int kept = 0;
+            int total = 0;
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                while (j < other.size && other.keys[j] < keys[i]) {
+                    j++;
+                }
+                if (j < other.size && other.keys[j] == keys[i]) {
+                    Container result = containers[i].and(other.containers[j]);
+                    if (result.cardinality() > 0) {
+                        keys[kept] = keys[i];
+                        containers[kept] = result;
+                        total += result.cardinality();
+                        kept++;
+                    }
+                }
+            }
+            Arrays.fill(containers, kept, size, null);
+            size = kept;
+            cardinality = total;
+        }
+    }
+
+    /**
+     * Unión en el lugar: este bitmap queda con los ordinales presentes en alguno
+     */
+    synchronized void or(Bitmap other) {
+        synchronized (other) {
+            char[] mergedKeys = new char[size + other.size];
+            Container[] merged = new Container[mergedKeys.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            int total = 0;
+            while (i < size || j < other.size) {
+                if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                    mergedKeys[n] = keys[i];
+                    merged[n] = containers[i++];
+                } else if (i >= size || other.keys[j] < keys[i]) {
+                    mergedKeys[n] = other.keys[j];
+                    merged[n] = other.containers[j++].copy();
+                } else {
+                    mergedKeys[n] = keys[i];
+                    merged[n] = containers[i++].or(other.containers[j++]);
+                }
+                total += merged[n].cardinality();
+                n++;
+            }
+            keys = mergedKeys.length >= 4 ? mergedKeys : Arrays.copyOf(mergedKeys, 4);
+            containers = merged.length >= 4 ? merged : Arrays.copyOf(merged, 4);
+            size = n;
+            cardinality = total;
+        }
+    }
+
+    /**
+     * Conservar solo los ordinales que cumplen el filtro
+     */
+    synchronized void retain(IntPredicate filter) {
+        Bitmap kept = new Bitmap();
+        forEach(ordinal -> {
+            if (filter.test(ordinal)) {
+                kept.add(ordinal);
+            }
+        });
+        keys = kept.keys;
+        containers = kept.containers;
+        size = kept.size;
+        cardinality = kept.cardinality;
+    }
+
+    /**
+     * Ordinal en la posición indicada (orden ascendente)
+     * @throws IndexOutOfBoundsException si rank está fuera de [0, cardinality)
+     */
+    synchronized int select(int rank) {
+        if (rank < 0 || rank >= cardinality) {
+            throw new IndexOutOfBoundsException("rank " + rank + " fuera de [0, " + cardinality + ")");
+        }
+        for (int i = 0; i < size; i++) {
+            int count = containers[i].cardinality();
+            if (rank < count) {
+                return (keys[i] << 16) | containers[i].select(rank);
+            }
+            rank -= count;
+        }
+        throw new IllegalStateException("Cardinalidad inconsistente");
+    }
+
+    /**
+     * Recorrer los ordinales en orden ascendente
+     */
+    synchronized void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    private int find(char high) {
+        int low = 0;
+        int highIndex = size - 1;
+        while (low <= highIndex) {
+            int mid = (low + highIndex) >>> 1;
+            char key = keys[mid];
+            if (key < high) {
+                low = mid + 1;
+            } else if (key > high) {
+                highIndex = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertContainer(int index, char high, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = high;
+        containers[index] = container;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    /**
+     * Grupo de 65536 ordinales; add/remove/and/or devuelven el contenedor resultante
+     * (puede cambiar de representación)
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract char select(int rank);
+
+        abstract void forEach(int base, IntConsumer action);
+
+        abstract Container copy();
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int count;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int count) {
+            this.values = values;
+            this.count = count;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, count, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, count, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (count == ARRAY_MAX) {
+                return toBitset().add(value);
+            }
+            index = -index - 1;
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, count - index);
+            values[index] = value;
+            count++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int index = Arrays.binarySearch(values, 0, count, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, count - index - 1);
+                count--;
+            }
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[Math.min(count, other.cardinality())];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < count && j < array.count) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    if (other.contains(values[i])) {
+                        result[n++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitsetContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] result = new char[count + array.count];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < count || j < array.count) {
+                if (j >= array.count || (i < count && values[i] < array.values[j])) {
+                    result[n++] = values[i++];
+                } else if (i >= count || array.values[j] < values[i]) {
+                    result[n++] = array.values[j++];
+                } else {
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer merged = new ArrayContainer(result, n);
+            return n > ARRAY_MAX ? merged.toBitset() : merged;
+        }
+
+        @Override
+        char select(int rank) {
+            return values[rank];
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < count; i++) {
+                action.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(count, 4)), count);
+        }
+
+        BitsetContainer toBitset() {
+            BitsetContainer bitset = new BitsetContainer();
+            for (int i = 0; i < count; i++) {
+                bitset.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bitset.count = count;
+            return bitset;
+        }
+    }
+
+    private static final class BitsetContainer extends Container {
+        private final long[] words;
+        private int count;
+
+        BitsetContainer() {
+            this(new long[WORDS], 0);
+        }
+
+        BitsetContainer(long[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            if (before != after) {
+                words[value >>> 6] = after;
+                count++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long before = words[value >>> 6];
+            long after = before & ~(1L << value);
+            if (before != after) {
+                words[value >>> 6] = after;
+                count--;
+            }
+            // Histéresis: volver a arreglo solo cuando queda bien por debajo del umbral
+            return count < ARRAY_MAX / 2 ? toArray() : this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitsetContainer) other).words;
+            long[] result = new long[WORDS];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+                n += Long.bitCount(result[i]);
+            }
+            BitsetContainer intersection = new BitsetContainer(result, n);
+            return n <= ARRAY_MAX ? intersection.toArray() : intersection;
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] result = Arrays.copyOf(words, WORDS);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.count; i++) {
+                    result[array.values[i] >>> 6] |= 1L << array.values[i];
+                }
+            } else {
+                long[] otherWords = ((BitsetContainer) other).words;
+                for (int i = 0; i < WORDS; i++) {
+                    result[i] |= otherWords[i];
+                }
+            }
+            int n = 0;
+            for (long word : result) {
+                n += Long.bitCount(word);
+            }
+            return new BitsetContainer(result, n);
+        }
+
+        @Override
+        char select(int rank) {
+            for (int i = 0; i < WORDS; i++) {
+                int bits = Long.bitCount(words[i]);
+                if (rank < bits) {
+                    long word = words[i];
+                    for (int k = 0; k < rank; k++) {
+                        word &= word - 1;
+                    }
+                    return (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                }
+                rank -= bits;
+            }
+            throw new IllegalStateException("Cardinalidad inconsistente");
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(base | (i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new BitsetContainer(Arrays.copyOf(words, WORDS), count);
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[Math.max(count, 4)];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.fhir.storage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Planificador de búsquedas sobre bitmaps de ordinales
+ *
+ * La consulta es un AND de condiciones; cada condición es un OR de bitmaps de los índices o
+ * un rango de un DateIndex. Al ejecutarla las condiciones se ordenan por cardinalidad
+ * estimada (suma de los bitmaps o de los días del rango): la más selectiva se copia y las
+ * demás se aplican sobre esa copia. Si los candidatos ya son muchos menos que la estimación
+ * de la siguiente condición, se prueba la pertenencia ordinal por ordinal en lugar de
+ * materializar la condición completa.
+ */
+class BitmapQuery {
+
+    // Con menos candidatos que estimación / PROBE_RATIO, probar pertenencia es más barato que combinar
+    private static final int PROBE_RATIO = 64;
+
+    private abstract static class Clause {
+        long estimate;
+
+        /**
+         * Bitmap nuevo (privado) con los ordinales de la condición
+         */
+        abstract Bitmap materialize();
+
+        abstract boolean test(int ordinal);
+
+        /**
+         * Aplicar la condición (AND) sobre los candidatos
+         */
+        void applyTo(Bitmap candidates) {
+            if ((long) candidates.cardinality() * PROBE_RATIO < estimate) {
+                candidates.retain(this::test);
+            } else {
+                candidates.and(materialize());
+            }
+        }
+    }
+
+    private static class AnyOf extends Clause {
+        private final List<Bitmap> bitmaps;
+
+        AnyOf(List<Bitmap> bitmaps) {
+            this.bitmaps = bitmaps;
+            for (Bitmap bitmap : bitmaps) {
+                estimate += bitmap.cardinality();
+            }
+        }
+
+        @Override
+        Bitmap materialize() {
+            if (bitmaps.isEmpty()) {
+                return new Bitmap();
+            }
+            Bitmap union = bitmaps.get(0).copy();
+            for (int i = 1; i < bitmaps.size(); i++) {
+                union.or(bitmaps.get(i));
+            }
+            return union;
+        }
+
+        @Override
+        boolean test(int ordinal) {
+            for (Bitmap bitmap : bitmaps) {
+                if (bitmap.contains(ordinal)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void applyTo(Bitmap candidates) {
+            // Un solo bitmap: se interseca directamente, sin copiarlo
+            if (bitmaps.size() == 1 && (long) candidates.cardinality() * PROBE_RATIO >= estimate) {
+                candidates.and(bitmaps.get(0));
+            } else {
+                super.applyTo(candidates);
+            }
+        }
+    }
+
+    private static class Range extends Clause {
+        private final DateIndex index;
+        private final long from;
+        private final long to;
+
+        Range(DateIndex index, long from, long to) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            for (Bitmap bucket : index.getBuckets(from, to)) {
+                estimate += bucket.cardinality();
+            }
+        }
+
+        @Override
+        Bitmap materialize() {
+            return index.getRange(from, to);
+        }
+
+        @Override
+        boolean test(int ordinal) {
+            return index.contains(ordinal, from, to);
+        }
+    }
+
+    private final List<Clause> clauses = new ArrayList<>();
+
+    /**
+     * Condición: el ordinal está en alguno de los bitmaps (sin bitmaps no coincide ninguno)
+     */
+    BitmapQuery anyOf(List<Bitmap> bitmaps) {
+        clauses.add(new AnyOf(bitmaps));
+        return this;
+    }
+
+    /**
+     * Condición: el instante del ordinal en el índice está dentro de [from, to]
+     */
+    BitmapQuery range(DateIndex index, long from, long to) {
+        clauses.add(new Range(index, from, to));
+        return this;
+    }
+
+    boolean isEmpty() {
+        return clauses.isEmpty();
+    }
+
+    /**
+     * Ejecutar la consulta
+     * @param all Ordinales existentes del tipo; se usa (copiado) si no hay condiciones
+     * @return Bitmap nuevo con el resultado, en orden de ordinal
+     */
+    Bitmap execute(Bitmap all) {
+        if (clauses.isEmpty()) {
+            return all.copy();
+        }
+        clauses.sort(Comparator.comparingLong(clause -> clause.estimate));
+        Bitmap candidates = clauses.get(0).materialize();
+        for (int i = 1; i < clauses.size() && !candidates.isEmpty(); i++) {
+            clauses.get(i).applyTo(candidates);
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.fhir.storage;
+
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.util.Objects;
+
+/**
+ * Alcance de una consulta al almacenamiento: todos los recursos o solo el compartimento de un
+ * Patient (el Patient y las Observations cuyo subject es ese Patient)
+ *
+ * Las búsquedas y el historial reciben el compartimento y usan los índices de InMemoryStorage,
+ * así una consulta restringida nunca recorre recursos de otros pacientes para descartarlos.
+ */
+public final class Compartment {
+
+    /** Sin restricción */
+    public static final Compartment ALL = new Compartment(false, null);
+
+    /** Compartimento vacío (ej: cuenta restringida sin Patient asociado) */
+    public static final Compartment NONE = new Compartment(true, null);
+
+    private final boolean restricted;
+    private final String patientId;
+    private final String patientReference;
+
+    private Compartment(boolean restricted, String patientId) {
+        this.restricted = restricted;
+        this.patientId = patientId;
+        this.patientReference = patientId != null ? "Patient/" + patientId : null;
+    }
+
+    /**
+     * Compartimento de un Patient (NONE si el ID es null o vacío)
+     */
+    public static Compartment patient(String patientId) {
+        return patientId == null || patientId.isEmpty() ? NONE : new Compartment(true, patientId);
+    }
+
+    public boolean isUnrestricted() {
+        return !restricted;
+    }
+
+    /**
+     * ID del Patient del compartimento (null si no está restringido o está vacío)
+     */
+    public String getPatientId() {
+        return patientId;
+    }
+
+    /**
+     * Referencia del Patient (ej: "Patient/123"), la misma clave del índice por subject
+     */
+    public String getPatientReference() {
+        return patientReference;
+    }
+
+    public boolean containsPatient(String id) {
+        return !restricted || (patientId != null && patientId.equals(id));
+    }
+
+    public boolean containsObservation(Observation observation) {
+        if (!restricted) {
+            return true;
+        }
+        return patientReference != null && observation != null && observation.hasSubject()
+            && patientReference.equals(observation.getSubject().getReference());
+    }
+
+    /**
+     * Si un Patient u Observation pertenece al compartimento (otros tipos solo sin restricción)
+     */
+    public boolean contains(Resource resource) {
+        if (!restricted) {
+            return true;
+        }
+        if (resource instanceof Observation) {
+            return containsObservation((Observation) resource);
+        }
+        if (resource instanceof Patient) {
+            return containsPatient(resource.getIdElement().getIdPart());
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Compartment)) {
+            return false;
+        }
+        Compartment other = (Compartment) o;
+        return restricted == other.restricted && Objects.equals(patientId, other.patientId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(restricted, patientId);
+    }
+
+    @Override
+    public String toString() {
+        return !restricted ? "*" : patientReference != null ? patientReference : "-";
+    }
+}
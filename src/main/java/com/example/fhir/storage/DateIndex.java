@@ -0,0 +1,90 @@
+package com.example.fhir.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice por instante (epoch millis) con un bitmap de ordinales por día, más el instante de
+ * cada ordinal
+ *
+ * Un rango se resuelve uniendo los bitmaps de sus días; solo los días de los extremos se
+ * filtran por instante exacto. Los buckets vacíos no se eliminan (su cantidad está acotada por
+ * los días distintos), así add no compite con la eliminación del bucket.
+ */
+class DateIndex {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final ConcurrentSkipListMap<Long, Bitmap> byDay = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Long> instantByOrdinal = new ConcurrentHashMap<>();
+
+    void add(int ordinal, long instant) {
+        instantByOrdinal.put(ordinal, instant);
+        byDay.computeIfAbsent(Math.floorDiv(instant, DAY_MILLIS), day -> new Bitmap()).add(ordinal);
+    }
+
+    void remove(int ordinal) {
+        Long instant = instantByOrdinal.remove(ordinal);
+        if (instant != null) {
+            Bitmap bucket = byDay.get(Math.floorDiv(instant, DAY_MILLIS));
+            if (bucket != null) {
+                bucket.remove(ordinal);
+            }
+        }
+    }
+
+    /**
+     * Bitmaps de los días que se solapan con [from, to] (vivos)
+     */
+    List<Bitmap> getBuckets(long from, long to) {
+        if (from > to) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(byDay.subMap(Math.floorDiv(from, DAY_MILLIS), true, Math.floorDiv(to, DAY_MILLIS), true).values());
+    }
+
+    /**
+     * Ordinales con instante dentro de [from, to] (ambos inclusive), en un bitmap nuevo
+     */
+    Bitmap getRange(long from, long to) {
+        Bitmap result = new Bitmap();
+        if (from > to) {
+            return result;
+        }
+        long firstDay = Math.floorDiv(from, DAY_MILLIS);
+        long lastDay = Math.floorDiv(to, DAY_MILLIS);
+        for (Map.Entry<Long, Bitmap> entry : byDay.subMap(firstDay, true, lastDay, true).entrySet()) {
+            long day = entry.getKey();
+            long dayStart = day * DAY_MILLIS;
+            if (dayStart >= from && dayStart + DAY_MILLIS - 1 <= to) {
+                result.or(entry.getValue());
+            } else {
+                // Día de un extremo: solo los ordinales cuyo instante cae dentro del rango
+                Bitmap partial = entry.getValue().copy();
+                partial.retain(ordinal -> contains(ordinal, from, to));
+                result.or(partial);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Instante del ordinal o null si no está indexado
+     */
+    Long instantOf(int ordinal) {
+        return instantByOrdinal.get(ordinal);
+    }
+
+    boolean contains(int ordinal, long from, long to) {
+        Long instant = instantByOrdinal.get(ordinal);
+        return instant != null && instant >= from && instant <= to;
+    }
+
+    void clear() {
+        byDay.clear();
+        instantByOrdinal.clear();
+    }
+}
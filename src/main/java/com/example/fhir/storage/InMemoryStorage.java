@@ -1,12 +1,32 @@
 package com.example.fhir.storage;
 
+import ca.uhn.fhir.context.FhirContext;
+import com.example.fhir.util.FhirContextRegistry;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Almacenamiento en memoria para recursos FHIR
@@ -14,23 +34,144 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class InMemoryStorage {
     
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryStorage.class);
+    
+    // Política de retención del historial (-Dfhir.history.maxVersions, -Dfhir.history.maxAgeMinutes)
+    private static final int HISTORY_MAX_VERSIONS = Integer.getInteger("fhir.history.maxVersions", 10);
+    private static final long HISTORY_MAX_AGE_MINUTES = Long.getLong("fhir.history.maxAgeMinutes", 7L * 24 * 60);
+    
+    // Observations más recientes que se conservan por (subject, código) para $lastn (-Dfhir.lastn.capacity)
+    private static final int LASTN_CAPACITY = Integer.getInteger("fhir.lastn.capacity", 10);
+    
+    private static final FhirContext FHIR_CONTEXT = FhirContextRegistry.getR4Context();
     private static final InMemoryStorage instance = new InMemoryStorage();
     
     private final Map<String, Patient> patients = new ConcurrentHashMap<>();
     private final Map<String, Observation> observations = new ConcurrentHashMap<>();
     
+    // Ordinales densos por tipo y bitmap de los ordinales existentes; los índices guardan ordinales
+    private final Ordinals patientOrdinals = new Ordinals();
+    private final Ordinals observationOrdinals = new Ordinals();
+    private final Bitmap livePatients = new Bitmap();
+    private final Bitmap liveObservations = new Bitmap();
+    
+    // Índice inverso de referencias (ej: "Patient/123" -> Observation -> ordinales cuyo subject es ese Patient)
+    // Las entradas de Patient forman el compartimento usado por $everything
+    private final ReferenceIndex references = new ReferenceIndex();
+    
+    // Índices de búsqueda de Observation: código ("system|code" y "code") e instante efectivo
+    private final TokenIndex observationsByCode = new TokenIndex();
+    private final DateIndex observationsByEffective = new DateIndex();
+    // Más recientes por (subject, "system|code"), actualizado en cada save/delete
+    private final LastNIndex latestObservations = new LastNIndex(LASTN_CAPACITY, observationsByEffective);
+    // Valores numéricos (valueQuantity) por (subject, "system|code") en columnas, para $stats
+    private final SeriesStore observationValues = new SeriesStore();
+    
+    // Índices de búsqueda de Patient: nombre (prefijo y subcadena), identificador y fecha de nacimiento
+    private final NameIndex patientsByName = new NameIndex();
+    private final TokenIndex patientsByIdentifier = new TokenIndex();
+    private final DateIndex patientsByBirthDate = new DateIndex();
+    
+    // WAL opcional; null cuando el almacenamiento es puramente en memoria
+    private volatile StoragePersistence persistence;
+    
+    private final List<StorageListener> listeners = new CopyOnWriteArrayList<>();
+    
+    // Versiones anteriores (vread / _history); la versión actual está en los mapas principales
+    private final VersionHistory<Patient> patientHistory = new VersionHistory<>(FHIR_CONTEXT, Patient.class, "Patient");
+    private final VersionHistory<Observation> observationHistory = new VersionHistory<>(FHIR_CONTEXT, Observation.class, "Observation");
+    
+    /**
+     * Modo de escritura
+     * UPSERT: guardar o reemplazar, INSERT: solo si no existe, RESTORE: recuperación desde el WAL
+     * (conserva la versión del recurso y no genera historial ni entradas de WAL)
+     */
+    private enum WriteMode { UPSERT, INSERT, RESTORE }
+    
     private InMemoryStorage() {
         // Singleton
+        ScheduledExecutorService pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "storage-history-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pruner.scheduleWithFixedDelay(this::pruneHistory, 1, 1, TimeUnit.MINUTES);
     }
     
     public static InMemoryStorage getInstance() {
         return instance;
     }
     
+    /**
+     * Conectar el WAL; a partir de aquí cada save/delete queda registrado
+     */
+    void setPersistence(StoragePersistence persistence) {
+        this.persistence = persistence;
+    }
+    
+    /**
+     * Registrar un listener de cambios (ej: cachés derivadas de los recursos)
+     */
+    public void addListener(StorageListener listener) {
+        listeners.add(listener);
+    }
+    
+    private void notifyChange(String resourceType, String id) {
+        for (StorageListener listener : listeners) {
+            listener.onChange(resourceType, id);
+        }
+    }
+    
     // Operaciones Patient
     public void savePatient(Patient patient) {
+        storePatient(patient, WriteMode.UPSERT);
+    }
+    
+    /**
+     * Insertar un Patient solo si su ID no existe (operación atómica)
+     * @return true si se insertó, false si ya existía un Patient con ese ID
+     */
+    public boolean savePatientIfAbsent(Patient patient) {
+        return storePatient(patient, WriteMode.INSERT);
+    }
+    
+    void restorePatient(Patient patient) {
+        storePatient(patient, WriteMode.RESTORE);
+    }
+    
+    private boolean storePatient(Patient patient, WriteMode mode) {
         String id = patient.getIdElement().getIdPart();
-        patients.put(id, patient);
+        StoragePersistence wal = mode == WriteMode.RESTORE ? null : persistence;
+        // Codificar fuera del bloqueo: dentro de compute solo se encola la línea
+        String json = wal != null ? StoragePersistence.encode(patient) : null;
+        boolean[] stored = new boolean[1];
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        // Versionar y registrar en el WAL con la entrada bloqueada conserva el orden por ID
+        patients.compute(id, (key, previous) -> {
+            if (mode == WriteMode.INSERT && previous != null) {
+                return previous;
+            }
+            stored[0] = true;
+            if (mode == WriteMode.RESTORE) {
+                patientHistory.onRestore(key, patient);
+            } else {
+                patientHistory.onSave(key, previous, patient);
+            }
+            unindexPatient(key, previous);
+            indexPatient(key, patient);
+            livePatients.add(patientOrdinals.ordinal(key));
+            if (wal != null) {
+                committed[0] = wal.logSave(patient, json);
+            }
+            return patient;
+        });
+        if (wal != null) {
+            wal.awaitCommit(committed[0]);
+        }
+        if (stored[0]) {
+            notifyChange("Patient", id);
+        }
+        return stored[0];
     }
     
     public Patient getPatient(String id) {
@@ -38,17 +179,216 @@ public class InMemoryStorage {
     }
     
     public void deletePatient(String id) {
-        patients.remove(id);
+        StoragePersistence wal = persistence;
+        boolean[] removed = new boolean[1];
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        patients.computeIfPresent(id, (key, previous) -> {
+            removed[0] = true;
+            patientHistory.onDelete(key, previous);
+            unindexPatient(key, previous);
+            livePatients.remove(patientOrdinals.ordinal(key));
+            if (wal != null) {
+                committed[0] = wal.logDelete("Patient", key);
+            }
+            return null;
+        });
+        if (wal != null) {
+            wal.awaitCommit(committed[0]);
+        }
+        if (removed[0]) {
+            notifyChange("Patient", id);
+        }
+    }
+    
+    /**
+     * Obtener una versión específica de un Patient (actual o anterior)
+     * @return Patient, tombstone si la versión corresponde a una eliminación, o null
+     */
+    public Patient getPatientVersion(String id, long version) {
+        Patient current = patients.get(id);
+        if (current != null && VersionHistory.versionOf(current) == version) {
+            return current;
+        }
+        return patientHistory.getVersion(id, version);
+    }
+    
+    /**
+     * Historial de un Patient, de la versión más reciente a la más antigua
+     * @param since Solo versiones posteriores a esta fecha (puede ser null)
+     */
+    public List<Patient> getPatientHistory(String id, Date since) {
+        List<Patient> history = new ArrayList<>();
+        Patient current = patients.get(id);
+        if (current != null && isAfter(current, since)) {
+            history.add(current);
+        }
+        history.addAll(patientHistory.getHistory(id, since));
+        return history;
+    }
+    
+    /**
+     * Historial de todos los Patients (incluye eliminados)
+     */
+    public List<Patient> getAllPatientHistory(Date since) {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ids.addAll(patients.keySet());
+        ids.addAll(patientHistory.getIdsWithHistory());
+        List<Patient> history = new ArrayList<>();
+        for (String id : ids) {
+            history.addAll(getPatientHistory(id, since));
+        }
+        return history;
+    }
+    
+    public int getPatientCount() {
+        return patients.size();
     }
     
     public List<Patient> getAllPatients() {
         return new ArrayList<>(patients.values());
     }
     
+    /**
+     * IDs de todos los Patients (snapshot); los recursos se cargan por página
+     * Copia el bitmap de ordinales existentes; los IDs se resuelven al leer cada posición
+     */
+    public List<String> getPatientIds() {
+        return patientOrdinals.ids(livePatients.copy());
+    }
+    
+    /**
+     * IDs de los Patients de un compartimento (snapshot)
+     * Un compartimento restringido se resuelve con un lookup, sin recorrer los demás Patients
+     */
+    public List<String> getPatientIds(Compartment compartment) {
+        if (compartment.isUnrestricted()) {
+            return getPatientIds();
+        }
+        List<String> ids = new ArrayList<>(1);
+        String patientId = compartment.getPatientId();
+        if (patientId != null && patients.containsKey(patientId)) {
+            ids.add(patientId);
+        }
+        return ids;
+    }
+    
+    /**
+     * Historial de los Patients de un compartimento (incluye eliminados si no está restringido)
+     */
+    public List<Patient> getPatientHistory(Compartment compartment, Date since) {
+        if (compartment.isUnrestricted()) {
+            return getAllPatientHistory(since);
+        }
+        String patientId = compartment.getPatientId();
+        return patientId != null ? getPatientHistory(patientId, since) : new ArrayList<>();
+    }
+    
+    /**
+     * IDs de los Patients que cumplen la búsqueda dentro de un compartimento (snapshot)
+     *
+     * Se resuelve solo con índices, como searchObservationIds: nombre, identificador y fecha de
+     * nacimiento aportan condiciones sobre bitmaps que combina el planificador (BitmapQuery).
+     */
+    public List<String> searchPatientIds(Compartment compartment, PatientQuery query) {
+        BitmapQuery plan = new BitmapQuery();
+        if (!compartment.isUnrestricted()) {
+            List<String> own = getPatientIds(compartment);
+            if (own.isEmpty()) {
+                return own;
+            }
+            Bitmap single = new Bitmap();
+            single.add(patientOrdinals.ordinal(own.get(0)));
+            plan.anyOf(List.of(single));
+        }
+        for (List<PatientQuery.NameTerm> anyOf : query.getNames()) {
+            List<Bitmap> clause = new ArrayList<>();
+            for (PatientQuery.NameTerm term : anyOf) {
+                clause.addAll(matchName(term));
+            }
+            plan.anyOf(clause);
+        }
+        for (Set<String> anyOf : query.getIdentifiers()) {
+            List<Bitmap> clause = new ArrayList<>(anyOf.size());
+            for (String key : anyOf) {
+                clause.add(patientsByIdentifier.get(key));
+            }
+            plan.anyOf(clause);
+        }
+        if (query.isDated()) {
+            plan.range(patientsByBirthDate, query.getBirthDateFrom(), query.getBirthDateTo());
+        }
+        return patientOrdinals.ids(plan.execute(livePatients));
+    }
+    
+    /**
+     * Bitmaps de los Patients que coinciden con un valor de nombre
+     * Una palabra: los bitmaps de sus tokens (del índice, sin copiar). Varias palabras: la
+     * intersección de las palabras, planificada igual que una búsqueda
+     */
+    private List<Bitmap> matchName(PatientQuery.NameTerm term) {
+        List<String> words = NameIndex.tokenize(term.getText());
+        if (words.isEmpty()) {
+            return List.of();
+        }
+        BitmapQuery perWord = new BitmapQuery();
+        List<Bitmap> single = null;
+        for (String word : words) {
+            single = term.isContains() ? patientsByName.contains(word) : patientsByName.prefix(word);
+            perWord.anyOf(single);
+        }
+        return words.size() == 1 ? single : List.of(perWord.execute(livePatients));
+    }
+    
     // Operaciones Observation
     public void saveObservation(Observation observation) {
+        storeObservation(observation, WriteMode.UPSERT);
+    }
+    
+    /**
+     * Insertar una Observation solo si su ID no existe (operación atómica)
+     * @return true si se insertó, false si ya existía una Observation con ese ID
+     */
+    public boolean saveObservationIfAbsent(Observation observation) {
+        return storeObservation(observation, WriteMode.INSERT);
+    }
+    
+    void restoreObservation(Observation observation) {
+        storeObservation(observation, WriteMode.RESTORE);
+    }
+    
+    private boolean storeObservation(Observation observation, WriteMode mode) {
         String id = observation.getIdElement().getIdPart();
-        observations.put(id, observation);
+        StoragePersistence wal = mode == WriteMode.RESTORE ? null : persistence;
+        // Codificar fuera del bloqueo: dentro de compute solo se encola la línea
+        String json = wal != null ? StoragePersistence.encode(observation) : null;
+        boolean[] stored = new boolean[1];
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        // compute bloquea la entrada del ID, así el índice queda consistente con el mapa
+        observations.compute(id, (key, previous) -> {
+            if (mode == WriteMode.INSERT && previous != null) {
+                return previous;
+            }
+            stored[0] = true;
+            if (mode == WriteMode.RESTORE) {
+                observationHistory.onRestore(key, observation);
+            } else {
+                observationHistory.onSave(key, previous, observation);
+            }
+            unindexObservation(key, previous);
+            indexObservation(key, observation);
+            liveObservations.add(observationOrdinals.ordinal(key));
+            if (wal != null) {
+                committed[0] = wal.logSave(observation, json);
+            }
+            return observation;
+        });
+        if (wal != null) {
+            wal.awaitCommit(committed[0]);
+        }
+        if (stored[0]) {
+            notifyChange("Observation", id);
+        }
+        return stored[0];
     }
     
     public Observation getObservation(String id) {
@@ -56,17 +396,515 @@ public class InMemoryStorage {
     }
     
     public void deleteObservation(String id) {
-        observations.remove(id);
+        StoragePersistence wal = persistence;
+        boolean[] removed = new boolean[1];
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        observations.computeIfPresent(id, (key, previous) -> {
+            removed[0] = true;
+            observationHistory.onDelete(key, previous);
+            unindexObservation(key, previous);
+            liveObservations.remove(observationOrdinals.ordinal(key));
+            if (wal != null) {
+                committed[0] = wal.logDelete("Observation", key);
+            }
+            return null;
+        });
+        if (wal != null) {
+            wal.awaitCommit(committed[0]);
+        }
+        if (removed[0]) {
+            notifyChange("Observation", id);
+        }
+    }
+    
+    /**
+     * Obtener una versión específica de una Observation (actual o anterior)
+     * @return Observation, tombstone si la versión corresponde a una eliminación, o null
+     */
+    public Observation getObservationVersion(String id, long version) {
+        Observation current = observations.get(id);
+        if (current != null && VersionHistory.versionOf(current) == version) {
+            return current;
+        }
+        return observationHistory.getVersion(id, version);
+    }
+    
+    /**
+     * Historial de una Observation, de la versión más reciente a la más antigua
+     * @param since Solo versiones posteriores a esta fecha (puede ser null)
+     */
+    public List<Observation> getObservationHistory(String id, Date since) {
+        List<Observation> history = new ArrayList<>();
+        Observation current = observations.get(id);
+        if (current != null && isAfter(current, since)) {
+            history.add(current);
+        }
+        history.addAll(observationHistory.getHistory(id, since));
+        return history;
+    }
+    
+    /**
+     * Historial de todas las Observations (incluye eliminadas)
+     */
+    public List<Observation> getAllObservationHistory(Date since) {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ids.addAll(observations.keySet());
+        ids.addAll(observationHistory.getIdsWithHistory());
+        List<Observation> history = new ArrayList<>();
+        for (String id : ids) {
+            history.addAll(getObservationHistory(id, since));
+        }
+        return history;
+    }
+    
+    public int getObservationCount() {
+        return observations.size();
     }
     
     public List<Observation> getAllObservations() {
         return new ArrayList<>(observations.values());
     }
     
+    /**
+     * IDs de todas las Observations (snapshot); los recursos se cargan por página
+     * Copia el bitmap de ordinales existentes; los IDs se resuelven al leer cada posición
+     */
+    public List<String> getObservationIds() {
+        return observationOrdinals.ids(liveObservations.copy());
+    }
+    
+    /**
+     * IDs de las Observations de un compartimento (snapshot)
+     * Un compartimento restringido usa el índice por subject
+     */
+    public List<String> getObservationIds(Compartment compartment) {
+        if (compartment.isUnrestricted()) {
+            return getObservationIds();
+        }
+        String patientReference = compartment.getPatientReference();
+        return patientReference != null ? getObservationIdsBySubject(patientReference) : new ArrayList<>();
+    }
+    
+    /**
+     * IDs de las Observations que cumplen la búsqueda dentro de un compartimento (snapshot)
+     *
+     * Se resuelve solo con índices: cada condición code/subject es el OR de los bitmaps de sus
+     * valores y el rango de fechas el de los días que abarca; el planificador (BitmapQuery)
+     * interseca las condiciones de la más selectiva a la menos. El resultado es un bitmap y los
+     * IDs se resuelven solo para la página pedida.
+     */
+    public List<String> searchObservationIds(Compartment compartment, ObservationQuery query) {
+        BitmapQuery plan = new BitmapQuery();
+        if (!compartment.isUnrestricted()) {
+            if (compartment.getPatientReference() == null) {
+                return new ArrayList<>();
+            }
+            plan.anyOf(List.of(references.get(compartment.getPatientReference(), "Observation")));
+        }
+        for (Set<String> anyOf : query.getCodes()) {
+            List<Bitmap> clause = new ArrayList<>(anyOf.size());
+            for (String key : anyOf) {
+                clause.add(observationsByCode.get(key));
+            }
+            plan.anyOf(clause);
+        }
+        for (Set<String> anyOf : query.getSubjects()) {
+            List<Bitmap> clause = new ArrayList<>(anyOf.size());
+            for (String reference : anyOf) {
+                clause.add(references.get(reference, "Observation"));
+            }
+            plan.anyOf(clause);
+        }
+        if (query.isDated()) {
+            plan.range(observationsByEffective, query.getEffectiveFrom(), query.getEffectiveTo());
+        }
+        return observationOrdinals.ids(plan.execute(liveObservations));
+    }
+    
+    /**
+     * Observations más recientes de un subject, agrupadas por código (Observation/$lastn)
+     *
+     * Se lee de las listas acotadas por (subject, código) que mantienen save y delete, sin
+     * ordenar el historial. Una Observation con varios códigos aparece una sola vez.
+     * @param codeKeys Claves de ObservationQuery.codeKey; vacío = todos los códigos
+     * @param max Observations por código (como máximo getLastNCapacity())
+     * @return IDs agrupados por código y del más reciente al más antiguo
+     */
+    public List<String> getLastObservationIds(String subjectReference, Collection<String> codeKeys, int max) {
+        Map<String, int[]> latest = latestObservations.latest(subjectReference, key -> matchesCode(key, codeKeys), max);
+        Set<String> ids = new LinkedHashSet<>();
+        for (int[] ordinals : latest.values()) {
+            for (int ordinal : ordinals) {
+                ids.add(observationOrdinals.id(ordinal));
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+    
+    public int getLastNCapacity() {
+        return latestObservations.getCapacity();
+    }
+    
+    /**
+     * Estadísticas de los valueQuantity de un subject y código en una ventana (Observation/$stats)
+     * Se calculan sobre el almacén columnar, sin cargar las Observations. Los valores no se
+     * convierten: se devuelve una estadística por unidad
+     * @param codeKey Clave "system|code" (ObservationQuery.codeKey con sistema)
+     * @param unit Código UCUM o texto de la unidad (null = una estadística por cada unidad)
+     * @param from Inicio de la ventana en epoch millis (inclusive; null = sin límite)
+     * @param to Fin de la ventana en epoch millis (inclusive; null = sin límite)
+     * @param percentiles Percentiles 0-100 a calcular
+     * @return Estadísticas de las unidades con valores en la ventana, ordenadas por unidad
+     */
+    public List<ValueStats> getValueStats(String subjectReference, String codeKey, String unit, Long from, Long to,
+                                          double[] percentiles) {
+        return observationValues.stats(subjectReference, codeKey, unit,
+            from != null ? from : Long.MIN_VALUE, to != null ? to : Long.MAX_VALUE, percentiles);
+    }
+    
+    /**
+     * Una clave "system|code" coincide con un filtro igual o con el mismo código sin sistema
+     */
+    private static boolean matchesCode(String key, Collection<String> codeKeys) {
+        if (codeKeys.isEmpty()) {
+            return true;
+        }
+        for (String filter : codeKeys) {
+            if (key.equals(filter) || (filter.indexOf('|') < 0 && key.endsWith("|" + filter))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Historial de las Observations de un compartimento
+     * Restringido: solo las Observations que hoy pertenecen al Patient (índice por subject), y de
+     * ellas solo las versiones cuyo subject era ese Patient (antes de un cambio de subject la
+     * Observation pudo pertenecer a otro paciente)
+     */
+    public List<Observation> getObservationHistory(Compartment compartment, Date since) {
+        if (compartment.isUnrestricted()) {
+            return getAllObservationHistory(since);
+        }
+        List<Observation> history = new ArrayList<>();
+        for (String id : getObservationIds(compartment)) {
+            for (Observation version : getObservationHistory(id, since)) {
+                if (compartment.containsObservation(version)) {
+                    history.add(version);
+                }
+            }
+        }
+        return history;
+    }
+    
+    /**
+     * IDs de las Observations cuyo subject es la referencia indicada (snapshot del índice)
+     */
+    public List<String> getObservationIdsBySubject(String subjectReference) {
+        return observationOrdinals.ids(references.get(subjectReference, "Observation").copy());
+    }
+    
+    /**
+     * Obtener las Observations cuyo subject es la referencia indicada (ej: "Patient/123")
+     * Usa el índice secundario, el costo es proporcional a las Observations del subject
+     */
+    public List<Observation> getObservationsBySubject(String subjectReference) {
+        List<String> ids = getObservationIdsBySubject(subjectReference);
+        List<Observation> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Observation observation = observations.get(id);
+            if (observation != null) {
+                result.add(observation);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Referencias ("Tipo/id") del compartimento de un Patient: el Patient primero y después cada
+     * tipo de recurso que lo referencia. Los tipos se leen del índice en paralelo; el resultado
+     * es un snapshot y los recursos se cargan por página con getResource
+     * @return Lista vacía si el Patient no existe
+     */
+    public List<String> getPatientCompartment(String patientId) {
+        List<String> result = new ArrayList<>();
+        if (!patients.containsKey(patientId)) {
+            return result;
+        }
+        String patientReference = "Patient/" + patientId;
+        result.add(patientReference);
+        
+        List<CompletableFuture<List<String>>> pieces = new ArrayList<>();
+        for (String resourceType : references.getResourceTypes(patientReference)) {
+            Ordinals ordinals = ordinalsOf(resourceType);
+            if (ordinals == null) {
+                continue;
+            }
+            pieces.add(CompletableFuture.supplyAsync(() -> {
+                List<String> ids = ordinals.ids(references.get(patientReference, resourceType).copy());
+                List<String> typed = new ArrayList<>(ids.size());
+                for (String id : ids) {
+                    typed.add(resourceType + "/" + id);
+                }
+                return typed;
+            }));
+        }
+        for (CompletableFuture<List<String>> piece : pieces) {
+            result.addAll(piece.join());
+        }
+        return result;
+    }
+    
+    /**
+     * Obtener un recurso por referencia ("Patient/123", "Observation/456")
+     * @return Recurso o null si no existe o el tipo no se almacena
+     */
+    public Resource getResource(String reference) {
+        int slash = reference.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        String id = reference.substring(slash + 1);
+        switch (reference.substring(0, slash)) {
+            case "Patient":
+                return patients.get(id);
+            case "Observation":
+                return observations.get(id);
+            default:
+                return null;
+        }
+    }
+    
+    private Ordinals ordinalsOf(String resourceType) {
+        switch (resourceType) {
+            case "Patient":
+                return patientOrdinals;
+            case "Observation":
+                return observationOrdinals;
+            default:
+                return null;
+        }
+    }
+    
+    private static String subjectReference(Observation observation) {
+        if (observation != null && observation.hasSubject() && observation.getSubject().hasReference()) {
+            return observation.getSubject().getReference();
+        }
+        return null;
+    }
+    
+    private static Set<String> nameTokens(Patient patient) {
+        List<String> texts = new ArrayList<>();
+        for (HumanName name : patient.getName()) {
+            texts.add(name.getText());
+            texts.add(name.getFamily());
+            for (StringType given : name.getGiven()) {
+                texts.add(given.getValue());
+            }
+        }
+        return NameIndex.tokenize(texts);
+    }
+    
+    /**
+     * Claves del índice de identificadores: "system|value" (sistema vacío si no tiene) y "value"
+     */
+    private static Set<String> identifierKeys(Patient patient) {
+        Set<String> keys = new HashSet<>();
+        for (Identifier identifier : patient.getIdentifier()) {
+            if (identifier.hasValue()) {
+                keys.add(PatientQuery.identifierKey(identifier.hasSystem() ? identifier.getSystem() : "", identifier.getValue()));
+                keys.add(PatientQuery.identifierKey(null, identifier.getValue()));
+            }
+        }
+        return keys;
+    }
+    
+    // Se invocan dentro del compute del Patient: los índices quedan consistentes con el mapa
+    private void indexPatient(String id, Patient patient) {
+        int ordinal = patientOrdinals.ordinal(id);
+        patientsByName.add(ordinal, nameTokens(patient));
+        for (String key : identifierKeys(patient)) {
+            patientsByIdentifier.add(key, ordinal);
+        }
+        if (patient.hasBirthDate()) {
+            patientsByBirthDate.add(ordinal, patient.getBirthDate().getTime());
+        }
+    }
+    
+    private void unindexPatient(String id, Patient patient) {
+        if (patient == null) {
+            return;
+        }
+        int ordinal = patientOrdinals.ordinal(id);
+        patientsByName.remove(ordinal, nameTokens(patient));
+        for (String key : identifierKeys(patient)) {
+            patientsByIdentifier.remove(key, ordinal);
+        }
+        patientsByBirthDate.remove(ordinal);
+    }
+    
+    /**
+     * Claves del índice de códigos: "system|code" (sistema vacío si no tiene) y "code"
+     */
+    private static Set<String> codeKeys(Observation observation) {
+        Set<String> keys = new HashSet<>();
+        if (observation != null && observation.hasCode()) {
+            for (Coding coding : observation.getCode().getCoding()) {
+                if (coding.hasCode()) {
+                    keys.add(ObservationQuery.codeKey(coding.hasSystem() ? coding.getSystem() : "", coding.getCode()));
+                    keys.add(ObservationQuery.codeKey(null, coding.getCode()));
+                }
+            }
+        }
+        return keys;
+    }
+    
+    /**
+     * Claves "system|code" de la Observation (agrupación de $lastn)
+     */
+    private static Set<String> systemCodeKeys(Observation observation) {
+        Set<String> keys = new HashSet<>();
+        if (observation.hasCode()) {
+            for (Coding coding : observation.getCode().getCoding()) {
+                if (coding.hasCode()) {
+                    keys.add(ObservationQuery.codeKey(coding.hasSystem() ? coding.getSystem() : "", coding.getCode()));
+                }
+            }
+        }
+        return keys;
+    }
+    
+    /**
+     * Instante efectivo en epoch millis (effectiveDateTime, effectiveInstant o inicio de effectivePeriod)
+     */
+    private static Long effectiveInstant(Observation observation) {
+        Date effective = null;
+        if (observation.hasEffectiveDateTimeType()) {
+            effective = observation.getEffectiveDateTimeType().getValue();
+        } else if (observation.hasEffectiveInstantType()) {
+            effective = observation.getEffectiveInstantType().getValue();
+        } else if (observation.hasEffectivePeriod()) {
+            effective = observation.getEffectivePeriod().getStart();
+        }
+        return effective != null ? effective.getTime() : null;
+    }
+    
+    // Se invocan dentro del compute de la Observation: los índices quedan consistentes con el mapa
+    private void indexObservation(String id, Observation observation) {
+        int ordinal = observationOrdinals.ordinal(id);
+        String subject = subjectReference(observation);
+        if (subject != null) {
+            references.add(subject, "Observation", ordinal);
+        }
+        for (String key : codeKeys(observation)) {
+            observationsByCode.add(key, ordinal);
+        }
+        Long effective = effectiveInstant(observation);
+        if (effective != null) {
+            observationsByEffective.add(ordinal, effective);
+        }
+        if (subject != null && effective != null) {
+            Quantity quantity = numericValue(observation);
+            for (String key : systemCodeKeys(observation)) {
+                latestObservations.add(subject, key, ordinal, effective);
+                if (quantity != null) {
+                    observationValues.add(subject, key, unitOf(quantity), ordinal, effective,
+                        quantity.getValue().doubleValue());
+                }
+            }
+        }
+    }
+    
+    /**
+     * valueQuantity con valor numérico, o null
+     */
+    private static Quantity numericValue(Observation observation) {
+        if (observation.getValue() instanceof Quantity) {
+            Quantity quantity = (Quantity) observation.getValue();
+            return quantity.hasValue() ? quantity : null;
+        }
+        return null;
+    }
+    
+    /**
+     * Unidad de un valor: código UCUM si lo tiene, si no el texto (null si no tiene ninguno)
+     */
+    private static String unitOf(Quantity quantity) {
+        if (quantity.hasCode()) {
+            return quantity.getCode();
+        }
+        return quantity.hasUnit() ? quantity.getUnit() : null;
+    }
+    
+    private void unindexObservation(String id, Observation observation) {
+        if (observation == null) {
+            return;
+        }
+        int ordinal = observationOrdinals.ordinal(id);
+        String subject = subjectReference(observation);
+        if (subject != null) {
+            references.remove(subject, "Observation", ordinal);
+        }
+        for (String key : codeKeys(observation)) {
+            observationsByCode.remove(key, ordinal);
+        }
+        observationsByEffective.remove(ordinal);
+        // Después de los demás índices: el relleno de $lastn ya no ve esta Observation
+        if (subject != null) {
+            Long effective = effectiveInstant(observation);
+            Quantity quantity = effective != null ? numericValue(observation) : null;
+            for (String key : systemCodeKeys(observation)) {
+                if (quantity != null) {
+                    observationValues.remove(subject, key, unitOf(quantity), ordinal, effective);
+                }
+                latestObservations.remove(subject, key, ordinal, () -> {
+                    Bitmap candidates = references.get(subject, "Observation").copy();
+                    candidates.and(observationsByCode.get(key));
+                    return candidates;
+                });
+            }
+        }
+    }
+    
+    private static boolean isAfter(Resource resource, Date since) {
+        return since == null || !resource.getMeta().hasLastUpdated() || !resource.getMeta().getLastUpdated().before(since);
+    }
+    
+    /**
+     * Aplicar la política de retención del historial (tarea en segundo plano)
+     */
+    private void pruneHistory() {
+        try {
+            long maxAgeMillis = TimeUnit.MINUTES.toMillis(HISTORY_MAX_AGE_MINUTES);
+            int pruned = patientHistory.prune(HISTORY_MAX_VERSIONS, maxAgeMillis)
+                + observationHistory.prune(HISTORY_MAX_VERSIONS, maxAgeMillis);
+            if (pruned > 0) {
+                logger.debug("Versiones antiguas eliminadas del historial: {}", pruned);
+            }
+        } catch (Exception e) {
+            logger.error("Error al depurar el historial", e);
+        }
+    }
+    
     // Limpiar almacenamiento (útil para pruebas)
     public void clear() {
         patients.clear();
         observations.clear();
+        livePatients.clear();
+        liveObservations.clear();
+        patientOrdinals.clear();
+        observationOrdinals.clear();
+        references.clear();
+        observationsByCode.clear();
+        observationsByEffective.clear();
+        latestObservations.clear();
+        observationValues.clear();
+        patientsByName.clear();
+        patientsByIdentifier.clear();
+        patientsByBirthDate.clear();
+        patientHistory.clear();
+        observationHistory.clear();
     }
 }
 
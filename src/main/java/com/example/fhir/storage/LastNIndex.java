@@ -0,0 +1,150 @@
+package com.example.fhir.storage;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Observations más recientes por (subject, código) para Observation/$lastn
+ *
+ * Cada par guarda como máximo "capacity" ordinales ordenados por instante efectivo
+ * descendente; guardar una Observation inserta en su posición (O(capacity)) y descarta la más
+ * antigua si no hay lugar. Así $lastn lee los primeros N sin ordenar el historial. Si se elimina
+ * una entrada de un par lleno, se rellena con la siguiente más reciente a partir de los
+ * bitmaps de subject y código (único caso que recorre las Observations del par).
+ */
+class LastNIndex {
+
+    private final int capacity;
+    private final DateIndex instants;
+    private final Map<String, Map<String, Recent>> bySubject = new ConcurrentHashMap<>();
+
+    /**
+     * @param instants Índice del instante efectivo (para rellenar después de una eliminación)
+     */
+    LastNIndex(int capacity, DateIndex instants) {
+        this.capacity = capacity;
+        this.instants = instants;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    void add(String subject, String codeKey, int ordinal, long instant) {
+        bySubject.compute(subject, (key, byCode) -> {
+            if (byCode == null) {
+                byCode = new ConcurrentHashMap<>();
+            }
+            byCode.computeIfAbsent(codeKey, code -> new Recent(capacity)).offer(ordinal, instant);
+            return byCode;
+        });
+    }
+
+    /**
+     * @param candidates Ordinales que hoy tienen este subject y código (sin el eliminado);
+     *                   solo se usa si el par estaba lleno
+     */
+    void remove(String subject, String codeKey, int ordinal, Supplier<Bitmap> candidates) {
+        bySubject.computeIfPresent(subject, (key, byCode) -> {
+            byCode.computeIfPresent(codeKey, (code, recent) -> {
+                if (recent.remove(ordinal) && recent.size() == capacity - 1) {
+                    candidates.get().forEach(other -> {
+                        Long instant = instants.instantOf(other);
+                        if (other != ordinal && instant != null) {
+                            recent.offer(other, instant);
+                        }
+                    });
+                }
+                return recent.size() == 0 ? null : recent;
+            });
+            return byCode.isEmpty() ? null : byCode;
+        });
+    }
+
+    /**
+     * Hasta max ordinales por código del subject, del más reciente al más antiguo
+     * @param codeFilter Claves "system|code" a incluir
+     * @return Código -> ordinales, ordenado por código
+     */
+    Map<String, int[]> latest(String subject, Predicate<String> codeFilter, int max) {
+        Map<String, int[]> result = new TreeMap<>();
+        Map<String, Recent> byCode = bySubject.get(subject);
+        if (byCode == null) {
+            return result;
+        }
+        for (Map.Entry<String, Recent> entry : byCode.entrySet()) {
+            if (codeFilter.test(entry.getKey())) {
+                int[] ordinals = entry.getValue().first(max);
+                if (ordinals.length > 0) {
+                    result.put(entry.getKey(), ordinals);
+                }
+            }
+        }
+        return result;
+    }
+
+    void clear() {
+        bySubject.clear();
+    }
+
+    /**
+     * Ordinales de un par, ordenados por instante descendente (empate: ordinal descendente)
+     */
+    private static final class Recent {
+        private final long[] instants;
+        private final int[] ordinals;
+        private int size;
+
+        Recent(int capacity) {
+            instants = new long[capacity];
+            ordinals = new int[capacity];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void offer(int ordinal, long instant) {
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] == ordinal) {
+                    return;
+                }
+            }
+            int position = 0;
+            while (position < size && (instants[position] > instant
+                || (instants[position] == instant && ordinals[position] > ordinal))) {
+                position++;
+            }
+            if (position == ordinals.length) {
+                return;
+            }
+            int moved = Math.min(size, ordinals.length - 1) - position;
+            System.arraycopy(instants, position, instants, position + 1, moved);
+            System.arraycopy(ordinals, position, ordinals, position + 1, moved);
+            instants[position] = instant;
+            ordinals[position] = ordinal;
+            size = Math.min(size + 1, ordinals.length);
+        }
+
+        synchronized boolean remove(int ordinal) {
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] == ordinal) {
+                    System.arraycopy(instants, i + 1, instants, i, size - i - 1);
+                    System.arraycopy(ordinals, i + 1, ordinals, i, size - i - 1);
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized int[] first(int max) {
+            int[] result = new int[Math.min(max, size)];
+            System.arraycopy(ordinals, 0, result, 0, result.length);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.fhir.storage;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+/**
+ * Índice de nombres para búsqueda por prefijo y por subcadena
+ *
+ * Los nombres se normalizan (minúsculas, sin acentos) y se separan en tokens. Cada token tiene
+ * su bitmap de ordinales; el vocabulario ordenado resuelve un prefijo con un rango (como un trie) y
+ * un índice de trigramas -> tokens resuelve ":contains" sin recorrer el vocabulario completo.
+ * Los trigramas apuntan a tokens y no a ordinales, así su tamaño depende del vocabulario y no de la
+ * cantidad de Patients.
+ */
+class NameIndex {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final Map<String, Bitmap> ordinalsByToken = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> vocabulary = new ConcurrentSkipListSet<>();
+    private final Map<String, Set<String>> tokensByTrigram = new ConcurrentHashMap<>();
+
+    /**
+     * Normalizar y separar un texto en tokens (minúsculas, sin acentos)
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+            .toLowerCase(Locale.ROOT);
+        for (String token : SEPARATORS.split(normalized)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    static Set<String> tokenize(Collection<String> texts) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String text : texts) {
+            tokens.addAll(tokenize(text));
+        }
+        return tokens;
+    }
+
+    void add(int ordinal, Set<String> tokens) {
+        for (String token : tokens) {
+            // compute serializa los cambios de cada token: vocabulario y trigramas quedan consistentes
+            ordinalsByToken.compute(token, (key, ordinals) -> {
+                if (ordinals == null) {
+                    ordinals = new Bitmap();
+                    vocabulary.add(key);
+                    for (String trigram : trigrams(key)) {
+                        // El add va dentro del compute: un remove concurrente no puede descartar el set antes
+                        tokensByTrigram.compute(trigram, (t, keys) -> {
+                            if (keys == null) {
+                                keys = ConcurrentHashMap.newKeySet();
+                            }
+                            keys.add(key);
+                            return keys;
+                        });
+                    }
+                }
+                ordinals.add(ordinal);
+                return ordinals;
+            });
+        }
+    }
+
+    void remove(int ordinal, Set<String> tokens) {
+        for (String token : tokens) {
+            ordinalsByToken.computeIfPresent(token, (key, ordinals) -> {
+                ordinals.remove(ordinal);
+                if (!ordinals.isEmpty()) {
+                    return ordinals;
+                }
+                vocabulary.remove(key);
+                for (String trigram : trigrams(key)) {
+                    tokensByTrigram.computeIfPresent(trigram, (t, keys) -> {
+                        keys.remove(key);
+                        return keys.isEmpty() ? null : keys;
+                    });
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Bitmaps (vivos) de los tokens que empiezan con el prefijo normalizado
+     */
+    List<Bitmap> prefix(String normalizedPrefix) {
+        List<Bitmap> result = new ArrayList<>();
+        for (String token : vocabulary.subSet(normalizedPrefix, true, normalizedPrefix + Character.MAX_VALUE, false)) {
+            addOrdinals(result, token);
+        }
+        return result;
+    }
+
+    /**
+     * Bitmaps (vivos) de los tokens que contienen el texto normalizado
+     * Con 3 o más caracteres se usan los trigramas; con menos se recorre el vocabulario
+     */
+    List<Bitmap> contains(String normalizedText) {
+        List<Bitmap> result = new ArrayList<>();
+        if (normalizedText.length() < 3) {
+            for (String token : vocabulary) {
+                if (token.contains(normalizedText)) {
+                    addOrdinals(result, token);
+                }
+            }
+            return result;
+        }
+
+        // Candidatos: tokens del trigrama menos frecuente; luego se verifica la subcadena completa
+        Set<String> candidates = null;
+        for (String trigram : trigrams(normalizedText)) {
+            Set<String> tokens = tokensByTrigram.get(trigram);
+            if (tokens == null) {
+                return result;
+            }
+            if (candidates == null || tokens.size() < candidates.size()) {
+                candidates = tokens;
+            }
+        }
+        for (String token : candidates) {
+            if (token.contains(normalizedText)) {
+                addOrdinals(result, token);
+            }
+        }
+        return result;
+    }
+
+    private void addOrdinals(List<Bitmap> result, String token) {
+        Bitmap ordinals = ordinalsByToken.get(token);
+        if (ordinals != null) {
+            result.add(ordinals);
+        }
+    }
+
+    private static Set<String> trigrams(String token) {
+        Set<String> trigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= token.length(); i++) {
+            trigrams.add(token.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    void clear() {
+        ordinalsByToken.clear();
+        vocabulary.clear();
+        tokensByTrigram.clear();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.fhir.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Criterios de búsqueda de Observations resueltos con los índices de InMemoryStorage
+ *
+ * Cada llamada a code/subject agrega una condición AND cuyos valores se combinan con OR
+ * (igual que "code=a,b&code=c" en FHIR). El rango de fechas se aplica sobre el instante
+ * efectivo (effectiveDateTime, effectiveInstant o el inicio de effectivePeriod).
+ */
+public class ObservationQuery {
+
+    private final List<Set<String>> codes = new ArrayList<>();
+    private final List<Set<String>> subjects = new ArrayList<>();
+    private long effectiveFrom = Long.MIN_VALUE;
+    private long effectiveTo = Long.MAX_VALUE;
+    private boolean dated;
+
+    /**
+     * Clave del índice de códigos
+     * @param system Sistema de codificación; null = cualquier sistema, "" = sin sistema
+     */
+    public static String codeKey(String system, String code) {
+        return system == null ? code : system + "|" + code;
+    }
+
+    /**
+     * Condición sobre Observation.code (claves de codeKey, combinadas con OR)
+     */
+    public ObservationQuery code(Collection<String> anyOf) {
+        codes.add(new LinkedHashSet<>(anyOf));
+        return this;
+    }
+
+    /**
+     * Condición sobre Observation.subject (referencias "Patient/123", combinadas con OR)
+     */
+    public ObservationQuery subject(Collection<String> anyOf) {
+        subjects.add(new LinkedHashSet<>(anyOf));
+        return this;
+    }
+
+    /**
+     * Rango del instante efectivo en epoch millis (ambos inclusive; null = sin límite)
+     */
+    public ObservationQuery effective(Long from, Long to) {
+        if (from != null) {
+            effectiveFrom = Math.max(effectiveFrom, from);
+        }
+        if (to != null) {
+            effectiveTo = Math.min(effectiveTo, to);
+        }
+        dated = dated || from != null || to != null;
+        return this;
+    }
+
+    public List<Set<String>> getCodes() {
+        return codes;
+    }
+
+    public List<Set<String>> getSubjects() {
+        return subjects;
+    }
+
+    public boolean isDated() {
+        return dated;
+    }
+
+    public long getEffectiveFrom() {
+        return effectiveFrom;
+    }
+
+    public long getEffectiveTo() {
+        return effectiveTo;
+    }
+
+    public boolean isEmpty() {
+        return codes.isEmpty() && subjects.isEmpty() && !dated;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.fhir.storage;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ordinales densos por tipo de recurso: ID lógico <-> entero (0, 1, 2, ...)
+ *
+ * Los índices guardan ordinales en bitmaps en lugar de conjuntos de strings. Un ordinal no se
+ * reutiliza: si el recurso se elimina y se vuelve a crear conserva el mismo, así un resultado
+ * de búsqueda ya calculado nunca apunta a otro recurso.
+ */
+class Ordinals {
+
+    private final Map<String, Integer> byId = new ConcurrentHashMap<>();
+    // Se reemplaza al crecer; la escritura de cada posición ocurre antes de publicar el ordinal
+    private volatile String[] ids = new String[1024];
+    private int next;
+
+    /**
+     * Ordinal del ID, asignando uno nuevo si todavía no tiene
+     */
+    int ordinal(String id) {
+        Integer ordinal = byId.get(id);
+        return ordinal != null ? ordinal : assign(id);
+    }
+
+    /**
+     * Ordinal del ID o -1 si nunca se le asignó uno
+     */
+    int find(String id) {
+        Integer ordinal = byId.get(id);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    String id(int ordinal) {
+        return ids[ordinal];
+    }
+
+    private synchronized int assign(String id) {
+        Integer existing = byId.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        int ordinal = next++;
+        if (ordinal == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[ordinal] = id;
+        byId.put(id, ordinal);
+        return ordinal;
+    }
+
+    /**
+     * IDs de un bitmap como lista perezosa: cada posición se resuelve al leerla (select + ID),
+     * así solo se convierten los ordinales de la página pedida
+     * @param bitmap Bitmap privado (copia o resultado de una consulta); no se copia otra vez
+     */
+    List<String> ids(Bitmap bitmap) {
+        return new IdList(bitmap);
+    }
+
+    synchronized void clear() {
+        byId.clear();
+        ids = new String[1024];
+        next = 0;
+    }
+
+    private class IdList extends AbstractList<String> implements RandomAccess {
+        private final Bitmap bitmap;
+        private final int size;
+
+        IdList(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.size = bitmap.cardinality();
+        }
+
+        @Override
+        public String get(int index) {
+            return id(bitmap.select(index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
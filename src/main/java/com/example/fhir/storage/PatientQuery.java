@@ -0,0 +1,106 @@
+package com.example.fhir.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Criterios de búsqueda de Patients resueltos con los índices de InMemoryStorage
+ *
+ * Cada llamada a name/identifier agrega una condición AND cuyos valores se combinan con OR.
+ * Un nombre coincide si cada palabra del valor es prefijo (o subcadena, con contains) de alguna
+ * parte del nombre, sin distinguir mayúsculas ni acentos.
+ */
+public class PatientQuery {
+
+    /**
+     * Valor de búsqueda por nombre
+     */
+    public static class NameTerm {
+        private final String text;
+        private final boolean contains;
+
+        public NameTerm(String text, boolean contains) {
+            this.text = text;
+            this.contains = contains;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public boolean isContains() {
+            return contains;
+        }
+    }
+
+    private final List<List<NameTerm>> names = new ArrayList<>();
+    private final List<Set<String>> identifiers = new ArrayList<>();
+    private long birthDateFrom = Long.MIN_VALUE;
+    private long birthDateTo = Long.MAX_VALUE;
+    private boolean dated;
+
+    /**
+     * Clave del índice de identificadores
+     * @param system Sistema del identificador; null = cualquier sistema, "" = sin sistema
+     */
+    public static String identifierKey(String system, String value) {
+        return system == null ? value : system + "|" + value;
+    }
+
+    /**
+     * Condición sobre Patient.name (valores combinados con OR)
+     */
+    public PatientQuery name(Collection<NameTerm> anyOf) {
+        names.add(new ArrayList<>(anyOf));
+        return this;
+    }
+
+    /**
+     * Condición sobre Patient.identifier (claves de identifierKey, combinadas con OR)
+     */
+    public PatientQuery identifier(Collection<String> anyOf) {
+        identifiers.add(new LinkedHashSet<>(anyOf));
+        return this;
+    }
+
+    /**
+     * Rango de Patient.birthDate en epoch millis (ambos inclusive; null = sin límite)
+     */
+    public PatientQuery birthDate(Long from, Long to) {
+        if (from != null) {
+            birthDateFrom = Math.max(birthDateFrom, from);
+        }
+        if (to != null) {
+            birthDateTo = Math.min(birthDateTo, to);
+        }
+        dated = dated || from != null || to != null;
+        return this;
+    }
+
+    public List<List<NameTerm>> getNames() {
+        return names;
+    }
+
+    public List<Set<String>> getIdentifiers() {
+        return identifiers;
+    }
+
+    public boolean isDated() {
+        return dated;
+    }
+
+    public long getBirthDateFrom() {
+        return birthDateFrom;
+    }
+
+    public long getBirthDateTo() {
+        return birthDateTo;
+    }
+
+    public boolean isEmpty() {
+        return names.isEmpty() && identifiers.isEmpty() && !dated;
+    }
+}
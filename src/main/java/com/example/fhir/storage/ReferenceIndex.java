@@ -0,0 +1,61 @@
+package com.example.fhir.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice inverso de referencias: recurso referenciado (ej: "Patient/123") -> tipo del recurso
+ * que lo referencia -> bitmap de ordinales (de ese tipo)
+ *
+ * Las entradas de "Patient/{id}" forman el compartimento del Patient: todos los recursos que
+ * lo referencian, agrupados por tipo. Las operaciones son thread-safe; InMemoryStorage lo
+ * actualiza dentro del compute del recurso, así queda consistente con los mapas principales.
+ */
+class ReferenceIndex {
+
+    private final Map<String, Map<String, Bitmap>> index = new ConcurrentHashMap<>();
+
+    void add(String reference, String resourceType, int ordinal) {
+        index.compute(reference, (key, byType) -> {
+            if (byType == null) {
+                byType = new ConcurrentHashMap<>();
+            }
+            byType.computeIfAbsent(resourceType, type -> new Bitmap()).add(ordinal);
+            return byType;
+        });
+    }
+
+    void remove(String reference, String resourceType, int ordinal) {
+        index.computeIfPresent(reference, (key, byType) -> {
+            byType.computeIfPresent(resourceType, (type, ordinals) -> {
+                ordinals.remove(ordinal);
+                return ordinals.isEmpty() ? null : ordinals;
+            });
+            return byType.isEmpty() ? null : byType;
+        });
+    }
+
+    /**
+     * Ordinales de los recursos del tipo indicado que referencian al recurso
+     * (bitmap del índice, vivo; vacío si no hay referencias)
+     */
+    Bitmap get(String reference, String resourceType) {
+        Map<String, Bitmap> byType = index.get(reference);
+        Bitmap ordinals = byType != null ? byType.get(resourceType) : null;
+        return ordinals != null ? ordinals : new Bitmap();
+    }
+
+    /**
+     * Tipos de recurso que tienen al menos una referencia al recurso (snapshot)
+     */
+    List<String> getResourceTypes(String reference) {
+        Map<String, Bitmap> byType = index.get(reference);
+        return byType == null ? new ArrayList<>() : new ArrayList<>(byType.keySet());
+    }
+
+    void clear() {
+        index.clear();
+    }
+}
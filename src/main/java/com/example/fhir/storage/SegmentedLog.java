@@ -0,0 +1,365 @@
+package com.example.fhir.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Log de solo agregado en segmentos numerados (prefijo + N + sufijo) con un único hilo escritor
+ *
+ * Lo comparten el WAL de recursos (StoragePersistence) y el journal de usuarios (UserJournal):
+ * - append encola una línea; el hilo escritor junta lo pendiente en un lote (opcionalmente
+ *   espera debounceMillis tras el primer registro) y lo escribe con un solo fsync (group commit)
+ * - Con coalesce, dentro de un lote solo se escribe el último registro de cada clave
+ * - rotate cierra el segmento actual y abre el siguiente desde el hilo escritor, en orden con
+ *   los registros encolados antes; quien compacta puede eliminar después los segmentos anteriores
+ * - readLines devuelve solo líneas completas: una última línea sin '\n' es una escritura
+ *   interrumpida y se descarta, porque puede ser un prefijo válido de otra línea
+ *
+ * Si abrir el segmento siguiente falla durante una rotación, el próximo lote vuelve a intentarlo
+ * antes de escribir; si falla otra vez, ese lote falla con la excepción de I/O.
+ */
+class SegmentedLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedLog.class);
+
+    private static final int MAX_BATCH = 4096;
+
+    /**
+     * Número mínimo de segmento (ej: el último snapshot); el segmento nuevo nunca queda por debajo
+     */
+    @FunctionalInterface
+    interface SequenceFloor {
+        long get() throws IOException;
+    }
+
+    private final Path directory;
+    private final String prefix;
+    private final String suffix;
+    private final long debounceMillis;
+    private final boolean coalesce;
+    private final SequenceFloor floor;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    // Registros escritos desde la última rotación (más los recuperados al iniciar)
+    private final AtomicLong records = new AtomicLong();
+    private final LongAdder written = new LongAdder();
+
+    // Accedidos por el hilo escritor (y al iniciar/cerrar, bajo el monitor de la instancia)
+    private FileChannel channel;
+    private Writer writer;
+    private long segment;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param threadName Nombre del hilo escritor
+     * @param debounceMillis Espera tras el primer registro para agrupar el lote (0 = sin espera)
+     * @param coalesce Si dentro de un lote solo se escribe el último registro de cada clave
+     */
+    SegmentedLog(Path directory, String prefix, String suffix, String threadName,
+                 long debounceMillis, boolean coalesce, SequenceFloor floor) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.debounceMillis = debounceMillis;
+        this.coalesce = coalesce;
+        this.floor = floor;
+        this.writerThread = new Thread(this::writerLoop, threadName);
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Abrir un segmento nuevo e iniciar el hilo escritor
+     */
+    synchronized void start() throws IOException {
+        openNextSegment();
+        writerThread.start();
+    }
+
+    // ===== Escritura =====
+
+    /**
+     * Encolar una línea (sin '\n')
+     * @param key Clave del registro (para coalesce y los mensajes de log)
+     * @return Future que se completa cuando el lote que la contiene fue sincronizado, o null si
+     *         el log ya está cerrado
+     */
+    CompletableFuture<Void> append(String key, String line) {
+        if (!running) {
+            logger.warn("Log {}N{} cerrado, registro no persistido: {}", prefix, suffix, key);
+            return null;
+        }
+        Entry entry = new Entry(key, line, null);
+        queue.add(entry);
+        return entry.committed;
+    }
+
+    /**
+     * Cerrar el segmento actual y abrir el siguiente, en orden con lo ya encolado
+     * @return Número del segmento nuevo: los anteriores ya no reciben registros
+     */
+    long rotate() {
+        if (!running) {
+            throw new IllegalStateException("Log " + prefix + "N" + suffix + " cerrado");
+        }
+        Entry rotation = new Entry(null, null, new CompletableFuture<>());
+        queue.add(rotation);
+        return rotation.rotate.join();
+    }
+
+    private void writerLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                // Debounce: dar tiempo a que se acumulen más registros en el mismo lote
+                if (debounceMillis > 0 && running) {
+                    Thread.sleep(debounceMillis);
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("Error al escribir lote en {}N{}", prefix, suffix, e);
+                batch.forEach(entry -> {
+                    entry.committed.completeExceptionally(e);
+                    if (entry.rotate != null) {
+                        entry.rotate.completeExceptionally(e);
+                    }
+                });
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) throws IOException {
+        synchronized (this) {
+            if (writer == null) {
+                // Una rotación anterior falló al abrir el segmento: reintentar antes de escribir
+                openNextSegment();
+            }
+            Map<String, Entry> latest = new LinkedHashMap<>();
+            for (Entry entry : batch) {
+                if (entry.rotate != null) {
+                    // Marcador de rotación: cerrar el segmento actual y abrir el siguiente
+                    writeCoalesced(latest);
+                    writer.flush();
+                    channel.force(false);
+                    closeSegment();
+                    openNextSegment();
+                    records.set(0);
+                    entry.rotate.complete(segment);
+                } else if (coalesce) {
+                    latest.put(entry.key, entry);
+                } else {
+                    writeLine(entry);
+                }
+            }
+            writeCoalesced(latest);
+            writer.flush();
+            channel.force(false);
+        }
+        for (Entry entry : batch) {
+            entry.committed.complete(null);
+        }
+    }
+
+    /**
+     * Escribir solo el último registro de cada clave del lote
+     */
+    private void writeCoalesced(Map<String, Entry> latest) throws IOException {
+        for (Entry entry : latest.values()) {
+            writeLine(entry);
+        }
+        latest.clear();
+    }
+
+    private void writeLine(Entry entry) throws IOException {
+        writer.write(entry.line);
+        writer.write('\n');
+        records.incrementAndGet();
+        written.increment();
+    }
+
+    private void openNextSegment() throws IOException {
+        segment = Math.max(latest(listSequences(directory, prefix, suffix)), floor.get()) + 1;
+        Path path = directory.resolve(prefix + segment + suffix);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private void closeSegment() throws IOException {
+        if (writer != null) {
+            Writer current = writer;
+            writer = null;
+            channel = null;
+            current.close();
+        }
+    }
+
+    // ===== Segmentos =====
+
+    /**
+     * Líneas completas de los segmentos con número >= fromSegment, en orden
+     * Las cuenta como registros pendientes de compactar
+     */
+    List<String> readSegments(long fromSegment) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (long existing : listSegments()) {
+            if (existing >= fromSegment) {
+                readLines(directory.resolve(prefix + existing + suffix), lines);
+            }
+        }
+        records.addAndGet(lines.size());
+        return lines;
+    }
+
+    List<Long> listSegments() throws IOException {
+        return listSequences(directory, prefix, suffix);
+    }
+
+    /**
+     * Eliminar los segmentos con número menor al indicado
+     */
+    void deleteSegmentsBefore(long sequence) throws IOException {
+        deleteOlderThan(directory, prefix, suffix, sequence);
+    }
+
+    // ===== Métricas =====
+
+    int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * Registros en los segmentos desde la última rotación
+     */
+    long getRecords() {
+        return records.get();
+    }
+
+    long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * Detener el escritor vaciando los registros pendientes
+     */
+    void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            synchronized (this) {
+                closeSegment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error("Error al cerrar {}N{}", prefix, suffix, e);
+        }
+    }
+
+    // ===== Utilidades de archivos =====
+
+    /**
+     * Leer las líneas completas (no vacías) de un archivo
+     * Una última línea sin '\n' es una escritura interrumpida y se descarta: su contenido puede
+     * ser un prefijo válido de otra línea (ej: "D\tObservation\t12" de "...\t123")
+     */
+    static void readLines(Path path, List<String> target) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        int start = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                if (i > start) {
+                    target.add(new String(content, start, i - start, StandardCharsets.UTF_8));
+                }
+                start = i + 1;
+            }
+        }
+        if (start < content.length) {
+            logger.warn("Última línea de {} incompleta ignorada ({} bytes, posible escritura truncada)",
+                path.getFileName(), content.length - start);
+        }
+    }
+
+    /**
+     * Números de los archivos prefijo + N + sufijo del directorio, en orden ascendente
+     */
+    static List<Long> listSequences(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(p -> p.getFileName().toString())
+                .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                .forEach(name -> {
+                    try {
+                        sequences.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException ignored) {
+                        // Archivo ajeno al log
+                    }
+                });
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    static long latest(List<Long> sequences) {
+        return sequences.isEmpty() ? 0 : sequences.get(sequences.size() - 1);
+    }
+
+    static void deleteOlderThan(Path directory, String prefix, String suffix, long sequence) throws IOException {
+        for (long existing : listSequences(directory, prefix, suffix)) {
+            if (existing < sequence) {
+                Files.deleteIfExists(directory.resolve(prefix + existing + suffix));
+            }
+        }
+    }
+
+    /**
+     * Registro pendiente de escritura (o marcador de rotación si rotate no es null)
+     */
+    private static final class Entry {
+        final String key;
+        final String line;
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+        final CompletableFuture<Long> rotate;
+
+        Entry(String key, String line, CompletableFuture<Long> rotate) {
+            this.key = key;
+            this.line = line;
+            this.rotate = rotate;
+        }
+    }
+}
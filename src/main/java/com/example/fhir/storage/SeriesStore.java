@@ -0,0 +1,458 @@
+package com.example.fhir.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Almacén columnar de valores numéricos por (subject, código, unidad) para Observation/$stats
+ *
+ * Cada serie guarda instante efectivo, valor y ordinal de la Observation en arreglos primitivos
+ * (long[], double[], int[]: 20 bytes por punto) divididos en chunks de hasta CHUNK_SIZE puntos
+ * ordenados por instante. Una ventana se resuelve con búsqueda binaria sobre los chunks y
+ * dentro de los extremos, y los agregados se calculan en paralelo por chunk. Los percentiles
+ * se obtienen por selección (quickselect, O(n) por percentil) sin ordenar la ventana. Es un
+ * índice derivado: las Observations completas siguen en InMemoryStorage.
+ *
+ * La unidad es parte de la clave: los valores no se convierten, así que 80 kg y 176 lb de un
+ * mismo código quedan en series distintas en lugar de mezclarse en los agregados.
+ */
+class SeriesStore {
+
+    private static final int CHUNK_SIZE = 4096;
+    // Clave de las series sin unidad (ConcurrentHashMap no admite claves null)
+    private static final String NO_UNIT = "";
+
+    // (subject, código) -> unidad -> serie; el compute del par serializa altas y bajas de unidades
+    private final Map<String, Map<String, Series>> series = new ConcurrentHashMap<>();
+
+    private static String key(String subject, String codeKey) {
+        return subject + " " + codeKey;
+    }
+
+    /**
+     * @param unit Código UCUM o texto de la unidad (null = sin unidad)
+     */
+    void add(String subject, String codeKey, String unit, int ordinal, long instant, double value) {
+        series.compute(key(subject, codeKey), (key, byUnit) -> {
+            if (byUnit == null) {
+                byUnit = new ConcurrentHashMap<>();
+            }
+            byUnit.computeIfAbsent(unit != null ? unit : NO_UNIT, Series::new).add(instant, value, ordinal);
+            return byUnit;
+        });
+    }
+
+    void remove(String subject, String codeKey, String unit, int ordinal, long instant) {
+        series.computeIfPresent(key(subject, codeKey), (key, byUnit) -> {
+            byUnit.computeIfPresent(unit != null ? unit : NO_UNIT, (u, values) -> {
+                values.remove(instant, ordinal);
+                return values.isEmpty() ? null : values;
+            });
+            return byUnit.isEmpty() ? null : byUnit;
+        });
+    }
+
+    /**
+     * Estadísticas en [from, to] (ambos inclusive), una por unidad con valores en la ventana,
+     * ordenadas por unidad
+     * @param unit Solo la serie de esa unidad (null = todas)
+     * @param percentiles Percentiles 0-100 a calcular (interpolación lineal entre rangos)
+     */
+    List<ValueStats> stats(String subject, String codeKey, String unit, long from, long to, double[] percentiles) {
+        List<ValueStats> result = new ArrayList<>();
+        Map<String, Series> byUnit = series.get(key(subject, codeKey));
+        if (byUnit == null) {
+            return result;
+        }
+        List<Series> selected = new ArrayList<>();
+        if (unit != null) {
+            Series values = byUnit.get(unit);
+            if (values != null) {
+                selected.add(values);
+            }
+        } else {
+            selected.addAll(byUnit.values());
+            selected.sort(Comparator.comparing(values -> values.unit));
+        }
+        for (Series values : selected) {
+            ValueStats stats = values.stats(from, to, percentiles);
+            if (stats.getCount() > 0) {
+                result.add(stats);
+            }
+        }
+        return result;
+    }
+
+    void clear() {
+        series.clear();
+    }
+
+    /**
+     * Serie de un (subject, código, unidad); escrituras exclusivas y lecturas compartidas (un agregado ve un estado
+     * consistente aunque lo calculen varios hilos)
+     */
+    private static final class Series {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final List<Chunk> chunks = new ArrayList<>();
+        private final String unit;
+
+        Series(String unit) {
+            this.unit = unit;
+        }
+
+        boolean isEmpty() {
+            lock.readLock().lock();
+            try {
+                return chunks.isEmpty();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void add(long instant, double value, int ordinal) {
+            lock.writeLock().lock();
+            try {
+                if (chunks.isEmpty()) {
+                    chunks.add(new Chunk());
+                }
+                // Último chunk que empieza en o antes del instante (el primero si es anterior a todos)
+                int index = Math.max(0, lastStartingAtOrBefore(instant));
+                Chunk chunk = chunks.get(index);
+                int position = chunk.upperBound(instant);
+                if (chunk.size == CHUNK_SIZE) {
+                    if (index == chunks.size() - 1 && position == chunk.size) {
+                        // Caso habitual (datos en orden): chunk nuevo al final
+                        chunk = new Chunk();
+                        chunks.add(chunk);
+                        position = 0;
+                    } else {
+                        Chunk upper = chunk.split();
+                        chunks.add(index + 1, upper);
+                        if (position > chunk.size) {
+                            position -= chunk.size;
+                            chunk = upper;
+                        }
+                    }
+                }
+                chunk.insert(position, instant, value, ordinal);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long instant, int ordinal) {
+            lock.writeLock().lock();
+            try {
+                // Con instantes repetidos el punto puede estar en cualquier chunk que los contenga
+                for (int index = Math.max(0, firstEndingAtOrAfter(instant)); index < chunks.size(); index++) {
+                    Chunk chunk = chunks.get(index);
+                    if (chunk.first() > instant) {
+                        return;
+                    }
+                    for (int i = chunk.lowerBound(instant); i < chunk.size && chunk.instants[i] == instant; i++) {
+                        if (chunk.ordinals[i] == ordinal) {
+                            chunk.delete(i);
+                            if (chunk.size == 0) {
+                                chunks.remove(index);
+                            }
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        ValueStats stats(long from, long to, double[] percentiles) {
+            lock.readLock().lock();
+            try {
+                int first = Math.max(0, firstEndingAtOrAfter(from));
+                List<Chunk> window = new ArrayList<>();
+                List<int[]> bounds = new ArrayList<>();
+                int total = 0;
+                for (int index = first; index < chunks.size() && chunks.get(index).first() <= to; index++) {
+                    Chunk chunk = chunks.get(index);
+                    int lo = chunk.lowerBound(from);
+                    int hi = chunk.upperBound(to);
+                    if (lo < hi) {
+                        window.add(chunk);
+                        bounds.add(new int[] {lo, hi, total});
+                        total += hi - lo;
+                    }
+                }
+
+                // Cada chunk calcula su parte (y copia sus valores si hay percentiles) en paralelo
+                double[] copied = percentiles.length > 0 ? new double[total] : null;
+                Partial result = IntStream.range(0, window.size()).parallel()
+                    .mapToObj(i -> window.get(i).aggregate(bounds.get(i), copied))
+                    .reduce(new Partial(), Partial::merge);
+
+                Map<Double, Double> values = new LinkedHashMap<>();
+                if (copied != null) {
+                    Map<Double, Double> computed = percentiles(copied, percentiles);
+                    for (double percentile : percentiles) {
+                        values.put(percentile, computed.get(percentile));
+                    }
+                }
+                double mean = result.count > 0 ? result.sum / result.count : Double.NaN;
+                return new ValueStats(result.count, result.min, result.max, mean,
+                    NO_UNIT.equals(unit) ? null : unit, values);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int lastStartingAtOrBefore(long instant) {
+            int low = 0;
+            int high = chunks.size() - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (chunks.get(mid).first() <= instant) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        private int firstEndingAtOrAfter(long instant) {
+            int low = 0;
+            int high = chunks.size() - 1;
+            int found = chunks.size();
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (chunks.get(mid).last() >= instant) {
+                    found = mid;
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Percentiles con interpolación lineal entre los rangos vecinos (NaN si no hay valores)
+         * Los rangos se seleccionan de menor a mayor: cada selección deja a su derecha solo
+         * valores mayores o iguales, así la siguiente trabaja sobre el resto del arreglo
+         * @param values Valores de la ventana (se reordenan)
+         */
+        private static Map<Double, Double> percentiles(double[] values, double[] percentiles) {
+            Map<Double, Double> result = new LinkedHashMap<>();
+            double[] ordered = percentiles.clone();
+            Arrays.sort(ordered);
+            int start = 0;
+            for (double percentile : ordered) {
+                if (values.length == 0) {
+                    result.put(percentile, Double.NaN);
+                    continue;
+                }
+                double rank = percentile / 100.0 * (values.length - 1);
+                int lower = (int) Math.floor(rank);
+                double lowerValue = select(values, start, values.length, lower);
+                start = lower;
+                // El vecino superior es el mínimo de lo que quedó a la derecha
+                double upperValue = lowerValue;
+                if (lower + 1 < values.length && rank > lower) {
+                    upperValue = values[lower + 1];
+                    for (int i = lower + 2; i < values.length; i++) {
+                        upperValue = Math.min(upperValue, values[i]);
+                    }
+                }
+                result.put(percentile, lowerValue + (rank - lower) * (upperValue - lowerValue));
+            }
+            return result;
+        }
+
+        /**
+         * Quickselect con partición en tres (tolera muchos valores repetidos)
+         * Deja en values[k] el valor de rango k dentro de [from, to), con los menores o iguales a
+         * su izquierda y los mayores o iguales a su derecha
+         */
+        private static double select(double[] values, int from, int to, int k) {
+            int low = from;
+            int high = to - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                double pivot = median(values[low], values[mid], values[high]);
+                int lessEnd = low;
+                int i = low;
+                int greaterStart = high;
+                while (i <= greaterStart) {
+                    if (values[i] < pivot) {
+                        swap(values, lessEnd++, i++);
+                    } else if (values[i] > pivot) {
+                        swap(values, i, greaterStart--);
+                    } else {
+                        i++;
+                    }
+                }
+                if (k < lessEnd) {
+                    high = lessEnd - 1;
+                } else if (k > greaterStart) {
+                    low = greaterStart + 1;
+                } else {
+                    return pivot;
+                }
+            }
+            return values[k];
+        }
+
+        private static double median(double a, double b, double c) {
+            return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+        }
+
+        private static void swap(double[] values, int i, int j) {
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    /**
+     * Agregados parciales de uno o más chunks
+     */
+    private static final class Partial {
+        int count;
+        double sum;
+        double min = Double.NaN;
+        double max = Double.NaN;
+
+        Partial merge(Partial other) {
+            Partial merged = new Partial();
+            merged.count = count + other.count;
+            merged.sum = sum + other.sum;
+            merged.min = count == 0 ? other.min : other.count == 0 ? min : Math.min(min, other.min);
+            merged.max = count == 0 ? other.max : other.count == 0 ? max : Math.max(max, other.max);
+            return merged;
+        }
+    }
+
+    /**
+     * Bloque de puntos ordenados por instante (empate: orden de inserción)
+     * Los arreglos crecen hasta CHUNK_SIZE, así una serie corta no reserva el chunk completo
+     */
+    private static final class Chunk {
+        long[] instants = new long[16];
+        double[] values = new double[16];
+        int[] ordinals = new int[16];
+        int size;
+
+        long first() {
+            return instants[0];
+        }
+
+        long last() {
+            return instants[size - 1];
+        }
+
+        /**
+         * Primera posición con instante >= el indicado
+         */
+        int lowerBound(long instant) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (instants[mid] < instant) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Primera posición con instante > el indicado
+         */
+        int upperBound(long instant) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (instants[mid] <= instant) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        void insert(int position, long instant, double value, int ordinal) {
+            if (size == instants.length) {
+                int capacity = Math.min(CHUNK_SIZE, size * 2);
+                instants = Arrays.copyOf(instants, capacity);
+                values = Arrays.copyOf(values, capacity);
+                ordinals = Arrays.copyOf(ordinals, capacity);
+            }
+            System.arraycopy(instants, position, instants, position + 1, size - position);
+            System.arraycopy(values, position, values, position + 1, size - position);
+            System.arraycopy(ordinals, position, ordinals, position + 1, size - position);
+            instants[position] = instant;
+            values[position] = value;
+            ordinals[position] = ordinal;
+            size++;
+        }
+
+        void delete(int position) {
+            System.arraycopy(instants, position + 1, instants, position, size - position - 1);
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            System.arraycopy(ordinals, position + 1, ordinals, position, size - position - 1);
+            size--;
+        }
+
+        /**
+         * Mover la mitad superior a un chunk nuevo
+         */
+        Chunk split() {
+            Chunk upper = new Chunk();
+            int half = size / 2;
+            int moved = size - half;
+            upper.instants = Arrays.copyOfRange(instants, half, half + CHUNK_SIZE);
+            upper.values = Arrays.copyOfRange(values, half, half + CHUNK_SIZE);
+            upper.ordinals = Arrays.copyOfRange(ordinals, half, half + CHUNK_SIZE);
+            upper.size = moved;
+            size = half;
+            return upper;
+        }
+
+        /**
+         * Agregados de [bounds[0], bounds[1]); si copied no es null copia los valores en bounds[2]
+         */
+        Partial aggregate(int[] bounds, double[] copied) {
+            Partial partial = new Partial();
+            int lo = bounds[0];
+            int hi = bounds[1];
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            for (int i = lo; i < hi; i++) {
+                double value = values[i];
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            partial.count = hi - lo;
+            partial.sum = sum;
+            partial.min = min;
+            partial.max = max;
+            if (copied != null) {
+                System.arraycopy(values, lo, copied, bounds[2], hi - lo);
+            }
+            return partial;
+        }
+    }
+}
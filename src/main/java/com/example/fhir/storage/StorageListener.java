@@ -0,0 +1,14 @@
+package com.example.fhir.storage;
+
+/**
+ * Listener de cambios en InMemoryStorage
+ * Se invoca después de cada save/delete de un recurso
+ */
+public interface StorageListener {
+    
+    /**
+     * @param resourceType Tipo de recurso (ej: "Patient")
+     * @param id ID del recurso modificado o eliminado
+     */
+    void onChange(String resourceType, String id);
+}
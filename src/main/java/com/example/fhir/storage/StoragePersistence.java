@@ -0,0 +1,345 @@
+package com.example.fhir.storage;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.example.fhir.util.FhirContextRegistry;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Persistencia opcional de InMemoryStorage mediante write-ahead log (WAL) y snapshots
+ *
+ * - Cada save/delete se encola y un único hilo escritor lo agrega al WAL (group commit:
+ *   un lote completo se escribe y se sincroniza con un solo fsync); el WAL es un SegmentedLog
+ * - Periódicamente se rota el WAL a un nuevo segmento y se escribe un snapshot compacto
+ *   del estado actual; los segmentos anteriores al snapshot se eliminan
+ * - Al iniciar se carga el último snapshot y se reproduce la cola del WAL en paralelo,
+ *   particionando por ID para conservar el orden de las operaciones sobre un mismo recurso
+ *
+ * Formato de línea (WAL y snapshot): OPERACION \t TIPO \t CONTENIDO
+ *   S \t Patient \t {json}                              - guardar recurso (snapshot)
+ *   V \t Patient \t versionId \t lastUpdated \t {json}   - guardar recurso (WAL)
+ *   D \t Patient \t {id}                                - eliminar recurso
+ * En el WAL el JSON se codifica antes de bloquear el ID, cuando el recurso todavía no tiene su
+ * versión; versionId y lastUpdated (epoch millis) se agregan al registrarlo y se aplican al
+ * recuperarlo.
+ *
+ * Solo se persiste la versión actual de cada recurso (con su versionId); el historial de
+ * versiones anteriores vive en memoria y comienza de nuevo tras reiniciar.
+ *
+ * Se habilita con -Dfhir.persistence.dir=&lt;directorio&gt;. Propiedades opcionales:
+ * - fhir.persistence.sync=false         modo relajado: una escritura se confirma sin esperar el fsync
+ *                                       de su lote, así que un corte puede perder las últimas
+ *                                       escrituras confirmadas (por defecto true: se espera el fsync)
+ * - fhir.persistence.snapshotMinutes=N  intervalo entre snapshots (por defecto 10)
+ */
+public class StoragePersistence {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoragePersistence.class);
+
+    private static final String WAL_PREFIX = "wal-";
+    private static final String WAL_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".ndjson";
+    private static final char OP_SAVE = 'S';
+    private static final char OP_SAVE_VERSIONED = 'V';
+    private static final char OP_DELETE = 'D';
+
+    private static final FhirContext FHIR_CONTEXT = FhirContextRegistry.getR4Context();
+
+    private final Path directory;
+    private final boolean syncWrites;
+    private final SegmentedLog wal;
+    private final ScheduledExecutorService snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "storage-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running = true;
+
+    private StoragePersistence(Path directory, boolean syncWrites) {
+        this.directory = directory;
+        this.syncWrites = syncWrites;
+        // Un segmento nuevo nunca queda por debajo del último snapshot, o la recuperación lo ignoraría
+        this.wal = new SegmentedLog(directory, WAL_PREFIX, WAL_SUFFIX, "storage-wal-writer", 0, false,
+            () -> latestSequence(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+    }
+
+    /**
+     * Habilitar la persistencia si se configuró fhir.persistence.dir
+     * Recupera el estado en el storage y lo conecta al WAL
+     * @return Instancia activa o null si la persistencia está deshabilitada
+     */
+    public static StoragePersistence enableFromSystemProperties(InMemoryStorage storage) throws IOException {
+        String dir = System.getProperty("fhir.persistence.dir");
+        if (dir == null || dir.isBlank()) {
+            return null;
+        }
+        boolean sync = Boolean.parseBoolean(System.getProperty("fhir.persistence.sync", "true"));
+        long snapshotMinutes = Long.getLong("fhir.persistence.snapshotMinutes", 10L);
+
+        StoragePersistence persistence = new StoragePersistence(Paths.get(dir), sync);
+        persistence.start(storage, snapshotMinutes);
+        return persistence;
+    }
+
+    private void start(InMemoryStorage storage, long snapshotMinutes) throws IOException {
+        Files.createDirectories(directory);
+
+        long startTime = System.nanoTime();
+        long recovered = recover(storage);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.info("Recuperación completada: {} operaciones aplicadas en {} ms ({} Patients, {} Observations)",
+            recovered, elapsedMs, storage.getPatientCount(), storage.getObservationCount());
+
+        wal.start();
+        storage.setPersistence(this);
+
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(storage);
+            } catch (Exception e) {
+                logger.error("Error al generar snapshot", e);
+            }
+        }, snapshotMinutes, snapshotMinutes, TimeUnit.MINUTES);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "storage-wal-shutdown"));
+    }
+
+    // ===== Registro de operaciones (llamado desde InMemoryStorage) =====
+
+    /**
+     * Codificar el recurso para logSave; se llama antes de bloquear la entrada del ID
+     */
+    static String encode(Resource resource) {
+        return FHIR_CONTEXT.newJsonParser().setPrettyPrint(false).encodeResourceToString(resource);
+    }
+
+    /**
+     * Encolar un save; se llama con la entrada del ID bloqueada para conservar el orden,
+     * después de que el historial asignó versionId y lastUpdated
+     * @param json Recurso codificado con encode antes del bloqueo
+     * @return Future que se completa cuando el lote que lo contiene fue sincronizado
+     */
+    CompletableFuture<Void> logSave(Resource resource, String json) {
+        return wal.append(resource.fhirType() + "/" + resource.getIdElement().getIdPart(),
+            OP_SAVE_VERSIONED + "\t" + resource.fhirType() + "\t" + resource.getMeta().getVersionId()
+                + "\t" + resource.getMeta().getLastUpdated().getTime() + "\t" + json);
+    }
+
+    CompletableFuture<Void> logDelete(String resourceType, String id) {
+        return wal.append(resourceType + "/" + id, OP_DELETE + "\t" + resourceType + "\t" + id);
+    }
+
+    /**
+     * En modo sincrónico, esperar el fsync del lote (fuera del bloqueo del ID)
+     */
+    void awaitCommit(CompletableFuture<?> committed) {
+        if (syncWrites && committed != null) {
+            committed.join();
+        }
+    }
+
+    // ===== Snapshots =====
+
+    /**
+     * Generar un snapshot compacto del estado actual
+     * El WAL se rota antes de copiar el estado; como las operaciones son idempotentes
+     * (put/remove por ID), reproducir el nuevo segmento sobre el snapshot es correcto
+     * aunque el snapshot ya incluya parte de esas operaciones
+     */
+    public void snapshot(InMemoryStorage storage) throws IOException {
+        long firstLiveSegment = wal.rotate();
+
+        long startTime = System.nanoTime();
+        Path target = directory.resolve(SNAPSHOT_PREFIX + firstLiveSegment + SNAPSHOT_SUFFIX);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), 1 << 16)) {
+            var parser = FHIR_CONTEXT.newJsonParser().setPrettyPrint(false);
+            for (Patient patient : storage.getAllPatients()) {
+                writeLine(writer, OP_SAVE, "Patient", parser.encodeResourceToString(patient));
+            }
+            for (Observation observation : storage.getAllObservations()) {
+                writeLine(writer, OP_SAVE, "Observation", parser.encodeResourceToString(observation));
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // El snapshot N cubre todo lo anterior al segmento N
+        wal.deleteSegmentsBefore(firstLiveSegment);
+        SegmentedLog.deleteOlderThan(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX, firstLiveSegment);
+
+        logger.info("Snapshot {} generado en {} ms", target.getFileName(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    // ===== Recuperación =====
+
+    private long recover(InMemoryStorage storage) throws IOException {
+        long snapshotSequence = latestSequence(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        long applied = 0;
+
+        if (snapshotSequence > 0) {
+            // En un snapshot cada ID aparece una sola vez: se puede cargar en paralelo sin orden
+            Path snapshot = directory.resolve(SNAPSHOT_PREFIX + snapshotSequence + SNAPSHOT_SUFFIX);
+            List<String> lines = new ArrayList<>();
+            SegmentedLog.readLines(snapshot, lines);
+            LongAdder loaded = new LongAdder();
+            lines.parallelStream().forEach(line -> {
+                apply(storage, line);
+                loaded.increment();
+            });
+            applied += loaded.sum();
+        }
+
+        applied += replayPartitioned(storage, wal.readSegments(snapshotSequence));
+        return applied;
+    }
+
+    /**
+     * Reproducir la cola del WAL en paralelo
+     * Cada partición procesa en orden las líneas de los IDs que le corresponden
+     */
+    private static long replayPartitioned(InMemoryStorage storage, List<String> lines) {
+        if (lines.isEmpty()) {
+            return 0;
+        }
+        int partitions = Runtime.getRuntime().availableProcessors();
+        int[] owner = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            owner[i] = Math.floorMod(partitionKey(lines.get(i)).hashCode(), partitions);
+        }
+        IntStream.range(0, partitions).parallel().forEach(partition -> {
+            for (int i = 0; i < lines.size(); i++) {
+                if (owner[i] == partition) {
+                    apply(storage, lines.get(i));
+                }
+            }
+        });
+        return lines.size();
+    }
+
+    /**
+     * Clave de partición: tipo + ID del recurso
+     */
+    private static String partitionKey(String line) {
+        String[] parts = line.split("\t", 3);
+        if (parts.length < 3) {
+            return line;
+        }
+        if (parts[0].charAt(0) == OP_DELETE) {
+            return parts[1] + "/" + parts[2];
+        }
+        // Extraer el "id" del JSON sin parsear el recurso completo
+        String json = parts[0].charAt(0) == OP_SAVE_VERSIONED ? parts[2].substring(parts[2].lastIndexOf('\t') + 1) : parts[2];
+        int idx = json.indexOf("\"id\":\"");
+        if (idx < 0) {
+            return json;
+        }
+        int start = idx + 6;
+        int end = json.indexOf('"', start);
+        return parts[1] + "/" + json.substring(start, end < 0 ? json.length() : end);
+    }
+
+    private static void apply(InMemoryStorage storage, String line) {
+        String[] parts = line.split("\t", 3);
+        if (parts.length < 3) {
+            logger.warn("Línea de WAL incompleta ignorada (posible escritura truncada)");
+            return;
+        }
+        char op = parts[0].charAt(0);
+        String type = parts[1];
+        try {
+            if (op == OP_DELETE) {
+                if ("Patient".equals(type)) {
+                    storage.deletePatient(parts[2]);
+                } else if ("Observation".equals(type)) {
+                    storage.deleteObservation(parts[2]);
+                }
+                return;
+            }
+            if ("Patient".equals(type)) {
+                storage.restorePatient(parseSave(Patient.class, op, parts[2]));
+            } else if ("Observation".equals(type)) {
+                storage.restoreObservation(parseSave(Observation.class, op, parts[2]));
+            }
+        } catch (Exception e) {
+            logger.warn("Línea de WAL inválida ignorada: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Recurso de una línea de save; en las líneas V aplica la versión registrada en el WAL
+     */
+    private static <T extends Resource> T parseSave(Class<T> type, char op, String content) {
+        if (op != OP_SAVE_VERSIONED) {
+            return FHIR_CONTEXT.newJsonParser().parseResource(type, content);
+        }
+        String[] fields = content.split("\t", 3);
+        if (fields.length < 3) {
+            throw new IllegalArgumentException("save sin versión o sin contenido");
+        }
+        T resource = FHIR_CONTEXT.newJsonParser().parseResource(type, fields[2]);
+        resource.setId(new IdType(resource.fhirType(), resource.getIdElement().getIdPart(), fields[0]));
+        resource.getMeta().setVersionId(fields[0]);
+        resource.getMeta().setLastUpdated(new Date(Long.parseLong(fields[1])));
+        return resource;
+    }
+
+    // ===== Utilidades de archivos =====
+
+    private static void writeLine(Writer writer, char op, String resourceType, String payload) throws IOException {
+        writer.write(op);
+        writer.write('\t');
+        writer.write(resourceType);
+        writer.write('\t');
+        writer.write(payload);
+        writer.write('\n');
+    }
+
+    private long latestSequence(String prefix, String suffix) throws IOException {
+        return SegmentedLog.latest(SegmentedLog.listSequences(directory, prefix, suffix));
+    }
+
+    /**
+     * Detener el escritor vaciando las operaciones pendientes
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        snapshotScheduler.shutdown();
+        wal.close();
+    }
+}
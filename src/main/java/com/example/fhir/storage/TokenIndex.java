@@ -0,0 +1,50 @@
+package com.example.fhir.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice invertido: clave (ej: "http://loinc.org|8867-4") -> bitmap de ordinales de los
+ * recursos que la tienen
+ *
+ * Los bitmaps devueltos son los del índice (vivos): el planificador los usa para estimar la
+ * cardinalidad y los combina sin modificarlos.
+ */
+class TokenIndex {
+
+    private final Map<String, Bitmap> index = new ConcurrentHashMap<>();
+
+    void add(String key, int ordinal) {
+        // compute serializa add/remove por clave: un bitmap vaciado nunca pierde un add concurrente
+        index.compute(key, (k, ordinals) -> {
+            if (ordinals == null) {
+                ordinals = new Bitmap();
+            }
+            ordinals.add(ordinal);
+            return ordinals;
+        });
+    }
+
+    void remove(String key, int ordinal) {
+        index.computeIfPresent(key, (k, ordinals) -> {
+            ordinals.remove(ordinal);
+            return ordinals.isEmpty() ? null : ordinals;
+        });
+    }
+
+    /**
+     * Ordinales con la clave (bitmap vacío si la clave no existe)
+     */
+    Bitmap get(String key) {
+        Bitmap ordinals = index.get(key);
+        return ordinals != null ? ordinals : new Bitmap();
+    }
+
+    int getKeyCount() {
+        return index.size();
+    }
+
+    void clear() {
+        index.clear();
+    }
+}
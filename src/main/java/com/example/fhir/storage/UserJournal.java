@@ -0,0 +1,271 @@
+package com.example.fhir.storage;
+
+import com.example.fhir.model.User;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Journal de cambios de usuarios con compactación en segundo plano
+ *
+ * En lugar de reescribir users.json completo en cada cambio:
+ * - Cada alta, cambio o baja se encola y un único hilo escritor la agrega al journal
+ *   (users-journal-N.log). Tras el primer cambio el escritor espera debounceMillis para juntar
+ *   los que lleguen mientras tanto; el lote se escribe con un solo fsync y los cambios repetidos
+ *   de un mismo usuario dentro del lote se reducen al último (el journal es un SegmentedLog)
+ * - Un compactador en segundo plano, cuando el journal supera compactThreshold registros, rota
+ *   el journal a un nuevo segmento, escribe users.json completo en un archivo temporal y lo
+ *   reemplaza con un move atómico; después elimina los segmentos anteriores
+ *
+ * Recuperación tras un corte: se carga users.json (siempre completo gracias al move atómico) y
+ * se reproducen en orden todos los segmentos que queden. Las operaciones son idempotentes
+ * (put/delete por username), así que un segmento que sobrevivió a una compactación interrumpida
+ * se puede reproducir sobre el users.json nuevo. Una última línea sin '\n' se descarta: una
+ * baja truncada ("D\tana" de "D\tanabel") eliminaría a otro usuario.
+ *
+ * Formato de línea:
+ *   P \t {json}      - alta o cambio de usuario
+ *   D \t username    - baja de usuario
+ */
+public class UserJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserJournal.class);
+
+    private static final String JOURNAL_PREFIX = "users-journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final char OP_PUT = 'P';
+    private static final char OP_DELETE = 'D';
+
+    private final Path directory;
+    private final Path usersFile;
+    private final ObjectMapper objectMapper;
+    private final boolean syncWrites;
+    private final long compactThreshold;
+    private final SegmentedLog journal;
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "users-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder compactions = new LongAdder();
+    // Serializa las compactaciones
+    private final Object compactionLock = new Object();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param directory Directorio de users.json y del journal
+     * @param syncWrites Si los cambios esperan el fsync de su lote antes de confirmarse
+     * @param debounceMillis Espera tras el primer cambio para agrupar el lote
+     * @param compactThreshold Registros en el journal que disparan una compactación
+     */
+    public UserJournal(Path directory, ObjectMapper objectMapper, boolean syncWrites,
+                       long debounceMillis, long compactThreshold) {
+        this.directory = directory;
+        this.usersFile = directory.resolve("users.json");
+        this.objectMapper = objectMapper;
+        this.syncWrites = syncWrites;
+        this.compactThreshold = compactThreshold;
+        this.journal = new SegmentedLog(directory, JOURNAL_PREFIX, JOURNAL_SUFFIX, "users-journal-writer",
+            debounceMillis, true, () -> 0);
+    }
+
+    // ===== Recuperación y arranque =====
+
+    /**
+     * Cargar users.json y reproducir el journal sobre él
+     * @param target Mapa de usuarios a completar (username -> usuario)
+     * @return Registros del journal reproducidos
+     */
+    public long recover(Map<String, User> target) throws IOException {
+        Files.createDirectories(directory);
+        if (Files.exists(usersFile)) {
+            List<User> userList = objectMapper.readValue(usersFile.toFile(), new TypeReference<List<User>>() {});
+            userList.forEach(user -> target.put(user.getUsername(), user));
+        }
+
+        long replayed = 0;
+        for (String line : journal.readSegments(0)) {
+            if (apply(target, line)) {
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Abrir un segmento nuevo e iniciar el escritor y el compactador
+     * @param snapshot Proveedor del estado actual de los usuarios (para compactar)
+     */
+    public void start(Supplier<Collection<User>> snapshot) throws IOException {
+        journal.start();
+
+        compactor.scheduleWithFixedDelay(() -> {
+            if (journal.getRecords() >= compactThreshold) {
+                compactQuietly(snapshot);
+            }
+        }, 5, 5, TimeUnit.SECONDS);
+        // Si la recuperación reprodujo cambios, dejar un users.json al día cuanto antes
+        if (journal.getRecords() > 0) {
+            requestCompaction(snapshot);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "users-journal-shutdown"));
+    }
+
+    // ===== Registro de cambios (llamado desde UserStorage con la entrada del usuario bloqueada) =====
+
+    /**
+     * Encolar el estado actual de un usuario
+     * @return Future que se completa cuando el lote que lo contiene fue sincronizado
+     */
+    public CompletableFuture<Void> logPut(User user) {
+        try {
+            return journal.append(user.getUsername(), OP_PUT + "\t" + objectMapper.writeValueAsString(user));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo serializar el usuario " + user.getUsername(), e);
+        }
+    }
+
+    public CompletableFuture<Void> logDelete(String username) {
+        return journal.append(username, OP_DELETE + "\t" + username);
+    }
+
+    /**
+     * En modo sincrónico, esperar el fsync del lote (fuera del bloqueo del usuario)
+     */
+    public void awaitCommit(CompletableFuture<?> committed) {
+        if (syncWrites && committed != null) {
+            committed.join();
+        }
+    }
+
+    // ===== Compactación =====
+
+    /**
+     * Programar una compactación en el hilo del compactador
+     */
+    public void requestCompaction(Supplier<Collection<User>> snapshot) {
+        if (running) {
+            compactor.execute(() -> compactQuietly(snapshot));
+        }
+    }
+
+    private void compactQuietly(Supplier<Collection<User>> snapshot) {
+        try {
+            compact(snapshot);
+        } catch (Exception e) {
+            logger.error("Error al compactar el journal de usuarios", e);
+        }
+    }
+
+    /**
+     * Reescribir users.json con el estado actual y descartar los segmentos que cubre
+     * El journal se rota antes de copiar el estado: todo cambio del segmento anterior ya está
+     * aplicado en memoria, y reproducir el segmento nuevo sobre el archivo es idempotente
+     */
+    public void compact(Supplier<Collection<User>> snapshot) throws IOException {
+        synchronized (compactionLock) {
+            doCompact(snapshot);
+        }
+    }
+
+    private void doCompact(Supplier<Collection<User>> snapshot) throws IOException {
+        long firstLiveSegment = journal.rotate();
+
+        long startTime = System.nanoTime();
+        List<User> users = new ArrayList<>(snapshot.get());
+        byte[] content = objectMapper.writeValueAsBytes(users);
+        Path temp = directory.resolve(usersFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(temp, usersFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        journal.deleteSegmentsBefore(firstLiveSegment);
+        compactions.increment();
+        logger.info("users.json compactado: {} usuarios en {} ms", users.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    // ===== Utilidades =====
+
+    private boolean apply(Map<String, User> target, String line) {
+        int tab = line.indexOf('\t');
+        if (tab != 1) {
+            logger.warn("Línea del journal de usuarios inválida ignorada");
+            return false;
+        }
+        String payload = line.substring(2);
+        try {
+            if (line.charAt(0) == OP_DELETE) {
+                target.remove(payload);
+            } else {
+                User user = objectMapper.readValue(payload, User.class);
+                target.put(user.getUsername(), user);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Línea del journal de usuarios inválida ignorada: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // ===== Métricas =====
+
+    public int getPending() {
+        return journal.getPending();
+    }
+
+    /**
+     * Registros en los segmentos desde la última compactación
+     */
+    public long getJournalRecords() {
+        return journal.getRecords();
+    }
+
+    public long getWritten() {
+        return journal.getWritten();
+    }
+
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    /**
+     * Detener el escritor vaciando los cambios pendientes
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        compactor.shutdown();
+        journal.close();
+    }
+}
@@ -1,29 +1,53 @@
 package com.example.fhir.storage;
 
 import com.example.fhir.model.User;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.example.fhir.util.PasswordHasher;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Almacenamiento de usuarios en archivo JSON
  * Thread-safe usando ConcurrentHashMap
+ *
+ * Las contraseñas se guardan como hash PBKDF2 con salt (PasswordHasher). Los usuarios de un
+ * users.json anterior con contraseñas en texto plano se migran al cargar el archivo.
+ *
+ * Los cambios no reescriben users.json: se registran en un journal (UserJournal) que agrupa
+ * los cambios en lotes y un compactador en segundo plano reemplaza users.json de forma atómica.
+ * Cada cambio se registra con la entrada del usuario bloqueada (compute del mapa), así el orden
+ * en el journal coincide con el orden en memoria.
+ *
+ * Configuración (System properties):
+ * - fhir.users.dir: Directorio de users.json y del journal (por defecto, el directorio de trabajo)
+ * - fhir.users.sync: Los cambios esperan el fsync de su lote antes de confirmarse (por defecto true)
+ * - fhir.users.debounceMillis: Espera para agrupar cambios en un lote (por defecto 10)
+ * - fhir.users.compactThreshold: Registros del journal que disparan la compactación (por defecto 10000)
  */
 public class UserStorage {
     
     private static final UserStorage instance = new UserStorage();
-    private static final String USERS_FILE = "users.json";
     private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final UserJournal journal = new UserJournal(
+        Paths.get(System.getProperty("fhir.users.dir", ".")),
+        objectMapper,
+        Boolean.parseBoolean(System.getProperty("fhir.users.sync", "true")),
+        Long.getLong("fhir.users.debounceMillis", 10),
+        Long.getLong("fhir.users.compactThreshold", 10000));
     
     private UserStorage() {
         loadUsers();
         initializeDefaultUsers();
+        migratePlaintextPasswords();
     }
     
     public static UserStorage getInstance() {
@@ -31,33 +55,23 @@ public class UserStorage {
     }
     
     /**
-     * Cargar usuarios desde archivo JSON
+     * Cargar usuarios desde users.json y el journal, e iniciar el journal
      */
     private void loadUsers() {
-        File file = new File(USERS_FILE);
-        if (file.exists()) {
-            try {
-                // Configurar ObjectMapper para ignorar campos desconocidos
-                objectMapper.configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-                List<User> userList = objectMapper.readValue(file, new TypeReference<List<User>>() {});
-                userList.forEach(user -> users.put(user.getUsername(), user));
-            } catch (IOException e) {
-                System.err.println("Error al cargar usuarios: " + e.getMessage());
-                e.printStackTrace();
-            }
+        try {
+            journal.recover(users);
+            journal.start(users::values);
+        } catch (IOException e) {
+            System.err.println("Error al cargar usuarios: " + e.getMessage());
+            throw new UncheckedIOException(e);
         }
     }
     
     /**
-     * Guardar usuarios en archivo JSON
+     * Journal de cambios de usuarios (para métricas)
      */
-    private void saveUsers() {
-        try {
-            List<User> userList = new ArrayList<>(users.values());
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(USERS_FILE), userList);
-        } catch (IOException e) {
-            System.err.println("Error al guardar usuarios: " + e.getMessage());
-        }
+    public UserJournal getJournal() {
+        return journal;
     }
     
     /**
@@ -66,14 +80,32 @@ public class UserStorage {
     private void initializeDefaultUsers() {
         if (users.isEmpty()) {
             // Usuario administrador por defecto
-            User admin = new User("admin", "admin123", "admin", null, "admin@example.com");
+            User admin = new User("admin", PasswordHasher.hash("admin123"), "admin", null, "admin@example.com");
             users.put("admin", admin);
+            journal.logPut(admin);
             
             // Usuario regular por defecto
-            User user = new User("user", "user123", "user", null, "user@example.com");
+            User user = new User("user", PasswordHasher.hash("user123"), "user", null, "user@example.com");
             users.put("user", user);
-            
-            saveUsers();
+            journal.logPut(user);
+        }
+    }
+    
+    /**
+     * Reemplazar las contraseñas en texto plano por su hash (migración de users.json antiguos)
+     */
+    private void migratePlaintextPasswords() {
+        int migrated = 0;
+        for (User user : users.values()) {
+            if (user.getPassword() != null && !PasswordHasher.isHashed(user.getPassword())) {
+                user.setPassword(PasswordHasher.hash(user.getPassword()));
+                journal.logPut(user);
+                migrated++;
+            }
+        }
+        if (migrated > 0) {
+            // No dejar las contraseñas en texto plano en users.json más tiempo del necesario
+            journal.requestCompaction(users::values);
         }
     }
     
@@ -85,18 +117,40 @@ public class UserStorage {
             return false; // Usuario ya existe
         }
         
-        User newUser = new User(username, password, "user", patientId, email);
-        users.put(username, newUser);
-        saveUsers();
+        // El hash se calcula fuera del bloqueo; compute decide si el usuario sigue libre
+        User newUser = new User(username, PasswordHasher.hash(password), "user", patientId, email);
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        users.compute(username, (key, existing) -> {
+            if (existing != null) {
+                return existing;
+            }
+            committed[0] = journal.logPut(newUser);
+            return newUser;
+        });
+        if (committed[0] == null) {
+            return false; // Registrado por otra petición mientras tanto
+        }
+        journal.awaitCommit(committed[0]);
         return true;
     }
     
     /**
      * Autenticar un usuario
+     * Si el hash almacenado usa otra configuración (o es texto plano) se regenera
      */
     public User authenticate(String username, String password) {
         User user = users.get(username);
-        if (user != null && user.getPassword().equals(password)) {
+        if (user != null && PasswordHasher.verify(password, user.getPassword())) {
+            if (PasswordHasher.needsRehash(user.getPassword())) {
+                String rehashed = PasswordHasher.hash(password);
+                users.computeIfPresent(username, (key, current) -> {
+                    if (current == user) {
+                        user.setPassword(rehashed);
+                        journal.logPut(user);
+                    }
+                    return current;
+                });
+            }
             return user;
         }
         return null;
@@ -127,30 +181,46 @@ public class UserStorage {
      * Actualizar información de un usuario
      */
     public void updateUser(User user) {
-        users.put(user.getUsername(), user);
-        saveUsers();
+        // Una contraseña nueva llega en texto plano: guardar solo su hash
+        if (user.getPassword() != null && !PasswordHasher.isHashed(user.getPassword())) {
+            user.setPassword(PasswordHasher.hash(user.getPassword()));
+        }
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        users.compute(user.getUsername(), (key, existing) -> {
+            committed[0] = journal.logPut(user);
+            return user;
+        });
+        journal.awaitCommit(committed[0]);
     }
     
     /**
      * Eliminar un usuario
      */
     public boolean deleteUser(String username) {
-        if (users.remove(username) != null) {
-            saveUsers();
-            return true;
-        }
-        return false;
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        boolean[] removed = new boolean[1];
+        users.computeIfPresent(username, (key, existing) -> {
+            committed[0] = journal.logDelete(key);
+            removed[0] = true;
+            return null;
+        });
+        journal.awaitCommit(committed[0]);
+        return removed[0];
     }
     
     /**
      * Asociar un Patient ID a un usuario
+     * @return false si el usuario no existe
      */
-    public void associatePatientId(String username, String patientId) {
-        User user = users.get(username);
-        if (user != null) {
+    public boolean associatePatientId(String username, String patientId) {
+        CompletableFuture<?>[] committed = new CompletableFuture<?>[1];
+        users.computeIfPresent(username, (key, user) -> {
             user.setPatientId(patientId);
-            saveUsers();
-        }
+            committed[0] = journal.logPut(user);
+            return user;
+        });
+        journal.awaitCommit(committed[0]);
+        return committed[0] != null;
     }
 }
 
@@ -0,0 +1,60 @@
+package com.example.fhir.storage;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Estadísticas de los valores numéricos (valueQuantity) de un subject, código y unidad en una
+ * ventana de tiempo (Observation/$stats)
+ */
+public class ValueStats {
+
+    private final int count;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final String unit;
+    private final Map<Double, Double> percentiles;
+
+    ValueStats(int count, double min, double max, double mean, String unit, Map<Double, Double> percentiles) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.unit = unit;
+        this.percentiles = Collections.unmodifiableMap(percentiles);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Mínimo (NaN si no hay valores)
+     */
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Unidad (código UCUM o texto) de todos los valores agregados, o null si no tienen unidad
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * Percentil (0-100) -> valor, en el orden en que se pidieron
+     */
+    public Map<Double, Double> getPercentiles() {
+        return percentiles;
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.fhir.storage;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import ca.uhn.fhir.model.valueset.BundleEntryTransactionMethodEnum;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Historial de versiones de un tipo de recurso
+ *
+ * La versión actual vive en el mapa principal de InMemoryStorage; aquí solo se guardan las
+ * versiones anteriores como cadena (más reciente primero). Cada versión anterior se guarda
+ * comprimida con Deflate usando como diccionario el JSON de la versión siguiente, por lo que
+ * ocupa aproximadamente lo que cambió entre ambas y no una copia completa.
+ * Reconstruir la versión k recorre la cadena desde la versión actual hacia atrás.
+ *
+ * Todas las modificaciones de una cadena ocurren con la entrada del ID bloqueada en el mapa
+ * principal y la compresión se hace antes de tomar el monitor de la cadena. Las lecturas solo
+ * copian bajo el monitor el diccionario (bytes, no el recurso vivo) y las entradas, que son
+ * inmutables, y descomprimen fuera de él.
+ */
+class VersionHistory<T extends Resource> {
+
+    private final FhirContext fhirContext;
+    private final Class<T> type;
+    private final String resourceType;
+    // Solo IDs con versiones anteriores o eliminados
+    private final Map<String, Chain> chains = new ConcurrentHashMap<>();
+
+    VersionHistory(FhirContext fhirContext, Class<T> type, String resourceType) {
+        this.fhirContext = fhirContext;
+        this.type = type;
+        this.resourceType = resourceType;
+    }
+
+    /**
+     * Asignar versión y lastUpdated al recurso que se guarda y archivar la versión anterior
+     * Se llama con la entrada del ID bloqueada
+     */
+    void onSave(String id, T previous, T current) {
+        Chain chain = chains.get(id);
+        long lastVersion = previous != null ? versionOf(previous) : (chain != null ? chain.lastVersion : 0);
+        stamp(id, current, lastVersion + 1);
+
+        if (previous == null && chain == null) {
+            return;
+        }
+        if (chain == null) {
+            chain = chains.computeIfAbsent(id, key -> new Chain());
+        }
+        // Recreado tras una eliminación: la entrada más reciente es un tombstone, no usa diccionario
+        byte[] dictionary = null;
+        Entry archived = null;
+        if (previous != null) {
+            dictionary = encode(current);
+            archived = new Entry(versionOf(previous), timestampOf(previous), deflate(encode(previous), dictionary), false, false);
+        }
+        synchronized (chain) {
+            if (archived != null) {
+                chain.older.addFirst(archived);
+            }
+            chain.lastVersion = versionOf(current);
+            chain.dictionaryHead = dictionary;
+        }
+    }
+
+    /**
+     * Registrar la eliminación: la versión actual pasa a la cadena y se agrega un tombstone
+     */
+    void onDelete(String id, T previous) {
+        Chain chain = chains.computeIfAbsent(id, key -> new Chain());
+        long previousVersion = versionOf(previous);
+        // Sin versión siguiente no hay diccionario
+        Entry archived = new Entry(previousVersion, timestampOf(previous), deflate(encode(previous), null), true, false);
+        synchronized (chain) {
+            chain.older.addFirst(archived);
+            chain.older.addFirst(new Entry(previousVersion + 1, System.currentTimeMillis(), null, false, true));
+            chain.lastVersion = previousVersion + 1;
+            chain.dictionaryHead = null;
+        }
+    }
+
+    /**
+     * Recurso restaurado desde el WAL: conservar su versión sin generar historial
+     */
+    void onRestore(String id, T restored) {
+        Chain chain = chains.get(id);
+        if (chain != null) {
+            synchronized (chain) {
+                // La cadena ya no coincide con la versión restaurada; el próximo guardado fija el diccionario
+                chain.older.clear();
+                chain.lastVersion = Math.max(chain.lastVersion, versionOf(restored));
+                chain.dictionaryHead = null;
+            }
+        }
+    }
+
+    /**
+     * Obtener una versión anterior (no la actual)
+     * @return Recurso, tombstone (con DELETED_AT) si la versión es una eliminación, o null
+     */
+    T getVersion(String id, long version) {
+        Chain chain = chains.get(id);
+        if (chain == null) {
+            return null;
+        }
+        byte[] dictionary;
+        Entry[] entries;
+        synchronized (chain) {
+            dictionary = chain.dictionaryHead;
+            entries = chain.older.toArray(new Entry[0]);
+        }
+        for (Entry entry : entries) {
+            if (entry.version < version) {
+                return null;
+            }
+            if (entry.deleted) {
+                if (entry.version == version) {
+                    return tombstone(id, entry);
+                }
+                continue;
+            }
+            byte[] json = inflate(entry.data, entry.dictionaryless ? null : dictionary);
+            if (entry.version == version) {
+                return parse(json);
+            }
+            dictionary = json;
+        }
+        return null;
+    }
+
+    /**
+     * Versiones anteriores de un recurso, de la más reciente a la más antigua
+     * @param since Solo versiones con lastUpdated posterior (puede ser null)
+     */
+    List<T> getHistory(String id, Date since) {
+        List<T> result = new ArrayList<>();
+        Chain chain = chains.get(id);
+        if (chain == null) {
+            return result;
+        }
+        long sinceMillis = since != null ? since.getTime() : Long.MIN_VALUE;
+        byte[] dictionary;
+        Entry[] entries;
+        synchronized (chain) {
+            dictionary = chain.dictionaryHead;
+            entries = chain.older.toArray(new Entry[0]);
+        }
+        for (Entry entry : entries) {
+            if (entry.timestamp < sinceMillis) {
+                break;
+            }
+            if (entry.deleted) {
+                result.add(tombstone(id, entry));
+                continue;
+            }
+            byte[] json = inflate(entry.data, entry.dictionaryless ? null : dictionary);
+            result.add(parse(json));
+            dictionary = json;
+        }
+        return result;
+    }
+
+    /**
+     * IDs con versiones anteriores (incluye recursos eliminados)
+     */
+    Set<String> getIdsWithHistory() {
+        return chains.keySet();
+    }
+
+    /**
+     * Aplicar la política de retención
+     * Las cadenas vacías se conservan para continuar la numeración de versiones
+     * @param maxVersions Máximo de versiones anteriores por recurso
+     * @param maxAgeMillis Antigüedad máxima de una versión anterior (0 = sin límite)
+     * @return Número de versiones eliminadas
+     */
+    int prune(int maxVersions, long maxAgeMillis) {
+        int pruned = 0;
+        long oldest = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        for (Chain chain : chains.values()) {
+            synchronized (chain) {
+                while (!chain.older.isEmpty()
+                        && (chain.older.size() > maxVersions || chain.older.peekLast().timestamp < oldest)) {
+                    chain.older.removeLast();
+                    pruned++;
+                }
+            }
+        }
+        return pruned;
+    }
+
+    void clear() {
+        chains.clear();
+    }
+
+    // ===== Utilidades =====
+
+    private void stamp(String id, T resource, long version) {
+        String versionId = Long.toString(version);
+        resource.setId(new IdType(resourceType, id, versionId));
+        resource.getMeta().setVersionId(versionId);
+        resource.getMeta().setLastUpdated(new Date());
+    }
+
+    static long versionOf(Resource resource) {
+        if (resource.hasMeta() && resource.getMeta().hasVersionId()) {
+            try {
+                return Long.parseLong(resource.getMeta().getVersionId());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    private static long timestampOf(Resource resource) {
+        if (resource.hasMeta() && resource.getMeta().hasLastUpdated()) {
+            return resource.getMeta().getLastUpdated().getTime();
+        }
+        return System.currentTimeMillis();
+    }
+
+    private T tombstone(String id, Entry entry) {
+        try {
+            T tombstone = type.getDeclaredConstructor().newInstance();
+            String versionId = Long.toString(entry.version);
+            tombstone.setId(new IdType(resourceType, id, versionId));
+            tombstone.getMeta().setVersionId(versionId);
+            tombstone.getMeta().setLastUpdated(new Date(entry.timestamp));
+            ResourceMetadataKeyEnum.DELETED_AT.put(tombstone, new InstantType(new Date(entry.timestamp)));
+            ResourceMetadataKeyEnum.ENTRY_TRANSACTION_METHOD.put(tombstone, BundleEntryTransactionMethodEnum.DELETE);
+            return tombstone;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No se pudo crear el tombstone de " + resourceType, e);
+        }
+    }
+
+    private byte[] encode(T resource) {
+        return fhirContext.newJsonParser().setPrettyPrint(false).encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private T parse(byte[] json) {
+        return fhirContext.newJsonParser().parseResource(type, new String(json, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] deflate(byte[] data, byte[] dictionary) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, byte[] dictionary) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary() && dictionary != null) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                        throw new IllegalStateException("Versión comprimida incompleta o sin diccionario");
+                    }
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Versión comprimida corrupta", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Chain {
+        // Versiones anteriores, la más reciente primero
+        final ArrayDeque<Entry> older = new ArrayDeque<>();
+        // Último versionId asignado (incluye tombstones)
+        long lastVersion;
+        // JSON usado como diccionario de la entrada más reciente, codificado al guardar
+        // (null si la entrada más reciente no lo usa, ej: un tombstone)
+        byte[] dictionaryHead;
+    }
+
+    private static final class Entry {
+        final long version;
+        final long timestamp;
+        final byte[] data;
+        final boolean dictionaryless;
+        final boolean deleted;
+
+        Entry(long version, long timestamp, byte[] data, boolean dictionaryless, boolean deleted) {
+            this.version = version;
+            this.timestamp = timestamp;
+            this.data = data;
+            this.dictionaryless = dictionaryless;
+            this.deleted = deleted;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.fhir.util;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.server.exceptions.ForbiddenOperationException;
+import com.example.fhir.model.User;
+import com.example.fhir.storage.Compartment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Política de acceso por rol, operación REST y tipo de recurso (singleton)
+ *
+ * Las reglas se leen de access-policy.properties (classpath) o del archivo indicado en
+ * fhir.auth.policyFile y se compilan al arrancar en una tabla rol -> tipo de recurso -> EnumSet
+ * de operaciones permitidas. Decidir un permiso es un lookup en un mapa y un test de bit, sin
+ * listas ni comparaciones de strings por petición. Un archivo inválido impide arrancar.
+ *
+ * Las operaciones extendidas ($everything, $lastn, ...) además se permiten por nombre con
+ * operations.<rol>.<Tipo>: permitir EXTENDED_OPERATION_TYPE sobre un tipo no expone una
+ * operación nueva que se registre después en ese tipo.
+ *
+ * La política también define si un rol está restringido al compartimento de su Patient; los
+ * providers pasan ese Compartment a InMemoryStorage en lugar de filtrar resultados.
+ */
+public class AccessPolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessPolicy.class);
+
+    private static final String DEFAULT_RESOURCE = "/access-policy.properties";
+    private static final String ANY = "*";
+    private static final Set<RestOperationTypeEnum> EXTENDED_OPERATIONS = EnumSet.of(
+        RestOperationTypeEnum.EXTENDED_OPERATION_SERVER,
+        RestOperationTypeEnum.EXTENDED_OPERATION_TYPE,
+        RestOperationTypeEnum.EXTENDED_OPERATION_INSTANCE);
+
+    private static final AccessPolicy instance = load(System.getProperty("fhir.auth.policyFile"));
+
+    /**
+     * Reglas compiladas de un rol
+     */
+    private static final class RoleRules {
+        // Operaciones permitidas sobre cualquier tipo (y sobre el servidor)
+        final EnumSet<RestOperationTypeEnum> anyType = EnumSet.noneOf(RestOperationTypeEnum.class);
+        // Por tipo de recurso; cada entrada ya incluye las operaciones de anyType
+        final Map<String, EnumSet<RestOperationTypeEnum>> byType = new HashMap<>();
+        // Operaciones extendidas permitidas por nombre ("$lastn"; "*" = todas), con el mismo esquema
+        final Set<String> anyTypeNamed = new HashSet<>();
+        final Map<String, Set<String>> namedByType = new HashMap<>();
+        boolean patientCompartment;
+    }
+
+    private final Map<String, RoleRules> roles;
+
+    AccessPolicy(Properties properties) {
+        this.roles = compile(properties);
+    }
+
+    public static AccessPolicy getInstance() {
+        return instance;
+    }
+
+    private static AccessPolicy load(String policyFile) {
+        Properties properties = new Properties();
+        try {
+            if (policyFile != null && !policyFile.isEmpty()) {
+                try (InputStream in = Files.newInputStream(Path.of(policyFile))) {
+                    properties.load(in);
+                }
+                logger.info("Política de acceso cargada desde {}", policyFile);
+            } else {
+                try (InputStream in = AccessPolicy.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+                    if (in == null) {
+                        throw new IllegalStateException("No se encontró " + DEFAULT_RESOURCE + " en el classpath");
+                    }
+                    properties.load(in);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo leer la política de acceso: " + e.getMessage(), e);
+        }
+        return new AccessPolicy(properties);
+    }
+
+    private static Map<String, RoleRules> compile(Properties properties) {
+        Map<String, RoleRules> compiled = new HashMap<>();
+        Map<String, Map<String, EnumSet<RestOperationTypeEnum>>> specific = new HashMap<>();
+        Map<String, Map<String, Set<String>>> specificNamed = new HashMap<>();
+
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            String[] parts = key.split("\\.");
+            if (parts.length == 3 && "allow".equals(parts[0])) {
+                RoleRules rules = compiled.computeIfAbsent(parts[1], r -> new RoleRules());
+                EnumSet<RestOperationTypeEnum> operations = parseOperations(key, value);
+                if (ANY.equals(parts[2])) {
+                    rules.anyType.addAll(operations);
+                } else {
+                    specific.computeIfAbsent(parts[1], r -> new HashMap<>()).put(parts[2], operations);
+                }
+            } else if (parts.length == 3 && "operations".equals(parts[0])) {
+                RoleRules rules = compiled.computeIfAbsent(parts[1], r -> new RoleRules());
+                Set<String> names = parseOperationNames(key, value);
+                if (ANY.equals(parts[2])) {
+                    rules.anyTypeNamed.addAll(names);
+                } else {
+                    specificNamed.computeIfAbsent(parts[1], r -> new HashMap<>()).put(parts[2], names);
+                }
+            } else if (parts.length == 2 && "compartment".equals(parts[0])) {
+                if (!"Patient".equals(value)) {
+                    throw new IllegalArgumentException("Compartimento no soportado en " + key + ": " + value);
+                }
+                compiled.computeIfAbsent(parts[1], r -> new RoleRules()).patientCompartment = true;
+            } else {
+                throw new IllegalArgumentException("Regla de política desconocida: " + key);
+            }
+        }
+
+        // Las reglas por tipo se suman a las del tipo *
+        for (Map.Entry<String, Map<String, EnumSet<RestOperationTypeEnum>>> role : specific.entrySet()) {
+            RoleRules rules = compiled.get(role.getKey());
+            for (Map.Entry<String, EnumSet<RestOperationTypeEnum>> type : role.getValue().entrySet()) {
+                EnumSet<RestOperationTypeEnum> operations = EnumSet.copyOf(rules.anyType);
+                operations.addAll(type.getValue());
+                rules.byType.put(type.getKey(), operations);
+            }
+        }
+        for (Map.Entry<String, Map<String, Set<String>>> role : specificNamed.entrySet()) {
+            RoleRules rules = compiled.get(role.getKey());
+            for (Map.Entry<String, Set<String>> type : role.getValue().entrySet()) {
+                Set<String> names = new HashSet<>(rules.anyTypeNamed);
+                names.addAll(type.getValue());
+                rules.namedByType.put(type.getKey(), names);
+            }
+        }
+
+        for (Map.Entry<String, RoleRules> role : compiled.entrySet()) {
+            logger.info("Política del rol '{}': {} sobre cualquier tipo, {} tipos con reglas propias, operaciones {} / {}{}",
+                role.getKey(), role.getValue().anyType, role.getValue().byType.size(),
+                role.getValue().anyTypeNamed, role.getValue().namedByType,
+                role.getValue().patientCompartment ? ", compartimento Patient" : "");
+        }
+        return compiled;
+    }
+
+    private static EnumSet<RestOperationTypeEnum> parseOperations(String key, String value) {
+        if (ANY.equals(value)) {
+            return EnumSet.allOf(RestOperationTypeEnum.class);
+        }
+        EnumSet<RestOperationTypeEnum> operations = EnumSet.noneOf(RestOperationTypeEnum.class);
+        for (String name : value.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            try {
+                operations.add(RestOperationTypeEnum.valueOf(trimmed));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Operación desconocida en " + key + ": " + trimmed, e);
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Nombres de operaciones extendidas separados por coma ("$lastn, $stats"), o * para todas
+     */
+    private static Set<String> parseOperationNames(String key, String value) {
+        Set<String> names = new HashSet<>();
+        for (String name : value.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (!ANY.equals(trimmed) && !trimmed.startsWith("$")) {
+                throw new IllegalArgumentException("Operación extendida inválida en " + key + ": " + trimmed
+                    + " (se espera $nombre)");
+            }
+            names.add(trimmed);
+        }
+        return names;
+    }
+
+    /**
+     * Verificar si el rol del usuario puede ejecutar la operación
+     * @param resourceType Tipo de recurso (null para operaciones de servidor)
+     */
+    public boolean isAllowed(User user, RestOperationTypeEnum operation, String resourceType) {
+        return isAllowed(user, operation, resourceType, null);
+    }
+
+    /**
+     * Verificar si el rol del usuario puede ejecutar la operación
+     * Una operación extendida requiere además su nombre en operations.<rol>.<Tipo>
+     * @param resourceType Tipo de recurso (null para operaciones de servidor)
+     * @param operationName Nombre de la operación extendida ("$lastn"; null si no es extendida)
+     */
+    public boolean isAllowed(User user, RestOperationTypeEnum operation, String resourceType, String operationName) {
+        RoleRules rules = roles.get(user.getRole());
+        if (rules == null) {
+            return false;
+        }
+        EnumSet<RestOperationTypeEnum> operations = resourceType != null
+            ? rules.byType.getOrDefault(resourceType, rules.anyType)
+            : rules.anyType;
+        if (!operations.contains(operation)) {
+            return false;
+        }
+        if (!EXTENDED_OPERATIONS.contains(operation)) {
+            return true;
+        }
+        Set<String> named = resourceType != null
+            ? rules.namedByType.getOrDefault(resourceType, rules.anyTypeNamed)
+            : rules.anyTypeNamed;
+        return operationName != null && (named.contains(ANY) || named.contains(operationName));
+    }
+
+    /**
+     * Igual que isAllowed, pero lanza ForbiddenOperationException si no está permitido
+     */
+    public void check(User user, RestOperationTypeEnum operation, String resourceType) {
+        check(user, operation, resourceType, null);
+    }
+
+    public void check(User user, RestOperationTypeEnum operation, String resourceType, String operationName) {
+        if (!isAllowed(user, operation, resourceType, operationName)) {
+            throw new ForbiddenOperationException("El rol '" + user.getRole() + "' no tiene permiso para la operación '"
+                + (operationName != null ? operationName : operation) + "'"
+                + (resourceType != null ? " sobre " + resourceType : ""));
+        }
+    }
+
+    /**
+     * Compartimento al que el usuario tiene acceso (Compartment.ALL si su rol no está restringido)
+     */
+    public Compartment compartmentFor(User user) {
+        RoleRules rules = roles.get(user.getRole());
+        if (rules == null) {
+            return Compartment.NONE;
+        }
+        return rules.patientCompartment ? Compartment.patient(user.getPatientId()) : Compartment.ALL;
+    }
+}
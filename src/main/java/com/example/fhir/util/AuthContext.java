@@ -5,6 +5,11 @@ import com.example.fhir.model.User;
 /**
  * Contexto de autenticación usando ThreadLocal
  * Permite almacenar el usuario autenticado durante el procesamiento de una petición
+ *
+ * Funciona igual con hilos de plataforma y virtuales: cada petición se procesa de principio a
+ * fin en un único hilo. Solo guarda una referencia (sin valor inicial ni herencia entre hilos),
+ * así con miles de hilos virtuales el costo por hilo es una entrada en su mapa de ThreadLocals.
+ * SecurityInterceptor lo limpia al terminar cada petición, también si termina en error.
  */
 public class AuthContext {
     
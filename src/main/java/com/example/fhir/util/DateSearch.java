@@ -0,0 +1,136 @@
+package com.example.fhir.util;
+
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+/**
+ * Límites de una búsqueda por fecha (DateRangeParam) en epoch millis, ambos inclusive
+ *
+ * getLowerBoundAsInstant / getUpperBoundAsInstant de HAPI amplían en ±14 horas los valores con
+ * precisión de día o menor, para cubrir cualquier zona horaria. Aquí un valor yyyy, yyyy-MM o
+ * yyyy-MM-dd cubre exactamente su periodo de calendario en la zona horaria del servidor, la misma
+ * con la que HAPI interpreta las fechas sin hora de los recursos guardados (ej: effectiveDateTime
+ * "2024-03-10"). Los valores con hora (segundos o milisegundos) se comparan como instantes,
+ * salvo en los campos de tipo date (lowerDayBound / upperDayBound), que solo tienen días enteros.
+ */
+public final class DateSearch {
+
+    private DateSearch() {
+    }
+
+    /**
+     * Límite inferior (null = sin límite)
+     */
+    public static Long lowerBound(DateRangeParam range) {
+        DateParam bound = range.getLowerBound();
+        if (bound == null || bound.getValue() == null) {
+            return null;
+        }
+        if (!isCalendar(bound.getPrecision())) {
+            return range.getLowerBoundAsInstant().getTime();
+        }
+        return calendarLower(bound, bound.getPrecision(), true);
+    }
+
+    /**
+     * Límite superior (null = sin límite)
+     */
+    public static Long upperBound(DateRangeParam range) {
+        DateParam bound = range.getUpperBound();
+        if (bound == null || bound.getValue() == null) {
+            return null;
+        }
+        if (!isCalendar(bound.getPrecision())) {
+            return range.getUpperBoundAsInstant().getTime();
+        }
+        return calendarUpper(bound, bound.getPrecision(), true);
+    }
+
+    /**
+     * Límite inferior para un campo de tipo date (ej: Patient.birthDate), que se compara por días
+     * enteros: un valor con hora se reduce a su día y gt/sa no excluyen ese día, que también
+     * contiene instantes posteriores al valor
+     */
+    public static Long lowerDayBound(DateRangeParam range) {
+        DateParam bound = range.getLowerBound();
+        if (bound == null || bound.getValue() == null) {
+            return null;
+        }
+        boolean calendar = isCalendar(bound.getPrecision());
+        return calendarLower(bound, calendar ? bound.getPrecision() : TemporalPrecisionEnum.DAY, calendar);
+    }
+
+    /**
+     * Límite superior para un campo de tipo date; un valor con hora se reduce a su día y lt/eb
+     * no excluyen ese día
+     */
+    public static Long upperDayBound(DateRangeParam range) {
+        DateParam bound = range.getUpperBound();
+        if (bound == null || bound.getValue() == null) {
+            return null;
+        }
+        boolean calendar = isCalendar(bound.getPrecision());
+        return calendarUpper(bound, calendar ? bound.getPrecision() : TemporalPrecisionEnum.DAY, calendar);
+    }
+
+    private static boolean isCalendar(TemporalPrecisionEnum precision) {
+        return precision != null && precision.ordinal() <= TemporalPrecisionEnum.DAY.ordinal();
+    }
+
+    /**
+     * @param strict Si gt/sa excluyen el periodo del valor
+     */
+    private static long calendarLower(DateParam bound, TemporalPrecisionEnum precision, boolean strict) {
+        ZonedDateTime start = periodStart(bound.getValue(), precision);
+        boolean after = strict
+            && (bound.getPrefix() == ParamPrefixEnum.GREATERTHAN || bound.getPrefix() == ParamPrefixEnum.STARTS_AFTER);
+        return (after ? next(start, precision) : start).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @param strict Si lt/eb excluyen el periodo del valor
+     */
+    private static long calendarUpper(DateParam bound, TemporalPrecisionEnum precision, boolean strict) {
+        ZonedDateTime start = periodStart(bound.getValue(), precision);
+        boolean before = strict
+            && (bound.getPrefix() == ParamPrefixEnum.LESSTHAN || bound.getPrefix() == ParamPrefixEnum.ENDS_BEFORE);
+        return (before ? start : next(start, precision)).toInstant().toEpochMilli() - 1;
+    }
+
+    /**
+     * Inicio del año, mes o día que contiene al valor
+     */
+    private static ZonedDateTime periodStart(Date value, TemporalPrecisionEnum precision) {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate day = value.toInstant().atZone(zone).toLocalDate();
+        switch (precision) {
+            case YEAR:
+                day = day.withDayOfYear(1);
+                break;
+            case MONTH:
+                day = day.withDayOfMonth(1);
+                break;
+            default:
+                break;
+        }
+        return day.atStartOfDay(zone);
+    }
+
+    private static ZonedDateTime next(ZonedDateTime start, TemporalPrecisionEnum precision) {
+        switch (precision) {
+            case YEAR:
+                return start.plusYears(1);
+            case MONTH:
+                return start.plusMonths(1);
+            default:
+                return start.plusDays(1);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.fhir.util;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.validation.FhirValidator;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registro del FhirContext R4 y del validador compartidos por toda la aplicación
+ *
+ * Crear un FhirContext es costoso (escanea el modelo de forma perezosa) y cada instancia repite
+ * ese trabajo; todas las clases deben usar el contexto de este registro. Ambos objetos son
+ * thread-safe una vez creados.
+ *
+ * warmUp() adelanta al arranque el costo que de otra forma pagaría la primera petición:
+ * escaneo de las definiciones de recursos, inicialización del validador y ciclos sintéticos
+ * de parseo, validación y codificación para que el JIT compile esos caminos.
+ */
+public final class FhirContextRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(FhirContextRegistry.class);
+
+    private static final FhirContext R4 = FhirContext.forR4();
+
+    private FhirContextRegistry() {
+    }
+
+    /**
+     * Contexto FHIR R4 compartido
+     */
+    public static FhirContext getR4Context() {
+        return R4;
+    }
+
+    /**
+     * Validador compartido (se crea al primer uso)
+     */
+    public static FhirValidator getValidator() {
+        return ValidatorHolder.VALIDATOR;
+    }
+
+    /**
+     * Fase de calentamiento
+     * @param iterations Ciclos sintéticos de parseo/validación/codificación (0 = solo escaneo)
+     * @return Duración total en milisegundos
+     */
+    public static long warmUp(int iterations) {
+        long startTime = System.nanoTime();
+
+        // 1. Escanear las definiciones de todos los tipos de recurso
+        for (String resourceType : R4.getResourceTypes()) {
+            R4.getResourceDefinition(resourceType);
+        }
+        long scanned = System.nanoTime();
+
+        // 2. Construir el validador (cadena de soporte de validación)
+        FhirValidator validator = getValidator();
+        long validatorReady = System.nanoTime();
+
+        // 3. Ciclos sintéticos con recursos representativos
+        Patient patient = samplePatient();
+        Observation observation = sampleObservation();
+        IParser jsonParser = R4.newJsonParser();
+        IParser xmlParser = R4.newXmlParser();
+        for (int i = 0; i < iterations; i++) {
+            String patientJson = jsonParser.encodeResourceToString(patient);
+            String observationJson = jsonParser.encodeResourceToString(observation);
+            validator.validateWithResult(jsonParser.parseResource(Patient.class, patientJson));
+            validator.validateWithResult(jsonParser.parseResource(Observation.class, observationJson));
+            xmlParser.parseResource(Patient.class, xmlParser.encodeResourceToString(patient));
+        }
+
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        logger.info("Warm-up de FHIR completado en {} ms (escaneo {} ms, validador {} ms, {} ciclos {} ms)",
+            elapsedMillis,
+            (scanned - startTime) / 1_000_000,
+            (validatorReady - scanned) / 1_000_000,
+            iterations,
+            (System.nanoTime() - validatorReady) / 1_000_000);
+        return elapsedMillis;
+    }
+
+    private static Patient samplePatient() {
+        Patient patient = new Patient();
+        patient.setId("warmup");
+        patient.addIdentifier(new Identifier().setSystem("urn:oid:2.16.840.1.113883.4.1").setValue("000-00-0000"));
+        patient.addName(new HumanName().setFamily("Warmup").addGiven("Test"));
+        patient.setGender(Enumerations.AdministrativeGender.UNKNOWN);
+        patient.setBirthDateElement(new DateType("1980-01-01"));
+        return patient;
+    }
+
+    private static Observation sampleObservation() {
+        Observation observation = new Observation();
+        observation.setId("warmup");
+        observation.setStatus(Observation.ObservationStatus.FINAL);
+        observation.setCode(new CodeableConcept().addCoding(
+            new Coding().setSystem("http://loinc.org").setCode("8867-4").setDisplay("Heart rate")));
+        observation.setSubject(new Reference("Patient/warmup"));
+        observation.setEffective(new DateTimeType("2024-01-01T00:00:00Z"));
+        observation.setValue(new Quantity().setValue(72).setUnit("beats/minute")
+            .setSystem("http://unitsofmeasure.org").setCode("/min"));
+        return observation;
+    }
+
+    private static final class ValidatorHolder {
+        static final FhirValidator VALIDATOR = R4.newValidator();
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.fhir.util;
+
+/**
+ * Generador de IDs para recursos FHIR
+ * Las implementaciones no requieren coordinación entre hilos ni entre nodos
+ *
+ * La implementación se elige con -Dfhir.id.generator:
+ * - snowflake (por defecto): timestamp + nodo + franja + secuencia, creciente por hilo
+ * - uuid: UUID aleatorio
+ */
+public interface IdGenerator {
+    
+    /**
+     * Generar un nuevo ID para el tipo de recurso indicado (ej: "Patient-1234")
+     */
+    String nextId(String resourceType);
+    
+    /**
+     * Obtener el generador configurado para el proceso
+     */
+    static IdGenerator getDefault() {
+        return IdGeneratorHolder.INSTANCE;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.fhir.util;
+
+import java.util.UUID;
+
+/**
+ * Generador configurado para el proceso (IdGenerator.getDefault), creado en el primer uso
+ */
+final class IdGeneratorHolder {
+    
+    static final IdGenerator INSTANCE = create(System.getProperty("fhir.id.generator", "snowflake"));
+    
+    private IdGeneratorHolder() {
+    }
+    
+    private static IdGenerator create(String name) {
+        if ("uuid".equalsIgnoreCase(name)) {
+            return resourceType -> resourceType + "-" + UUID.randomUUID();
+        }
+        return new SnowflakeIdGenerator(Long.getLong("fhir.node.id", 0L));
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.fhir.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Generador de IDs estilo Snowflake sin bloqueos
+ *
+ * Formato (64 bits): 41 bits de milisegundos desde EPOCH | 10 bits de nodo | 3 bits de franja | 9 bits de secuencia
+ *
+ * Cada hilo usa la franja que corresponde a su ID y cada franja es un worker independiente
+ * dentro del nodo, con su propio estado (timestamp + secuencia): los hilos de franjas distintas
+ * no compiten por el mismo compareAndSet. El estado de una franja se avanza con un único
+ * compareAndSet; si su secuencia se agota dentro de un milisegundo, o el reloj retrocede, el
+ * timestamp lógico se adelanta en lugar de esperar, por lo que nunca se queda girando.
+ * Los IDs son únicos y crecientes dentro de cada franja (y por lo tanto de cada hilo); entre
+ * franjas quedan ordenados por milisegundo.
+ */
+public class SnowflakeIdGenerator implements IdGenerator {
+    
+    // 2024-01-01T00:00:00Z
+    private static final long EPOCH = 1704067200000L;
+    private static final int NODE_BITS = 10;
+    private static final int STRIPE_BITS = 3;
+    private static final int SEQUENCE_BITS = 9;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    // Separación entre los estados de dos franjas (16 longs = 128 bytes) para que no compartan línea de caché
+    private static final int PADDING = 16;
+    
+    private final long node;
+    // Por franja: timestamp lógico << SEQUENCE_BITS | secuencia
+    private final AtomicLongArray states = new AtomicLongArray(STRIPES * PADDING);
+    
+    public SnowflakeIdGenerator(long node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("El ID de nodo debe estar entre 0 y " + MAX_NODE + ": " + node);
+        }
+        this.node = node;
+    }
+    
+    /**
+     * Generar el siguiente ID numérico
+     */
+    public long nextLong() {
+        long stripe = Thread.currentThread().threadId() & (STRIPES - 1);
+        int index = (int) stripe * PADDING;
+        while (true) {
+            long last = states.get(index);
+            long now = System.currentTimeMillis() - EPOCH;
+            long next = now > (last >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : last + 1;
+            if (states.compareAndSet(index, last, next)) {
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + STRIPE_BITS + SEQUENCE_BITS))
+                    | (node << (STRIPE_BITS + SEQUENCE_BITS))
+                    | (stripe << SEQUENCE_BITS)
+                    | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+    
+    @Override
+    public String nextId(String resourceType) {
+        return resourceType + "-" + nextLong();
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.fhir.util;
+
+import com.example.fhir.model.User;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Emisión y verificación de tokens bearer firmados (singleton)
+ *
+ * Los tokens son JWT firmados con HMAC-SHA256 (header.payload.firma en Base64url) y llevan
+ * username (sub), rol, patientId y expiración. Verificarlos es solo recalcular la firma:
+ * no se consulta UserStorage, así que cualquier nodo con el mismo secreto puede autenticar.
+ * Como no hay estado, un cambio de rol o de contraseña se aplica cuando el token expira.
+ *
+ * Configuración (System properties):
+ * - fhir.auth.tokenSecret: Secreto HMAC en Base64 (mínimo 32 bytes). Sin él se genera uno
+ *   aleatorio al arrancar y los tokens no sirven en otros nodos ni tras un reinicio
+ * - fhir.auth.tokenTtlSeconds: Vigencia de un token (por defecto 900)
+ */
+public class TokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenService.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    // Header fijo: un token con cualquier otro header (ej: "alg":"none") se rechaza sin parsearlo
+    private static final String HEADER = ENCODER.encodeToString(
+        "{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+
+    private static final TokenService instance = new TokenService(
+        System.getProperty("fhir.auth.tokenSecret"),
+        Long.getLong("fhir.auth.tokenTtlSeconds", 900));
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final Mac prototype;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    TokenService(String base64Secret, long ttlSeconds) {
+        byte[] secret;
+        if (base64Secret != null && !base64Secret.isEmpty()) {
+            secret = Base64.getDecoder().decode(base64Secret);
+            if (secret.length < MIN_SECRET_BYTES) {
+                throw new IllegalArgumentException("fhir.auth.tokenSecret debe tener al menos " + MIN_SECRET_BYTES + " bytes");
+            }
+        } else {
+            secret = new byte[MIN_SECRET_BYTES];
+            new SecureRandom().nextBytes(secret);
+            logger.warn("fhir.auth.tokenSecret no configurado: se usa un secreto aleatorio; " +
+                "los tokens no serán válidos en otros nodos ni después de reiniciar");
+        }
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.prototype = newMac();
+    }
+
+    public static TokenService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Emitir un token para un usuario ya autenticado
+     */
+    public String issue(User user) {
+        long now = System.currentTimeMillis() / 1000;
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", user.getUsername());
+        claims.put("role", user.getRole());
+        if (user.getPatientId() != null) {
+            claims.put("pid", user.getPatientId());
+        }
+        claims.put("iat", now);
+        claims.put("exp", now + ttlSeconds);
+
+        try {
+            String payload = ENCODER.encodeToString(objectMapper.writeValueAsBytes(claims));
+            String signingInput = HEADER + "." + payload;
+            return signingInput + "." + ENCODER.encodeToString(sign(signingInput));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo serializar el token", e);
+        }
+    }
+
+    /**
+     * Verificar un token
+     * @return Usuario del token (sin contraseña) o null si la firma no es válida o expiró
+     */
+    public User verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int firstDot = token.indexOf('.');
+        int lastDot = token.lastIndexOf('.');
+        if (firstDot <= 0 || lastDot == firstDot || !token.startsWith(HEADER + ".")) {
+            return null;
+        }
+        String signingInput = token.substring(0, lastDot);
+        try {
+            byte[] signature = DECODER.decode(token.substring(lastDot + 1));
+            if (!MessageDigest.isEqual(signature, sign(signingInput))) {
+                return null;
+            }
+            Map<String, Object> claims = objectMapper.readValue(
+                DECODER.decode(token.substring(firstDot + 1, lastDot)), new TypeReference<Map<String, Object>>() {});
+            Object exp = claims.get("exp");
+            if (!(exp instanceof Number) || ((Number) exp).longValue() <= System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            Object username = claims.get("sub");
+            Object role = claims.get("role");
+            if (!(username instanceof String) || !(role instanceof String)) {
+                return null;
+            }
+            Object patientId = claims.get("pid");
+            return new User((String) username, null, (String) role,
+                patientId instanceof String ? (String) patientId : null, null);
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    private byte[] sign(String signingInput) {
+        Mac mac;
+        try {
+            // Clonar el Mac ya inicializado evita repetir getInstance/init en cada petición
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            mac = newMac();
+        }
+        return mac.doFinal(signingInput.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 no disponible", e);
+        }
+    }
+}
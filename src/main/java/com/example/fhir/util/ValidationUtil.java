@@ -4,16 +4,27 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.ValidationResult;
+import com.example.fhir.cache.ValidationResultCache;
+import com.example.fhir.metrics.MetricsRegistry;
 import org.hl7.fhir.r4.model.Resource;
 
 /**
  * Utilidad para validar recursos FHIR
  * Usa el validador integrado de HAPI FHIR
+ *
+ * Los resultados se guardan en ValidationResultCache: un recurso idéntico a uno ya validado
+ * no vuelve a pasar por el validador (-Dfhir.validation.cacheSize, 0 la deshabilita).
  */
 public class ValidationUtil {
     
-    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
-    private static final FhirValidator VALIDATOR = FHIR_CONTEXT.newValidator();
+    private static final FhirContext FHIR_CONTEXT = FhirContextRegistry.getR4Context();
+    private static final FhirValidator VALIDATOR = FhirContextRegistry.getValidator();
+    // Identifica la configuración del validador en la clave de la caché (perfiles activos)
+    private static final String VALIDATOR_PROFILES = "hapi-r4-default";
+    private static final int CACHE_SIZE = Integer.getInteger("fhir.validation.cacheSize", 10000);
+    private static final ValidationResultCache CACHE = CACHE_SIZE > 0
+        ? new ValidationResultCache(FHIR_CONTEXT, VALIDATOR_PROFILES, CACHE_SIZE)
+        : null;
     
     /**
      * Valida un recurso FHIR
@@ -21,20 +32,44 @@ public class ValidationUtil {
      * @throws UnprocessableEntityException Si el recurso no es válido
      */
     public static void validateResource(Resource resource) {
+        long startTime = System.nanoTime();
+        String errors = CACHE != null
+            ? CACHE.validate(resource, () -> runValidator(resource))
+            : runValidator(resource);
+        MetricsRegistry.getInstance().recordValidation(resource.fhirType(), System.nanoTime() - startTime);
+        
+        if (errors != null) {
+            throw new UnprocessableEntityException(errors);
+        }
+    }
+    
+    /**
+     * Caché de resultados de validación (null si está deshabilitada)
+     */
+    public static ValidationResultCache getCache() {
+        return CACHE;
+    }
+    
+    /**
+     * Ejecutar el validador
+     * @return null si el recurso es válido, o el mensaje con los errores
+     */
+    private static String runValidator(Resource resource) {
         ValidationResult result = VALIDATOR.validateWithResult(resource);
         
-        if (!result.isSuccessful()) {
-            StringBuilder errors = new StringBuilder();
-            errors.append("El recurso no cumple con el estándar FHIR R4:\n");
-            
-            result.getMessages().forEach(message -> {
-                errors.append("- ").append(message.getSeverity())
-                      .append(": ").append(message.getMessage())
-                      .append(" (en: ").append(message.getLocationString()).append(")\n");
-            });
-            
-            throw new UnprocessableEntityException(errors.toString());
+        if (result.isSuccessful()) {
+            return null;
         }
+        
+        StringBuilder errors = new StringBuilder();
+        errors.append("El recurso no cumple con el estándar FHIR R4:\n");
+        
+        result.getMessages().forEach(message -> {
+            errors.append("- ").append(message.getSeverity())
+                  .append(": ").append(message.getMessage())
+                  .append(" (en: ").append(message.getLocationString()).append(")\n");
+        });
+        
+        return errors.toString();
     }
 }
-
@@ -0,0 +1,36 @@
+package com.example.fhir;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FhirServerStartupTest {
+
+    @Test
+    void servletStartsAndPublishesOperations() throws Exception {
+        FhirTestServer server = FhirTestServer.get();
+
+        HttpResponse<String> response = server.get("metadata", FhirTestServer.ADMIN);
+        assertEquals(200, response.statusCode(), response.body());
+
+        Set<String> operations = new HashSet<>();
+        CapabilityStatement capabilities = server.parse(CapabilityStatement.class, response);
+        capabilities.getRestFirstRep().getResource().forEach(resource ->
+            resource.getOperation().forEach(operation -> operations.add(resource.getType() + "/$" + operation.getName())));
+        assertTrue(operations.contains("Observation/$lastn"), operations.toString());
+        assertTrue(operations.contains("Observation/$stats"), operations.toString());
+        assertTrue(operations.contains("Patient/$everything"), operations.toString());
+    }
+
+    @Test
+    void unauthenticatedRequestIsRejected() throws Exception {
+        HttpResponse<String> response = FhirTestServer.get().get("Patient", null);
+        assertEquals(401, response.statusCode());
+    }
+}
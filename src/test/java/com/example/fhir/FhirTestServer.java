@@ -0,0 +1,187 @@
+package com.example.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.example.fhir.model.User;
+import com.example.fhir.storage.UserStorage;
+import com.example.fhir.util.FhirContextRegistry;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * FhirServerMain en un Jetty embebido (puerto efímero) para las pruebas HTTP
+ *
+ * Los singletons (UserStorage, AccessPolicy, log de auditoría) leen su configuración al cargarse,
+ * así que el servidor es uno solo por JVM y las propiedades se fijan antes de arrancarlo:
+ * usuarios y auditoría en target/test-server, la política de src/test/resources, sin ciclos
+ * de warm-up y varios workers de ingesta aunque la máquina tenga un solo procesador. Cada prueba crea sus propios recursos para no depender del orden de ejecución.
+ */
+public final class FhirTestServer {
+
+    public static final String ADMIN = "admin:admin123";
+    public static final String USER = "user:user123";
+
+    private static final Path DIRECTORY = Paths.get("target", "test-server");
+    private static FhirTestServer instance;
+
+    private final String baseUrl;
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final FhirContext fhirContext = FhirContextRegistry.getR4Context();
+
+    private FhirTestServer(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Servidor compartido; se inicia en la primera llamada y se detiene al terminar la JVM
+     * Falla si el servlet no se inicializa (ej: una operación con parámetros inválidos)
+     */
+    public static synchronized FhirTestServer get() throws Exception {
+        if (instance == null) {
+            configure();
+            Server server = new Server();
+            ServerConnector connector = new ServerConnector(server);
+            connector.setPort(0);
+            server.addConnector(connector);
+            ServletContextHandler context = new ServletContextHandler();
+            context.setContextPath("/");
+            ServletHolder holder = new ServletHolder(new FhirServerMain());
+            holder.setInitOrder(0);
+            context.addServlet(holder, "/fhir/*");
+            server.setHandler(context);
+            server.setStopAtShutdown(true);
+            server.start();
+            instance = new FhirTestServer("http://localhost:" + connector.getLocalPort() + "/fhir/");
+        }
+        return instance;
+    }
+
+    private static void configure() throws IOException {
+        if (Files.exists(DIRECTORY)) {
+            try (Stream<Path> files = Files.walk(DIRECTORY)) {
+                for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+        Files.createDirectories(DIRECTORY);
+        setIfAbsent("fhir.users.dir", DIRECTORY.toString());
+        setIfAbsent("fhir.audit.file", DIRECTORY.resolve("fhir-audit.log").toString());
+        setIfAbsent("fhir.auth.policyFile", Paths.get("src", "test", "resources", "access-policy-test.properties").toString());
+        setIfAbsent("fhir.warmup.iterations", "0");
+        setIfAbsent("fhir.auth.pbkdf2Iterations", "1000");
+        setIfAbsent("fhir.ingest.workers", "4");
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Registrar un usuario con el rol indicado (de la política de pruebas)
+     * @return Credenciales usuario:contraseña para HTTP Basic
+     */
+    public String createUser(String username, String role, String patientId) {
+        UserStorage users = UserStorage.getInstance();
+        if (!users.userExists(username)) {
+            users.registerUser(username, "secret-" + username, username + "@example.com", patientId);
+            User user = users.getUser(username);
+            user.setRole(role);
+            users.updateUser(user);
+        }
+        return username + ":secret-" + username;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public FhirContext getFhirContext() {
+        return fhirContext;
+    }
+
+    // ===== Peticiones =====
+
+    /**
+     * @param credentials usuario:contraseña para HTTP Basic (null = sin autenticación)
+     */
+    public HttpResponse<String> get(String path, String credentials) {
+        return send(builder(path, credentials).GET());
+    }
+
+    public HttpResponse<String> post(String path, IBaseResource resource, String credentials) {
+        return send(builder(path, credentials)
+            .header("Content-Type", "application/fhir+json")
+            .POST(HttpRequest.BodyPublishers.ofString(encode(resource))));
+    }
+
+    public HttpResponse<String> put(String path, IBaseResource resource, String credentials) {
+        return send(builder(path, credentials)
+            .header("Content-Type", "application/fhir+json")
+            .PUT(HttpRequest.BodyPublishers.ofString(encode(resource))));
+    }
+
+    public HttpResponse<String> delete(String path, String credentials) {
+        return send(builder(path, credentials).DELETE());
+    }
+
+    public HttpRequest.Builder builder(String path, String credentials) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path.replace("|", "%7C")))
+            .header("Accept", "application/fhir+json");
+        if (credentials != null) {
+            builder.header("Authorization", "Basic "
+                + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+        return builder;
+    }
+
+    public HttpResponse<String> send(HttpRequest.Builder builder) {
+        try {
+            return client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ===== Cuerpos =====
+
+    public String encode(IBaseResource resource) {
+        return fhirContext.newJsonParser().encodeResourceToString(resource);
+    }
+
+    public <T extends IBaseResource> T parse(Class<T> type, HttpResponse<String> response) {
+        return fhirContext.newJsonParser().parseResource(type, response.body());
+    }
+
+    /**
+     * Id lógico del recurso creado, tomado del header Location
+     */
+    public static String createdId(HttpResponse<String> response) {
+        String location = response.headers().firstValue("Location")
+            .orElseThrow(() -> new IllegalStateException("Respuesta sin Location: " + response.statusCode()));
+        String path = location.substring(location.indexOf("/fhir/") + "/fhir/".length());
+        String[] parts = path.split("/");
+        return parts[1];
+    }
+}
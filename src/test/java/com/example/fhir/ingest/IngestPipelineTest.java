@@ -0,0 +1,103 @@
+package com.example.fhir.ingest;
+
+import com.example.fhir.FhirTestServer;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Escrituras con "Prefer: respond-async" a través del servidor HTTP
+ */
+class IngestPipelineTest {
+
+    private static FhirTestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = FhirTestServer.get();
+    }
+
+    @Test
+    void acceptedResponseLinksToJobStatus() throws Exception {
+        Patient patient = new Patient();
+        patient.addName().setFamily("Asincrono");
+        HttpResponse<String> response = submit("POST", "Patient", patient);
+
+        assertEquals(202, response.statusCode(), response.body());
+        String statusUrl = response.headers().firstValue("Content-Location").orElse("");
+        assertTrue(statusUrl.startsWith(server.getBaseUrl() + "$ingest-status?job="), statusUrl);
+        assertFalse(response.headers().firstValue("Location").isPresent());
+        OperationOutcome outcome = server.parse(OperationOutcome.class, response);
+        assertTrue(outcome.getIssueFirstRep().getDiagnostics().endsWith(statusUrl), outcome.getIssueFirstRep().getDiagnostics());
+
+        Parameters status = awaitCompletion(statusUrl);
+        assertEquals("accepted", status.getParameter("status").getValue().primitiveValue());
+        String location = status.getParameter("location").getValue().primitiveValue();
+        HttpResponse<String> read = server.get(location.substring(server.getBaseUrl().length()), FhirTestServer.ADMIN);
+        assertEquals(200, read.statusCode(), read.body());
+        assertEquals("Asincrono", server.parse(Patient.class, read).getNameFirstRep().getFamily());
+    }
+
+    @Test
+    void updatesOfSameResourceApplyInArrivalOrder() throws Exception {
+        Patient patient = new Patient();
+        patient.addName().setFamily("Orden-0");
+        HttpResponse<String> created = server.post("Patient", patient, FhirTestServer.ADMIN);
+        assertEquals(201, created.statusCode(), created.body());
+        String id = FhirTestServer.createdId(created);
+
+        List<String> statusUrls = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            Patient update = new Patient();
+            update.setId(id);
+            update.addName().setFamily("Orden-" + i);
+            HttpResponse<String> response = submit("PUT", "Patient/" + id, update);
+            assertEquals(202, response.statusCode(), response.body());
+            statusUrls.add(response.headers().firstValue("Content-Location").orElseThrow());
+        }
+        for (String statusUrl : statusUrls) {
+            assertEquals("accepted", awaitCompletion(statusUrl).getParameter("status").getValue().primitiveValue());
+        }
+
+        HttpResponse<String> read = server.get("Patient/" + id, FhirTestServer.ADMIN);
+        assertEquals(200, read.statusCode(), read.body());
+        assertEquals("Orden-50", server.parse(Patient.class, read).getNameFirstRep().getFamily());
+    }
+
+    private static HttpResponse<String> submit(String method, String path, Resource resource) {
+        return server.send(server.builder(path, FhirTestServer.ADMIN)
+            .header("Content-Type", "application/fhir+json")
+            .header("Prefer", "respond-async")
+            .method(method, HttpRequest.BodyPublishers.ofString(server.encode(resource))));
+    }
+
+    /**
+     * Consultar $ingest-status hasta que el trabajo deje de estar pendiente
+     */
+    private static Parameters awaitCompletion(String statusUrl) throws InterruptedException {
+        String path = statusUrl.substring(server.getBaseUrl().length());
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            HttpResponse<String> response = server.get(path, FhirTestServer.ADMIN);
+            assertEquals(200, response.statusCode(), response.body());
+            Parameters status = server.parse(Parameters.class, response);
+            if (!"pending".equals(status.getParameter("status").getValue().primitiveValue())) {
+                return status;
+            }
+            assertTrue(System.currentTimeMillis() < deadline, "Trabajo pendiente tras 10 s: " + statusUrl);
+            Thread.sleep(20);
+        }
+    }
+}
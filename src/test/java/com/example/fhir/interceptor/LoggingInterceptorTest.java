@@ -0,0 +1,107 @@
+package com.example.fhir.interceptor;
+
+import com.example.fhir.FhirTestServer;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Líneas del log de auditoría de peticiones reales (cada prueba usa su propio usuario)
+ */
+class LoggingInterceptorTest {
+
+    private static FhirTestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = FhirTestServer.get();
+    }
+
+    @Test
+    void createLogsOperationAndStatus() throws Exception {
+        String credentials = server.createUser("audit-create", "admin", null);
+        Patient patient = new Patient();
+        patient.addName().setFamily("Auditoria");
+        assertEquals(201, server.post("Patient", patient, credentials).statusCode());
+
+        List<String> lines = awaitLines("USUARIO=audit-create", 2);
+        assertTrue(lines.get(0).contains("OPERACION=CREATE | METODO=POST | PATH=Patient"), lines.toString());
+        assertTrue(lines.get(1).contains("RESPUESTA | PATH=Patient | STATUS=201"), lines.toString());
+    }
+
+    @Test
+    void errorResponsesLogTheirStatus() throws Exception {
+        String credentials = server.createUser("audit-missing", "admin", null);
+        assertEquals(404, server.get("Patient/does-not-exist", credentials).statusCode());
+        String reader = server.createUser("audit-forbidden", "vitals", null);
+        assertEquals(403, server.delete("Patient/does-not-exist", reader).statusCode());
+
+        List<String> missing = awaitLines("USUARIO=audit-missing", 2);
+        assertTrue(missing.get(1).contains("STATUS=404"), missing.toString());
+        // Rechazada por la política: sin línea de petición, la respuesta lleva el 403
+        List<String> forbidden = awaitLines("USUARIO=audit-forbidden", 1);
+        assertTrue(forbidden.get(0).contains("RESPUESTA | PATH=Patient/does-not-exist | STATUS=403"), forbidden.toString());
+    }
+
+    @Test
+    void streamingSearchLogsOneResponse() throws Exception {
+        String credentials = server.createUser("audit-stream", "admin", null);
+        assertEquals(200, server.send(server.builder("Patient", credentials)
+            .header(StreamingSearchInterceptor.STREAM_HEADER, "true").GET()).statusCode());
+
+        List<String> lines = awaitLines("USUARIO=audit-stream", 2);
+        Thread.sleep(200);
+        lines = readLines("USUARIO=audit-stream");
+        assertEquals(2, lines.size(), lines.toString());
+        assertTrue(lines.get(1).contains("STATUS=200"), lines.toString());
+    }
+
+    @Test
+    void cachedReadLogsItsResponse() throws Exception {
+        Patient patient = new Patient();
+        patient.addName().setFamily("Cache");
+        String patientId = FhirTestServer.createdId(server.post("Patient", patient, FhirTestServer.ADMIN));
+        String credentials = server.createUser("audit-cache", "admin", null);
+        // La segunda lectura la escribe SerializedResponseInterceptor desde la caché
+        assertEquals(200, server.get("Patient/" + patientId, credentials).statusCode());
+        assertEquals(200, server.get("Patient/" + patientId, credentials).statusCode());
+
+        List<String> responses = awaitLines("USUARIO=audit-cache", 4).stream()
+            .filter(line -> line.contains("RESPUESTA | PATH=Patient/" + patientId + " | STATUS=200"))
+            .collect(Collectors.toList());
+        assertEquals(2, responses.size(), responses.toString());
+    }
+
+    /**
+     * Esperar a que el escritor asíncrono deje al menos count líneas con el texto indicado
+     */
+    private static List<String> awaitLines(String text, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<String> lines = readLines(text);
+        while (lines.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            lines = readLines(text);
+        }
+        assertEquals(count, lines.size(), lines.toString());
+        return lines;
+    }
+
+    private static List<String> readLines(String text) throws Exception {
+        Path file = Path.of(System.getProperty("fhir.audit.file"));
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        return Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+            .filter(line -> line.contains(text))
+            .collect(Collectors.toList());
+    }
+}
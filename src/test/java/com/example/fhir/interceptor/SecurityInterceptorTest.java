@@ -0,0 +1,88 @@
+package com.example.fhir.interceptor;
+
+import com.example.fhir.FhirTestServer;
+import com.example.fhir.metrics.MetricsRegistry;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Autenticación y política de acceso a través del servidor HTTP
+ * (política de src/test/resources/access-policy-test.properties)
+ */
+class SecurityInterceptorTest {
+
+    private static final String STATS_QUERY = "Observation/$stats?patient=Patient/none&code=http://loinc.org|8867-4";
+    private static final String LASTN_QUERY = "Observation/$lastn?patient=Patient/none";
+
+    private static FhirTestServer server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = FhirTestServer.get();
+    }
+
+    @Test
+    void invalidCredentialsAreRejected() {
+        assertEquals(401, server.get("Patient", "admin:wrong").statusCode());
+    }
+
+    @Test
+    void operationOutsideRoleIsForbidden() {
+        Patient patient = new Patient();
+        patient.addName().setFamily("Prohibido");
+        HttpResponse<String> response = server.post("Patient", patient, FhirTestServer.USER);
+        assertEquals(403, response.statusCode(), response.body());
+
+        assertEquals(201, server.post("Patient", patient, FhirTestServer.ADMIN).statusCode());
+    }
+
+    @Test
+    void typeOutsideRoleIsForbidden() {
+        Patient patient = new Patient();
+        patient.addName().setFamily("Compartimento");
+        String patientId = FhirTestServer.createdId(server.post("Patient", patient, FhirTestServer.ADMIN));
+
+        String reader = server.createUser("vitals-reader", "vitals", null);
+        assertEquals(200, server.get("Patient/" + patientId, reader).statusCode());
+        // vitals no tiene EXTENDED_OPERATION_INSTANCE sobre Patient
+        assertEquals(403, server.get("Patient/" + patientId + "/$everything", reader).statusCode());
+    }
+
+    @Test
+    void authenticationTimeIsRecordedByOperation() throws Exception {
+        Patient patient = new Patient();
+        patient.addName().setFamily("Metricas");
+        String patientId = FhirTestServer.createdId(server.post("Patient", patient, FhirTestServer.ADMIN));
+
+        long before = authenticationCount("vread");
+        assertEquals(200, server.get("Patient/" + patientId + "/_history/1", FhirTestServer.ADMIN).statusCode());
+        assertEquals(before + 1, authenticationCount("vread"));
+    }
+
+    @Test
+    void extendedOperationRequiresItsName() {
+        String vitals = server.createUser("vitals-operations", "vitals", null);
+        HttpResponse<String> allowed = server.get(LASTN_QUERY, vitals);
+        assertEquals(200, allowed.statusCode(), allowed.body());
+
+        HttpResponse<String> forbidden = server.get(STATS_QUERY, vitals);
+        assertEquals(403, forbidden.statusCode(), forbidden.body());
+
+        // Con el nombre en operations.admin.* la misma petición llega al provider
+        assertEquals(200, server.get(STATS_QUERY, FhirTestServer.ADMIN).statusCode());
+    }
+
+    private static long authenticationCount(String operation) throws Exception {
+        StringWriter out = new StringWriter();
+        MetricsRegistry.getInstance().writePrometheus(out);
+        String prefix = "fhir_authentication_duration_seconds_count{operation=\"" + operation + "\"} ";
+        return out.toString().lines().filter(line -> line.startsWith(prefix))
+            .mapToLong(line -> Long.parseLong(line.substring(prefix.length()))).findFirst().orElse(0);
+    }
+}
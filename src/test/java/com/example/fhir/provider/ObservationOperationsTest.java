@@ -0,0 +1,94 @@
+package com.example.fhir.provider;
+
+import com.example.fhir.FhirTestServer;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Quantity;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Operaciones de Observation ($lastn, $stats) a través del servidor HTTP
+ */
+class ObservationOperationsTest {
+
+    private static final String LOINC = "http://loinc.org";
+    private static final String HEART_RATE = "8867-4";
+    private static final String BODY_TEMPERATURE = "8310-5";
+
+    private static FhirTestServer server;
+    private static String patientId;
+
+    @BeforeAll
+    static void createPatient() throws Exception {
+        server = FhirTestServer.get();
+        Patient patient = new Patient();
+        patient.addName().setFamily("Operaciones");
+        HttpResponse<String> created = server.post("Patient", patient, FhirTestServer.ADMIN);
+        assertEquals(201, created.statusCode(), created.body());
+        patientId = FhirTestServer.createdId(created);
+    }
+
+    @Test
+    void lastNReturnsMostRecentFirst() {
+        createObservation(HEART_RATE, "2024-01-01T08:00:00Z", 60, "/min");
+        createObservation(HEART_RATE, "2024-01-03T08:00:00Z", 80, "/min");
+        createObservation(HEART_RATE, "2024-01-02T08:00:00Z", 70, "/min");
+
+        HttpResponse<String> response = server.get("Observation/$lastn?patient=Patient/" + patientId
+            + "&code=" + LOINC + "|" + HEART_RATE + "&max=2", FhirTestServer.ADMIN);
+        assertEquals(200, response.statusCode(), response.body());
+
+        List<Double> values = server.parse(Bundle.class, response).getEntry().stream()
+            .map(entry -> ((Observation) entry.getResource()).getValueQuantity().getValue().doubleValue())
+            .collect(Collectors.toList());
+        assertEquals(List.of(80.0, 70.0), values);
+    }
+
+    @Test
+    void statsKeepsOneBlockPerUnit() {
+        createObservation(BODY_TEMPERATURE, "2024-02-01T08:00:00Z", 36.5, "Cel");
+        createObservation(BODY_TEMPERATURE, "2024-02-02T08:00:00Z", 37.5, "Cel");
+        createObservation(BODY_TEMPERATURE, "2024-02-03T08:00:00Z", 99.5, "[degF]");
+
+        HttpResponse<String> response = server.get("Observation/$stats?patient=Patient/" + patientId
+            + "&code=" + LOINC + "|" + BODY_TEMPERATURE, FhirTestServer.ADMIN);
+        assertEquals(200, response.statusCode(), response.body());
+
+        Parameters result = server.parse(Parameters.class, response);
+        assertEquals(3, ((IntegerType) result.getParameter("count").getValue()).getValue());
+        Map<String, Double> maximumByUnit = new HashMap<>();
+        for (Parameters.ParametersParameterComponent block : result.getParameters("stats")) {
+            String unit = block.getPart().stream().filter(part -> "unit".equals(part.getName()))
+                .map(part -> part.getValue().primitiveValue()).findFirst().orElseThrow();
+            double maximum = block.getPart().stream().filter(part -> "maximum".equals(part.getName()))
+                .map(part -> ((Quantity) part.getValue()).getValue().doubleValue()).findFirst().orElseThrow();
+            maximumByUnit.put(unit, maximum);
+        }
+        assertEquals(Map.of("Cel", 37.5, "[degF]", 99.5), maximumByUnit);
+    }
+
+    private String createObservation(String code, String effective, double value, String unit) {
+        Observation observation = new Observation();
+        observation.setStatus(Observation.ObservationStatus.FINAL);
+        observation.getCode().addCoding().setSystem(LOINC).setCode(code);
+        observation.getSubject().setReference("Patient/" + patientId);
+        observation.setEffective(new DateTimeType(effective));
+        observation.setValue(new Quantity().setValue(value).setUnit(unit).setSystem("http://unitsofmeasure.org").setCode(unit));
+        HttpResponse<String> created = server.post("Observation", observation, FhirTestServer.ADMIN);
+        assertEquals(201, created.statusCode(), created.body());
+        return FhirTestServer.createdId(created);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.fhir.provider;
+
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import com.example.fhir.FhirTestServer;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Búsqueda de Observations por fecha a través del servidor HTTP
+ * Los instantes se expresan en la zona horaria del servidor (la de la JVM de las pruebas)
+ */
+class ObservationSearchTest {
+
+    private static FhirTestServer server;
+    private static String patientId;
+
+    @BeforeAll
+    static void createObservations() throws Exception {
+        server = FhirTestServer.get();
+        Patient patient = new Patient();
+        patient.addName().setFamily("Fechas");
+        patientId = FhirTestServer.createdId(server.post("Patient", patient, FhirTestServer.ADMIN));
+
+        createObservation("before", at(2024, 3, 9, 23, 59, 59));
+        createObservation("first", at(2024, 3, 10, 0, 0, 0));
+        createObservation("last", at(2024, 3, 10, 23, 59, 59));
+        createObservation("after", at(2024, 3, 11, 0, 0, 0));
+        createObservation("date-only", new DateTimeType("2024-03-10"));
+    }
+
+    @Test
+    void dayCoversExactlyItsCalendarDay() {
+        assertEquals(Set.of("first", "last", "date-only"), search("date=2024-03-10"));
+        assertEquals(Set.of("first", "last", "date-only"), search("date=ge2024-03-10&date=lt2024-03-11"));
+        assertEquals(Set.of("after"), search("date=gt2024-03-10"));
+        assertEquals(Set.of("before"), search("date=lt2024-03-10"));
+    }
+
+    @Test
+    void coarserPrecisionCoversItsPeriod() {
+        assertEquals(Set.of("before", "first", "last", "after", "date-only"), search("date=2024-03"));
+        assertEquals(Set.of(), search("date=2024-02"));
+        assertEquals(Set.of(), search("date=gt2024"));
+    }
+
+    @Test
+    void timeValuesCompareAsInstants() {
+        String firstInstant = at(2024, 3, 10, 0, 0, 0).getValueAsString();
+        assertEquals(Set.of("last", "after"), search("date=gt" + firstInstant.replace("+", "%2B")));
+    }
+
+    private static Set<String> search(String dateQuery) {
+        HttpResponse<String> response = server.get("Observation?subject=Patient/" + patientId + "&" + dateQuery
+            + "&_count=100", FhirTestServer.ADMIN);
+        assertEquals(200, response.statusCode(), response.body());
+        Set<String> labels = new TreeSet<>();
+        for (Bundle.BundleEntryComponent entry : server.parse(Bundle.class, response).getEntry()) {
+            labels.add(((Observation) entry.getResource()).getCode().getText());
+        }
+        return labels;
+    }
+
+    private static DateTimeType at(int year, int month, int day, int hour, int minute, int second) {
+        Date value = Date.from(LocalDateTime.of(year, month, day, hour, minute, second).atZone(ZoneId.systemDefault()).toInstant());
+        return new DateTimeType(value, TemporalPrecisionEnum.SECOND, TimeZone.getDefault());
+    }
+
+    private static void createObservation(String label, DateTimeType effective) {
+        Observation observation = new Observation();
+        observation.setStatus(Observation.ObservationStatus.FINAL);
+        observation.getCode().setText(label).addCoding().setSystem("http://loinc.org").setCode("8867-4");
+        observation.getSubject().setReference("Patient/" + patientId);
+        observation.setEffective(effective);
+        HttpResponse<String> created = server.post("Observation", observation, FhirTestServer.ADMIN);
+        assertEquals(201, created.statusCode(), created.body());
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.fhir.provider;
+
+import com.example.fhir.FhirTestServer;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Búsqueda de Patients por fecha de nacimiento a través del servidor HTTP
+ */
+class PatientSearchTest {
+
+    private static final String FAMILY = "Nacimientos";
+
+    private static FhirTestServer server;
+
+    @BeforeAll
+    static void createPatients() throws Exception {
+        server = FhirTestServer.get();
+        createPatient("1979-12-31");
+        createPatient("1980-01-01");
+        createPatient("1980-01-02");
+    }
+
+    @Test
+    void birthdateComparesWholeDays() {
+        assertEquals(Set.of("1980-01-01"), search("birthdate=1980-01-01"));
+        assertEquals(Set.of("1979-12-31", "1980-01-01"), search("birthdate=lt1980-01-02"));
+        assertEquals(Set.of("1980-01-02"), search("birthdate=gt1980-01-01"));
+        assertEquals(Set.of("1980-01-01", "1980-01-02"), search("birthdate=ge1980-01-01&birthdate=le1980-01-02"));
+        assertEquals(Set.of("1980-01-01", "1980-01-02"), search("birthdate=1980"));
+    }
+
+    @Test
+    void timeValueIsReducedToItsDay() {
+        String noon = ZonedDateTime.of(1980, 1, 1, 12, 0, 0, 0, ZoneId.systemDefault()).toOffsetDateTime().toString();
+        assertEquals(Set.of("1980-01-01", "1980-01-02"), search("birthdate=gt" + noon.replace("+", "%2B")));
+        assertEquals(Set.of("1979-12-31", "1980-01-01"), search("birthdate=lt" + noon.replace("+", "%2B")));
+    }
+
+    private static Set<String> search(String birthdateQuery) {
+        HttpResponse<String> response = server.get("Patient?name=" + FAMILY + "&" + birthdateQuery, FhirTestServer.ADMIN);
+        assertEquals(200, response.statusCode(), response.body());
+        Set<String> birthDates = new TreeSet<>();
+        for (Bundle.BundleEntryComponent entry : server.parse(Bundle.class, response).getEntry()) {
+            birthDates.add(((Patient) entry.getResource()).getBirthDateElement().getValueAsString());
+        }
+        return birthDates;
+    }
+
+    private static void createPatient(String birthDate) {
+        Patient patient = new Patient();
+        patient.addName().setFamily(FAMILY);
+        patient.setBirthDateElement(new DateType(birthDate));
+        HttpResponse<String> created = server.post("Patient", patient, FhirTestServer.ADMIN);
+        assertEquals(201, created.statusCode(), created.body());
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.fhir.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Planificador de BitmapQuery: el resultado no depende del orden en que se agregan las
+ * condiciones ni del camino elegido (combinar bitmaps o probar pertenencia), y los bitmaps de
+ * los índices no se modifican
+ */
+class BitmapQueryTest {
+
+    private static final int ORDINALS = 200_000;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Test
+    void clauseOrderDoesNotChangeResult() {
+        Random random = new Random(10);
+        Bitmap all = range(0, ORDINALS);
+        Bitmap even = filter(ORDINALS, ordinal -> ordinal % 2 == 0);
+        Bitmap multiplesOfThree = filter(ORDINALS, ordinal -> ordinal % 3 == 0);
+        Bitmap sparse = new Bitmap();
+        for (int i = 0; i < 500; i++) {
+            sparse.add(random.nextInt(ORDINALS));
+        }
+        DateIndex dates = new DateIndex();
+        for (int ordinal = 0; ordinal < ORDINALS; ordinal++) {
+            dates.add(ordinal, ordinal * 1000L);
+        }
+        long from = 20_000 * 1000L;
+        long to = 150_000 * 1000L;
+
+        IntPredicate expected = ordinal -> (ordinal % 2 == 0 || sparse.contains(ordinal))
+            && ordinal % 3 == 0 && ordinal >= 20_000 && ordinal <= 150_000;
+
+        Bitmap first = new BitmapQuery()
+            .anyOf(List.of(even, sparse))
+            .anyOf(List.of(multiplesOfThree))
+            .range(dates, from, to)
+            .execute(all);
+        Bitmap second = new BitmapQuery()
+            .range(dates, from, to)
+            .anyOf(List.of(multiplesOfThree))
+            .anyOf(List.of(sparse, even))
+            .execute(all);
+
+        assertContent(filter(ORDINALS, expected), first);
+        assertContent(filter(ORDINALS, expected), second);
+    }
+
+    @Test
+    void selectiveClauseProbesTheOthers() {
+        // 10 candidatos contra condiciones de 100.000: se prueba la pertenencia ordinal por ordinal
+        Bitmap all = range(0, ORDINALS);
+        Bitmap few = new Bitmap();
+        for (int ordinal = 0; ordinal < 100; ordinal += 10) {
+            few.add(ordinal);
+        }
+        Bitmap firstHalf = range(0, 100_000);
+        Bitmap multiplesOfTwenty = filter(ORDINALS, ordinal -> ordinal % 20 == 0);
+        DateIndex dates = new DateIndex();
+        for (int ordinal = 0; ordinal < ORDINALS; ordinal++) {
+            dates.add(ordinal, ordinal * (DAY / 1000));
+        }
+
+        Bitmap result = new BitmapQuery()
+            .anyOf(List.of(firstHalf, multiplesOfTwenty))
+            .range(dates, 30 * (DAY / 1000), 200_000 * (DAY / 1000))
+            .anyOf(List.of(few))
+            .execute(all);
+
+        assertContent(filter(ORDINALS, ordinal -> ordinal < 100 && ordinal % 10 == 0 && ordinal >= 30), result);
+    }
+
+    @Test
+    void indexBitmapsAreNotModified() {
+        Bitmap all = range(0, 10_000);
+        Bitmap left = range(0, 6_000);
+        Bitmap right = range(4_000, 10_000);
+
+        Bitmap result = new BitmapQuery().anyOf(List.of(left)).anyOf(List.of(right)).execute(all);
+
+        assertContent(range(4_000, 6_000), result);
+        assertEquals(6_000, left.cardinality());
+        assertEquals(6_000, right.cardinality());
+        assertEquals(10_000, all.cardinality());
+    }
+
+    @Test
+    void emptyAnyOfMatchesNothing() {
+        Bitmap all = range(0, 1_000);
+        Bitmap result = new BitmapQuery().anyOf(List.of(all)).anyOf(new ArrayList<>()).execute(all);
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    void withoutClausesReturnsACopyOfAll() {
+        Bitmap all = range(0, 1_000);
+        Bitmap result = new BitmapQuery().execute(all);
+        result.remove(0);
+        assertEquals(999, result.cardinality());
+        assertEquals(1_000, all.cardinality());
+    }
+
+    private static Bitmap range(int from, int to) {
+        Bitmap bitmap = new Bitmap();
+        for (int ordinal = from; ordinal < to; ordinal++) {
+            bitmap.add(ordinal);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap filter(int limit, IntPredicate predicate) {
+        Bitmap bitmap = new Bitmap();
+        for (int ordinal = 0; ordinal < limit; ordinal++) {
+            if (predicate.test(ordinal)) {
+                bitmap.add(ordinal);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertContent(Bitmap expected, Bitmap actual) {
+        List<Integer> expectedOrdinals = new ArrayList<>();
+        expected.forEach(expectedOrdinals::add);
+        List<Integer> actualOrdinals = new ArrayList<>();
+        actual.forEach(actualOrdinals::add);
+        assertEquals(expectedOrdinals, actualOrdinals);
+    }
+}
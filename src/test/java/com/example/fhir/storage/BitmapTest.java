@@ -0,0 +1,171 @@
+package com.example.fhir.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bitmap contra un TreeSet de referencia, con grupos dispersos (contenedor arreglo) y densos
+ * (contenedor bitset) y conversiones entre ambos
+ */
+class BitmapTest {
+
+    private static final int GROUP = 1 << 16;
+
+    @Test
+    void addRemoveAndContainsMatchReference() {
+        Random random = new Random(1);
+        Bitmap bitmap = new Bitmap();
+        TreeSet<Integer> reference = new TreeSet<>();
+        for (int i = 0; i < 200_000; i++) {
+            int ordinal = random.nextInt(4 * GROUP);
+            if (random.nextInt(4) == 0) {
+                bitmap.remove(ordinal);
+                reference.remove(ordinal);
+            } else {
+                bitmap.add(ordinal);
+                reference.add(ordinal);
+            }
+        }
+        assertSameContent(reference, bitmap);
+        for (int i = 0; i < 10_000; i++) {
+            int ordinal = random.nextInt(5 * GROUP);
+            assertEquals(reference.contains(ordinal), bitmap.contains(ordinal), "contains " + ordinal);
+        }
+    }
+
+    @Test
+    void denseGroupConvertsBackToArrayWhenEmptied() {
+        Bitmap bitmap = new Bitmap();
+        TreeSet<Integer> reference = new TreeSet<>();
+        // 10.000 valores en un grupo: pasa a bitset
+        for (int i = 0; i < 10_000; i++) {
+            bitmap.add(GROUP + i * 3);
+            reference.add(GROUP + i * 3);
+        }
+        assertSameContent(reference, bitmap);
+        // Vaciar casi todo: vuelve a arreglo; vaciar todo: el grupo desaparece
+        for (int i = 0; i < 9_990; i++) {
+            bitmap.remove(GROUP + i * 3);
+            reference.remove(GROUP + i * 3);
+        }
+        assertSameContent(reference, bitmap);
+        for (int ordinal : new ArrayList<>(reference)) {
+            bitmap.remove(ordinal);
+        }
+        assertTrue(bitmap.isEmpty());
+        assertEquals(0, bitmap.cardinality());
+    }
+
+    @Test
+    void andAcrossContainerKinds() {
+        Random random = new Random(2);
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Integer> left = randomSet(random);
+            TreeSet<Integer> right = randomSet(random);
+            Bitmap bitmap = bitmapOf(left);
+            Bitmap other = bitmapOf(right);
+
+            bitmap.and(other);
+            left.retainAll(right);
+            assertSameContent(left, bitmap);
+            assertSameContent(right, other);
+        }
+    }
+
+    @Test
+    void orAcrossContainerKinds() {
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Integer> left = randomSet(random);
+            TreeSet<Integer> right = randomSet(random);
+            Bitmap bitmap = bitmapOf(left);
+            Bitmap other = bitmapOf(right);
+
+            bitmap.or(other);
+            left.addAll(right);
+            assertSameContent(left, bitmap);
+            assertSameContent(right, other);
+
+            // El resultado no comparte contenedores con el otro operando
+            int added = right.isEmpty() ? 0 : right.first();
+            other.remove(added);
+            assertEquals(left.contains(added), bitmap.contains(added));
+        }
+    }
+
+    @Test
+    void retainKeepsMatchingOrdinals() {
+        Random random = new Random(4);
+        TreeSet<Integer> reference = randomSet(random);
+        Bitmap bitmap = bitmapOf(reference);
+
+        bitmap.retain(ordinal -> ordinal % 7 == 0);
+        reference.removeIf(ordinal -> ordinal % 7 != 0);
+        assertSameContent(reference, bitmap);
+    }
+
+    @Test
+    void selectReturnsOrdinalsInAscendingOrder() {
+        Random random = new Random(5);
+        TreeSet<Integer> reference = randomSet(random);
+        Bitmap bitmap = bitmapOf(reference);
+
+        int rank = 0;
+        for (int ordinal : reference) {
+            assertEquals(ordinal, bitmap.select(rank++), "rank " + (rank - 1));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> bitmap.select(reference.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> bitmap.select(-1));
+    }
+
+    @Test
+    void copyIsIndependent() {
+        Bitmap bitmap = bitmapOf(randomSet(new Random(6)));
+        Bitmap copy = bitmap.copy();
+        int cardinality = bitmap.cardinality();
+
+        copy.clear();
+        copy.add(7);
+        assertEquals(cardinality, bitmap.cardinality());
+        assertFalse(bitmap.isEmpty());
+        assertEquals(1, copy.cardinality());
+    }
+
+    /**
+     * Conjunto con grupos vacíos, dispersos y densos en los primeros 6 grupos de 16 bits
+     */
+    private static TreeSet<Integer> randomSet(Random random) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (int group = 0; group < 6; group++) {
+            int kind = random.nextInt(3);
+            int count = kind == 0 ? 0 : kind == 1 ? 1 + random.nextInt(3_000) : 5_000 + random.nextInt(30_000);
+            for (int i = 0; i < count; i++) {
+                set.add(group * GROUP + random.nextInt(GROUP));
+            }
+        }
+        return set;
+    }
+
+    private static Bitmap bitmapOf(TreeSet<Integer> values) {
+        Bitmap bitmap = new Bitmap();
+        values.forEach(bitmap::add);
+        return bitmap;
+    }
+
+    private static void assertSameContent(TreeSet<Integer> expected, Bitmap actual) {
+        assertEquals(expected.size(), actual.cardinality(), "cardinality");
+        assertEquals(expected.isEmpty(), actual.isEmpty(), "isEmpty");
+        List<Integer> visited = new ArrayList<>();
+        actual.forEach(visited::add);
+        assertEquals(new ArrayList<>(expected), visited);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.fhir.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Log segmentado del WAL y del journal de usuarios: reproducción con colas truncadas,
+ * rotación y coalesce
+ */
+class SegmentedLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replayDropsTornLastLine() throws IOException {
+        SegmentedLog log = newLog(false);
+        log.start();
+        log.append("Observation/123", "S\tObservation\t{\"id\":\"123\"}");
+        log.append("Observation/123", "D\tObservation\t123").join();
+        log.close();
+
+        // Corte a mitad de una escritura: "D\tObservation\t12" es un prefijo válido de otra baja
+        Path segment = directory.resolve("wal-1.log");
+        Files.writeString(segment, "D\tObservation\t12", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        List<String> lines = newLog(false).readSegments(0);
+        assertEquals(List.of("S\tObservation\t{\"id\":\"123\"}", "D\tObservation\t123"), lines);
+    }
+
+    @Test
+    void readLinesSkipsEmptyLinesAndKeepsUtf8() throws IOException {
+        Path file = directory.resolve("lines.log");
+        Files.writeString(file, "P\tañoño\n\nD\tjosé\nP\tpartial", StandardCharsets.UTF_8);
+
+        List<String> lines = new ArrayList<>();
+        SegmentedLog.readLines(file, lines);
+        assertEquals(List.of("P\tañoño", "D\tjosé"), lines);
+    }
+
+    @Test
+    void replayReadsSegmentsInOrderFromTheRequestedOne() throws IOException {
+        Files.writeString(directory.resolve("wal-2.log"), "b\n");
+        Files.writeString(directory.resolve("wal-10.log"), "c\n");
+        Files.writeString(directory.resolve("wal-1.log"), "a\n");
+        Files.writeString(directory.resolve("wal-x.log"), "ajeno\n");
+
+        assertEquals(List.of("a", "b", "c"), newLog(false).readSegments(0));
+        assertEquals(List.of("b", "c"), newLog(false).readSegments(2));
+    }
+
+    @Test
+    void rotationOpensTheNextSegmentAndOlderOnesCanBeDeleted() throws IOException {
+        Files.writeString(directory.resolve("wal-3.log"), "viejo\n");
+        SegmentedLog log = newLog(false);
+        log.start();
+        log.append("a", "uno").join();
+
+        long next = log.rotate();
+        assertEquals(5, next);
+        assertEquals(0, log.getRecords());
+        log.append("b", "dos").join();
+        log.deleteSegmentsBefore(next);
+        log.close();
+
+        assertEquals(List.of(5L), log.listSegments());
+        assertEquals(List.of("dos"), newLog(false).readSegments(0));
+        assertEquals(2, log.getWritten());
+    }
+
+    @Test
+    void newSegmentNeverFallsBelowTheFloor() throws IOException {
+        SegmentedLog log = new SegmentedLog(directory, "wal-", ".log", "test-writer", 0, false, () -> 7);
+        log.start();
+        log.append("a", "uno").join();
+        log.close();
+
+        assertEquals(List.of(8L), log.listSegments());
+    }
+
+    @Test
+    void coalesceKeepsTheLastRecordPerKeyWithinABatch() throws IOException {
+        // Con debounce los tres registros llegan al mismo lote
+        SegmentedLog log = new SegmentedLog(directory, "wal-", ".log", "test-writer", 200, true, () -> 0);
+        log.start();
+        log.append("ana", "P\tana-1");
+        log.append("luis", "P\tluis-1");
+        CompletableFuture<Void> last = log.append("ana", "P\tana-2");
+        last.join();
+        log.close();
+
+        assertEquals(List.of("P\tana-2", "P\tluis-1"), newLog(false).readSegments(0));
+        assertEquals(2, log.getWritten());
+    }
+
+    @Test
+    void appendAfterCloseIsNotPersisted() throws IOException {
+        SegmentedLog log = newLog(false);
+        log.start();
+        log.close();
+
+        assertNull(log.append("a", "tarde"));
+        assertEquals(List.of(), newLog(false).readSegments(0));
+    }
+
+    private SegmentedLog newLog(boolean coalesce) {
+        return new SegmentedLog(directory, "wal-", ".log", "test-writer", 0, coalesce, () -> 0);
+    }
+}
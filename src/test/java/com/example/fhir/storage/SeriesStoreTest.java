@@ -0,0 +1,164 @@
+package com.example.fhir.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Agregados y percentiles de SeriesStore contra un arreglo ordenado de referencia, con series
+ * de varios chunks, inserciones fuera de orden y bajas
+ */
+class SeriesStoreTest {
+
+    private static final String SUBJECT = "Patient/p1";
+    private static final String CODE = "http://loinc.org|8867-4";
+    private static final double[] PERCENTILES = {0, 1, 25, 50, 90, 99, 99.9, 100};
+
+    @Test
+    void statsMatchSortedReference() {
+        SeriesStore store = new SeriesStore();
+        List<Point> points = randomPoints(new Random(20), 20_000);
+        // Fuera de orden: obliga a dividir chunks intermedios
+        Collections.shuffle(points, new Random(21));
+        points.forEach(point -> store.add(SUBJECT, CODE, "/min", point.ordinal, point.instant, point.value));
+
+        assertWindows(store, points, new Random(22));
+    }
+
+    @Test
+    void statsMatchReferenceAfterRemovals() {
+        SeriesStore store = new SeriesStore();
+        List<Point> points = randomPoints(new Random(30), 15_000);
+        points.forEach(point -> store.add(SUBJECT, CODE, "/min", point.ordinal, point.instant, point.value));
+
+        Random random = new Random(31);
+        List<Point> kept = new ArrayList<>();
+        for (Point point : points) {
+            if (random.nextInt(3) == 0) {
+                store.remove(SUBJECT, CODE, "/min", point.ordinal, point.instant);
+            } else {
+                kept.add(point);
+            }
+        }
+        assertWindows(store, kept, new Random(32));
+
+        kept.forEach(point -> store.remove(SUBJECT, CODE, "/min", point.ordinal, point.instant));
+        assertTrue(store.stats(SUBJECT, CODE, null, Long.MIN_VALUE, Long.MAX_VALUE, PERCENTILES).isEmpty());
+    }
+
+    @Test
+    void unitsAreAggregatedSeparately() {
+        SeriesStore store = new SeriesStore();
+        store.add(SUBJECT, CODE, "kg", 1, 1_000, 80);
+        store.add(SUBJECT, CODE, "[lb_av]", 2, 2_000, 176);
+        store.add(SUBJECT, CODE, "kg", 3, 3_000, 82);
+        store.add(SUBJECT, CODE, null, 4, 4_000, 5);
+
+        List<ValueStats> all = store.stats(SUBJECT, CODE, null, Long.MIN_VALUE, Long.MAX_VALUE, new double[] {50});
+        assertEquals(3, all.size());
+        assertNull(all.get(0).getUnit());
+        assertEquals("[lb_av]", all.get(1).getUnit());
+        assertEquals("kg", all.get(2).getUnit());
+        assertEquals(81, all.get(2).getMean(), 1e-9);
+        assertEquals(81, all.get(2).getPercentiles().get(50.0), 1e-9);
+
+        List<ValueStats> kilograms = store.stats(SUBJECT, CODE, "kg", Long.MIN_VALUE, Long.MAX_VALUE, new double[0]);
+        assertEquals(1, kilograms.size());
+        assertEquals(2, kilograms.get(0).getCount());
+        assertEquals(80, kilograms.get(0).getMin(), 1e-9);
+        assertEquals(82, kilograms.get(0).getMax(), 1e-9);
+
+        // Sin valores en la ventana no se devuelve ningún bloque
+        assertTrue(store.stats(SUBJECT, CODE, null, 5_000, 6_000, new double[0]).isEmpty());
+        assertTrue(store.stats(SUBJECT, CODE, "mg", Long.MIN_VALUE, Long.MAX_VALUE, new double[0]).isEmpty());
+    }
+
+    @Test
+    void repeatedInstantsAreRemovedByOrdinal() {
+        SeriesStore store = new SeriesStore();
+        for (int ordinal = 0; ordinal < 10_000; ordinal++) {
+            store.add(SUBJECT, CODE, "/min", ordinal, 5_000, ordinal);
+        }
+        store.remove(SUBJECT, CODE, "/min", 9_999, 5_000);
+        store.remove(SUBJECT, CODE, "/min", 0, 5_000);
+
+        ValueStats stats = store.stats(SUBJECT, CODE, "/min", 5_000, 5_000, new double[0]).get(0);
+        assertEquals(9_998, stats.getCount());
+        assertEquals(1, stats.getMin(), 1e-9);
+        assertEquals(9_998, stats.getMax(), 1e-9);
+    }
+
+    private static void assertWindows(SeriesStore store, List<Point> points, Random random) {
+        assertWindow(store, points, Long.MIN_VALUE, Long.MAX_VALUE);
+        for (int i = 0; i < 20; i++) {
+            long a = random.nextInt(1_000_000);
+            long b = random.nextInt(1_000_000);
+            assertWindow(store, points, Math.min(a, b), Math.max(a, b));
+        }
+    }
+
+    private static void assertWindow(SeriesStore store, List<Point> points, long from, long to) {
+        double[] window = points.stream()
+            .filter(point -> point.instant >= from && point.instant <= to)
+            .mapToDouble(point -> point.value)
+            .sorted()
+            .toArray();
+        List<ValueStats> result = store.stats(SUBJECT, CODE, "/min", from, to, PERCENTILES);
+        if (window.length == 0) {
+            assertTrue(result.isEmpty());
+            return;
+        }
+        ValueStats stats = result.get(0);
+        String description = "ventana [" + from + ", " + to + "]";
+        assertEquals(window.length, stats.getCount(), description);
+        assertEquals(window[0], stats.getMin(), 1e-9, description);
+        assertEquals(window[window.length - 1], stats.getMax(), 1e-9, description);
+        assertEquals(Arrays.stream(window).average().orElseThrow(), stats.getMean(), 1e-6, description);
+        assertEquals(PERCENTILES.length, stats.getPercentiles().size());
+        for (double percentile : PERCENTILES) {
+            assertEquals(referencePercentile(window, percentile), stats.getPercentiles().get(percentile), 1e-9,
+                description + " p" + percentile);
+        }
+    }
+
+    /**
+     * Interpolación lineal entre los rangos vecinos del arreglo ordenado
+     */
+    private static double referencePercentile(double[] sorted, double percentile) {
+        double rank = percentile / 100.0 * (sorted.length - 1);
+        int lower = (int) Math.floor(rank);
+        int upper = Math.min(lower + 1, sorted.length - 1);
+        return sorted[lower] + (rank - lower) * (sorted[upper] - sorted[lower]);
+    }
+
+    /**
+     * Puntos con instantes y valores repetidos (valores enteros entre 40 y 160)
+     */
+    private static List<Point> randomPoints(Random random, int count) {
+        List<Point> points = new ArrayList<>();
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            points.add(new Point(ordinal, random.nextInt(1_000_000), 40 + random.nextInt(121)));
+        }
+        return points;
+    }
+
+    private static final class Point {
+        final int ordinal;
+        final long instant;
+        final double value;
+
+        Point(int ordinal, long instant, double value) {
+            this.ordinal = ordinal;
+            this.instant = instant;
+            this.value = value;
+        }
+    }
+}
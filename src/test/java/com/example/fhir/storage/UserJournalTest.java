@@ -0,0 +1,59 @@
+package com.example.fhir.storage;
+
+import com.example.fhir.model.User;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Recuperación del journal de usuarios tras un corte
+ */
+class UserJournalTest {
+
+    @TempDir
+    Path directory;
+
+    // Igual que UserStorage
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Test
+    void tornDeleteDoesNotRemoveAUserWhoseNameIsAPrefix() throws IOException {
+        String ana = objectMapper.writeValueAsString(new User("ana", "hash", "user"));
+        String anabel = objectMapper.writeValueAsString(new User("anabel", "hash", "user"));
+        // La baja de "anabel" quedó truncada en "D\tana"
+        Files.writeString(directory.resolve("users-journal-1.log"),
+            "P\t" + ana + "\nP\t" + anabel + "\nD\tana", StandardCharsets.UTF_8);
+
+        Map<String, User> users = new HashMap<>();
+        long replayed = new UserJournal(directory, objectMapper, false, 0, 1000).recover(users);
+
+        assertEquals(2, replayed);
+        assertEquals(2, users.size());
+        assertEquals("anabel", users.get("anabel").getUsername());
+    }
+
+    @Test
+    void completeDeleteIsReplayedOverUsersFile() throws IOException {
+        User ana = new User("ana", "hash", "user");
+        User luis = new User("luis", "hash", "admin");
+        objectMapper.writeValue(directory.resolve("users.json").toFile(), new User[] {ana, luis});
+        Files.writeString(directory.resolve("users-journal-3.log"), "D\tluis\n", StandardCharsets.UTF_8);
+
+        Map<String, User> users = new HashMap<>();
+        new UserJournal(directory, objectMapper, false, 0, 1000).recover(users);
+
+        assertEquals(Set.of("ana"), users.keySet());
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.fhir.storage;
+
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
+import com.example.fhir.util.FhirContextRegistry;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Reconstrucción del historial comprimido, incluida la eliminación y re-creación de un ID
+ */
+class VersionHistoryTest {
+
+    private VersionHistory<Patient> history;
+
+    @BeforeEach
+    void setUp() {
+        history = new VersionHistory<>(FhirContextRegistry.getR4Context(), Patient.class, "Patient");
+    }
+
+    @Test
+    void historyAfterDeleteAndRecreate() {
+        Patient v1 = patient("Ana");
+        history.onSave("p1", null, v1);
+        Patient v2 = patient("Ana María");
+        history.onSave("p1", v1, v2);
+        history.onDelete("p1", v2);
+        Patient v4 = patient("Luis");
+        history.onSave("p1", null, v4);
+        Patient v5 = patient("Luis Alberto");
+        history.onSave("p1", v4, v5);
+
+        assertEquals("5", v5.getMeta().getVersionId());
+        List<Patient> versions = history.getHistory("p1", null);
+        assertEquals(4, versions.size());
+        assertVersion(versions.get(0), 4, "Luis");
+        assertTombstone(versions.get(1), 3);
+        assertVersion(versions.get(2), 2, "Ana María");
+        assertVersion(versions.get(3), 1, "Ana");
+
+        assertVersion(history.getVersion("p1", 4), 4, "Luis");
+        assertTombstone(history.getVersion("p1", 3), 3);
+        assertVersion(history.getVersion("p1", 2), 2, "Ana María");
+        assertVersion(history.getVersion("p1", 1), 1, "Ana");
+        // La versión actual vive en el mapa principal, no en el historial
+        assertNull(history.getVersion("p1", 5));
+    }
+
+    @Test
+    void versionNumberingContinuesAfterPrune() {
+        Patient v1 = patient("Ana");
+        history.onSave("p1", null, v1);
+        Patient v2 = patient("Ana María");
+        history.onSave("p1", v1, v2);
+        history.onDelete("p1", v2);
+
+        assertEquals(2, history.prune(1, 0));
+        Patient v4 = patient("Luis");
+        history.onSave("p1", null, v4);
+
+        assertEquals("4", v4.getMeta().getVersionId());
+        List<Patient> versions = history.getHistory("p1", null);
+        assertEquals(1, versions.size());
+        assertTombstone(versions.get(0), 3);
+    }
+
+    @Test
+    void historyDoesNotDependOnLiveCurrentVersion() {
+        Patient v1 = patient("Ana");
+        history.onSave("p1", null, v1);
+        Patient v2 = patient("Ana María");
+        history.onSave("p1", v1, v2);
+        // El diccionario se codificó al guardar: cambios posteriores al objeto vivo no lo alteran
+        v2.getNameFirstRep().setFamily("Otro apellido bastante más largo");
+
+        assertVersion(history.getVersion("p1", 1), 1, "Ana");
+        assertVersion(history.getHistory("p1", null).get(0), 1, "Ana");
+    }
+
+    @Test
+    void resourceWithoutPreviousVersionsHasNoHistory() {
+        history.onSave("p2", null, patient("Eva"));
+
+        assertEquals(List.of(), history.getHistory("p2", null));
+        assertEquals(0, history.getIdsWithHistory().size());
+    }
+
+    private static Patient patient(String given) {
+        Patient patient = new Patient();
+        patient.addName().setFamily("Pérez").addGiven(given);
+        return patient;
+    }
+
+    private static void assertVersion(Patient patient, long version, String given) {
+        assertNotNull(patient, "versión " + version);
+        assertEquals(Long.toString(version), patient.getMeta().getVersionId());
+        assertEquals(given, patient.getNameFirstRep().getGivenAsSingleString());
+        assertNull(ResourceMetadataKeyEnum.DELETED_AT.get(patient));
+    }
+
+    private static void assertTombstone(Patient patient, long version) {
+        assertNotNull(patient, "tombstone " + version);
+        assertEquals(Long.toString(version), patient.getMeta().getVersionId());
+        assertNotNull(ResourceMetadataKeyEnum.DELETED_AT.get(patient));
+    }
+}